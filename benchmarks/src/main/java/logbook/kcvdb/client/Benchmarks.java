@@ -0,0 +1,25 @@
+package logbook.kcvdb.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ベンチマークを実行します<br>
+ * 引数はJMHのコマンドラインと同じです。{@code -prof}の指定が無い場合はGCプロファイラーを有効にし、アロケーションレートを出力します
+ *
+ */
+public final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (!arguments.contains("-prof") && !arguments.contains("-h") && !arguments.contains("-l")) {
+            arguments.add(0, "-prof");
+            arguments.add(1, "gc");
+        }
+        org.openjdk.jmh.Main.main(arguments.toArray(new String[arguments.size()]));
+    }
+}
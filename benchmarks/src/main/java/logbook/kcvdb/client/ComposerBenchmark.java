@@ -0,0 +1,69 @@
+package logbook.kcvdb.client;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 送信データの構成と圧縮を計測します
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ComposerBenchmark {
+
+    @Param({ "SMALL", "PORT", "START2" })
+    public Payloads.Shape shape;
+
+    @Param({ "1", "10", "100" })
+    public int batchSize;
+
+    @Param({ "STRING", "UTF8" })
+    public BodyStorage storage;
+
+    private List<ApiData> datas;
+
+    @Setup
+    public void setup() {
+        this.datas = Payloads.datas(this.shape, this.batchSize, this.storage);
+    }
+
+    /**
+     * 既定の圧縮レベルで構成し、バイト配列として取得します
+     *
+     * @return 送信データ
+     */
+    @Benchmark
+    public byte[] composeBody() {
+        return Composer.composeBody(this.datas);
+    }
+
+    /**
+     * 最も速い圧縮レベルで構成し、出力ストリームへ直接書き込みます
+     *
+     * @return 書き込んだバイト数
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    @Benchmark
+    public long writeBodyFast() throws IOException {
+        NullOutputStream out = new NullOutputStream();
+        Composer.writeBody(this.datas, Redactor.defaults(), Compression.FAST, out);
+        return out.count;
+    }
+}
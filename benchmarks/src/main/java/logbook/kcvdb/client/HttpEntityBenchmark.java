@@ -0,0 +1,77 @@
+package logbook.kcvdb.client;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ApiDataの追加から送信メッセージの書き込みまでを計測します<br>
+ * 送信先へは接続せず、送信メッセージは書き込まれたバイト数を数えるだけの出力ストリームへ書き込みます
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class HttpEntityBenchmark {
+
+    @Param({ "PORT", "START2" })
+    public Payloads.Shape shape;
+
+    @Param({ "10", "100" })
+    public int batchSize;
+
+    @Param({ "false", "true" })
+    public boolean preSerialize;
+
+    private List<ApiData> datas;
+
+    private GzipSender sender;
+
+    @Setup
+    public void setup() {
+        this.datas = Payloads.datas(this.shape, this.batchSize, BodyStorage.STRING);
+        this.sender = new GzipSender();
+        this.sender.preSerialize = this.preSerialize;
+        // 1回で全て取り出せるようにする
+        this.sender.setQueue(SendQueue.createBuilder()
+                .setMaxBytes(Long.MAX_VALUE)
+                .build());
+        this.sender.flushPolicy = FlushPolicy.createBuilder()
+                .setMaxRecords(Integer.MAX_VALUE)
+                .setMaxBytes(Long.MAX_VALUE)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.sender.close();
+    }
+
+    @Benchmark
+    public long httpEntity() throws IOException {
+        for (ApiData data : this.datas) {
+            this.sender.add(data);
+        }
+        HttpEntity entity = this.sender.httpEntity().get();
+        NullOutputStream out = new NullOutputStream();
+        entity.writeTo(out);
+        return out.count;
+    }
+}
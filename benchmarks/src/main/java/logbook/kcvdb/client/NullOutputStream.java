@@ -0,0 +1,23 @@
+package logbook.kcvdb.client;
+
+import java.io.OutputStream;
+
+/**
+ * 書き込まれたバイト数だけを数える出力ストリームです
+ *
+ */
+final class NullOutputStream extends OutputStream {
+
+    /** 書き込まれたバイト数 */
+    long count;
+
+    @Override
+    public void write(int b) {
+        this.count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        this.count += len;
+    }
+}
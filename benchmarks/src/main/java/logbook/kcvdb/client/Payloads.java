@@ -0,0 +1,174 @@
+package logbook.kcvdb.client;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ベンチマークで使用する艦これAPIに似せたApiDataを生成します<br>
+ * 乱数の種を固定しているため、同じ引数では常に同じ内容になります
+ *
+ */
+public final class Payloads {
+
+    /** 艦娘の名前(マルチバイト文字のエスケープを含めて計測するため) */
+    private static final String[] NAMES = { "吹雪", "白雪", "初雪", "深雪", "叢雲", "磯波", "綾波", "敷波", "長門", "陸奥" };
+
+    private Payloads() {
+    }
+
+    /**
+     * APIの種類
+     */
+    public enum Shape {
+
+        /** api_get_member/useitem のような数百バイトのレスポンス */
+        SMALL("/kcsapi/api_get_member/useitem") {
+            @Override
+            String responseBody(Random random) {
+                StringBuilder sb = header();
+                sb.append("[");
+                for (int i = 0; i < 5; i++) {
+                    sb.append(i == 0 ? "" : ",")
+                            .append("{\"api_id\":").append(i + 1)
+                            .append(",\"api_count\":").append(random.nextInt(100))
+                            .append('}');
+                }
+                return sb.append("]}").toString();
+            }
+        },
+
+        /** api_port/port のような数十KBのレスポンス */
+        PORT("/kcsapi/api_port/port") {
+            @Override
+            String responseBody(Random random) {
+                StringBuilder sb = header();
+                sb.append("{\"api_material\":[");
+                for (int i = 0; i < 8; i++) {
+                    sb.append(i == 0 ? "" : ",")
+                            .append("{\"api_member_id\":12345678,\"api_id\":").append(i + 1)
+                            .append(",\"api_value\":").append(random.nextInt(300000)).append('}');
+                }
+                sb.append("],\"api_ship\":[");
+                for (int i = 0; i < 120; i++) {
+                    ship(sb.append(i == 0 ? "" : ","), random, i);
+                }
+                sb.append("],\"api_basic\":{\"api_nickname\":\"提督\\u3055\\u3093\",\"api_comment\":\"\\\\/\"}}");
+                return sb.append('}').toString();
+            }
+        },
+
+        /** api_start2/getData のような数百KBのマスターデータ */
+        START2("/kcsapi/api_start2/getData") {
+            @Override
+            String responseBody(Random random) {
+                StringBuilder sb = header();
+                sb.append("{\"api_mst_ship\":[");
+                for (int i = 0; i < 1500; i++) {
+                    sb.append(i == 0 ? "" : ",")
+                            .append("{\"api_id\":").append(i + 1)
+                            .append(",\"api_sortno\":").append(random.nextInt(2000))
+                            .append(",\"api_name\":\"").append(NAMES[random.nextInt(NAMES.length)]).append(i)
+                            .append("\",\"api_yomi\":\"\\u3075\\u3076\\u304d\",\"api_stype\":").append(random.nextInt(22))
+                            .append(",\"api_taik\":[").append(random.nextInt(100)).append(',').append(random.nextInt(100))
+                            .append("],\"api_souk\":[").append(random.nextInt(100)).append(',').append(random.nextInt(100))
+                            .append("],\"api_houg\":[").append(random.nextInt(100)).append(',').append(random.nextInt(100))
+                            .append("],\"api_getmes\":\"").append(NAMES[random.nextInt(NAMES.length)])
+                            .append("です。<br>よろしくお願いします！\"}");
+                }
+                sb.append("],\"api_mst_slotitem\":[");
+                for (int i = 0; i < 600; i++) {
+                    sb.append(i == 0 ? "" : ",")
+                            .append("{\"api_id\":").append(i + 1)
+                            .append(",\"api_name\":\"12.7cm連装砲").append(i)
+                            .append("\",\"api_type\":[").append(random.nextInt(5)).append(',').append(random.nextInt(40))
+                            .append("],\"api_houg\":").append(random.nextInt(20)).append('}');
+                }
+                return sb.append("]}}").toString();
+            }
+        };
+
+        /** APIのパス */
+        final String path;
+
+        Shape(String path) {
+            this.path = path;
+        }
+
+        abstract String responseBody(Random random);
+    }
+
+    /**
+     * ApiDataを生成します
+     *
+     * @param shape APIの種類
+     * @param count 件数
+     * @param storage ボディを保持する形式
+     * @return ApiData
+     */
+    static List<ApiData> datas(Shape shape, int count, BodyStorage storage) {
+        Random random = new Random(count * 31L + shape.ordinal());
+        // 同じレスポンスを使い回すとStringが共有されるため、件数分の別のレスポンスを生成する
+        List<ApiData> datas = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            datas.add(data(shape, random, storage));
+        }
+        return datas;
+    }
+
+    /**
+     * ApiDataを1件生成します
+     *
+     * @param shape APIの種類
+     * @param random 乱数
+     * @param storage ボディを保持する形式
+     * @return ApiData
+     */
+    static ApiData data(Shape shape, Random random, BodyStorage storage) {
+        return ApiData.createBuilder()
+                .setBodyStorage(storage)
+                .setRequestUri("http://203.104.209.71" + shape.path)
+                .setRequestBody(requestBody(random))
+                .setResponseBody(shape.responseBody(random))
+                .setStatusCode(200)
+                .setHttpDate("Sat, 07 May 2016 01:34:30 GMT")
+                .setLocalTime(ZonedDateTime.now())
+                .build();
+    }
+
+    /**
+     * api_tokenを含むリクエストボディを生成します
+     *
+     * @param random 乱数
+     * @return リクエストボディ
+     */
+    static String requestBody(Random random) {
+        StringBuilder token = new StringBuilder(40);
+        for (int i = 0; i < 40; i++) {
+            token.append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return "api%5Fverno=1&api%5Ftoken=" + token + "&api%5Fport=" + random.nextInt(100000000)
+                + "&spi%5Fsort%5Forder=2&spi%5Fsort%5Fitem=2";
+    }
+
+    private static StringBuilder header() {
+        return new StringBuilder(1024).append("svdata={\"api_result\":1,\"api_result_msg\":\"成功\",\"api_data\":");
+    }
+
+    private static void ship(StringBuilder sb, Random random, int i) {
+        sb.append("{\"api_id\":").append(i + 1)
+                .append(",\"api_sortno\":").append(random.nextInt(2000))
+                .append(",\"api_ship_id\":").append(random.nextInt(1500))
+                .append(",\"api_lv\":").append(random.nextInt(175) + 1)
+                .append(",\"api_exp\":[").append(random.nextInt(1000000)).append(",0,0]")
+                .append(",\"api_nowhp\":").append(random.nextInt(100))
+                .append(",\"api_slot\":[").append(random.nextInt(5000)).append(',').append(random.nextInt(5000))
+                .append(",-1,-1,-1],\"api_onslot\":[0,0,0,0,0],\"api_kyouka\":[0,0,0,0,0,0,0]")
+                .append(",\"api_fuel\":").append(random.nextInt(100))
+                .append(",\"api_bull\":").append(random.nextInt(100))
+                .append(",\"api_cond\":").append(random.nextInt(100))
+                .append(",\"api_karyoku\":[").append(random.nextInt(200)).append(",200]")
+                .append(",\"api_locked\":1}");
+    }
+}
@@ -0,0 +1,122 @@
+package logbook.kcvdb.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 複数のスレッドから{@link AbstractSender#offer(ApiData)}を呼び出し、1つのスレッドが送信用のスレッドと同じくまとめて取り出す場合の競合を計測します<br>
+ * 取り出す側の結果は空のキューからの取り出しを含むため、実際に取り出したApiDataの数は{@code records}を参照してください
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class QueueBenchmark {
+
+    /** 1回に取り出す最大の件数 */
+    private static final int BATCH = 64;
+
+    @Param({ "false", "true" })
+    public boolean preSerialize;
+
+    private GzipSender sender;
+
+    private SendQueue queue;
+
+    @Setup
+    public void setup() {
+        this.queue = SendQueue.createBuilder().build();
+        this.sender = new GzipSender();
+        this.sender.setQueue(this.queue);
+        this.sender.preSerialize = this.preSerialize;
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.sender.close();
+    }
+
+    /**
+     * 追加するスレッドごとの状態
+     */
+    @State(Scope.Thread)
+    public static class Producer {
+
+        /** スレッドごとに生成するApiDataの数 */
+        private static final int POOL = 1024;
+
+        private ApiData[] datas;
+
+        private int index;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            List<ApiData> datas = Payloads.datas(Payloads.Shape.SMALL, POOL, BodyStorage.STRING);
+            this.datas = datas.toArray(new ApiData[datas.size()]);
+        }
+
+        ApiData next() {
+            ApiData data = this.datas[this.index++ & (POOL - 1)];
+            // 前回追加した時に構成したJSONを破棄し、追加の度に構成させる
+            data.setFragment(null);
+            return data;
+        }
+    }
+
+    /**
+     * 取り出すスレッドの状態
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Consumer {
+
+        /** 取り出したApiDataの数 */
+        public long records;
+
+        private final List<ApiData> sink = new ArrayList<>(BATCH);
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.records = 0;
+        }
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public boolean offer(Producer producer) {
+        return this.sender.offer(producer.next());
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public int drain(Consumer consumer) {
+        List<ApiData> sink = consumer.sink;
+        sink.clear();
+        this.queue.drain(sink, BATCH, Long.MAX_VALUE);
+        consumer.records += sink.size();
+        return sink.size();
+    }
+}
@@ -0,0 +1,49 @@
+package logbook.kcvdb.client;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * リクエストボディからのapi_tokenの除去を計測します<br>
+ * 比較のため、以前の実装と同じ正規表現による除去も計測します
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RedactorBenchmark {
+
+    private static final Pattern TOKEN = Pattern.compile("&api(_|%5F)token=[0-9a-f]+|api(_|%5F)token=[0-9a-f]+&?");
+
+    private String body;
+
+    @Setup
+    public void setup() {
+        this.body = Payloads.requestBody(new Random(0));
+    }
+
+    @Benchmark
+    public String redactor() {
+        return Redactor.defaults().redact(this.body);
+    }
+
+    @Benchmark
+    public String regex() {
+        return TOKEN.matcher(this.body).replaceAll("");
+    }
+}
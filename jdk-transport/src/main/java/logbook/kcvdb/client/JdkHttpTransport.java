@@ -0,0 +1,294 @@
+package logbook.kcvdb.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+
+/**
+ * java.net.http.HttpClient で送信するトランスポートです<br>
+ * 送信は非同期に行い、応答を待つ間は送信用のスレッドを占有しません。
+ * 送信先がHTTP/2に対応している場合は、同時に送信する複数のバッチを1つの接続で多重化して送信します<br>
+ * 送信メッセージは送信しながら書き込み用のスレッドで構成するため、送信用のスレッドで圧縮を待たず、全体をメモリ上に保持しません<br>
+ * 1つのインスタンスを複数の送信クラスで共有すると、全てのセッションのバッチが同じ接続で送信されます
+ *
+ * <pre>
+ * JdkHttpTransport transport = JdkHttpTransport.createBuilder().build();
+ * sender.setTransport(transport);
+ * </pre>
+ *
+ */
+public class JdkHttpTransport implements Transport {
+
+    /** HttpClient */
+    private final HttpClient client;
+
+    /** 応答を待つ最大の時間 */
+    private final Duration requestTimeout;
+
+    /** 送信メッセージを書き込むスレッド */
+    private final ExecutorService writer;
+
+    private JdkHttpTransport(HttpClient client, Duration requestTimeout) {
+        this.client = client;
+        this.requestTimeout = requestTimeout;
+        AtomicInteger count = new AtomicInteger();
+        this.writer = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "kcvdb-jdk-writer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Response> post(String uri, HttpEntity entity) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(uri))
+                .timeout(this.requestTimeout)
+                .POST(new EntityPublisher(entity, this.writer));
+        Header contentType = entity.getContentType();
+        if (contentType != null) {
+            request.header(contentType.getName(), contentType.getValue());
+        }
+        return this.send(request.build());
+    }
+
+    @Override
+    public CompletableFuture<Response> head(String uri) {
+        return this.send(HttpRequest.newBuilder(URI.create(uri))
+                .timeout(this.requestTimeout)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build());
+    }
+
+    /**
+     * 送信メッセージを書き込むスレッドを終了します<br>
+     * HttpClientはGCされる時に閉じられます
+     */
+    @Override
+    public void close() {
+        this.writer.shutdown();
+    }
+
+    private CompletableFuture<Response> send(HttpRequest request) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        this.client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+            if (e == null) {
+                future.complete(new Response(response.statusCode(),
+                        response.headers().firstValue("Retry-After").orElse(null)));
+            } else {
+                future.completeExceptionally(translate(e));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 例外を送信クラスが扱う例外に変換します<br>
+     * 応答のタイムアウトは送信メッセージを分割して送信し直せるよう{@link SocketTimeoutException}にします
+     *
+     * @param e 例外
+     * @return 変換した例外
+     */
+    private static Throwable translate(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof HttpTimeoutException && !(cause instanceof HttpConnectTimeoutException)) {
+            SocketTimeoutException timeout = new SocketTimeoutException(cause.getMessage());
+            timeout.initCause(cause);
+            return timeout;
+        }
+        return cause;
+    }
+
+    /**
+     * 送信メッセージを書き込みながら送信するBodyPublisherです<br>
+     * 購読されると書き込み用のスレッドで送信メッセージを書き込み、送信が追いつかない場合は書き込みを待機します。
+     * HttpClientが送信し直す場合は、購読される度に書き込み直します
+     */
+    private static final class EntityPublisher implements HttpRequest.BodyPublisher {
+
+        /** 送信先へ渡していないバッファの最大数 */
+        private static final int BUFFERS = 4;
+
+        /** 送信メッセージ */
+        private final HttpEntity entity;
+
+        /** 書き込み用のスレッド */
+        private final ExecutorService executor;
+
+        EntityPublisher(HttpEntity entity, ExecutorService executor) {
+            this.entity = entity;
+            this.executor = executor;
+        }
+
+        @Override
+        public long contentLength() {
+            // 長さが分からない場合は負の値になり、チャンク形式で送信される
+            return this.entity.getContentLength();
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>(this.executor, BUFFERS);
+            publisher.subscribe(subscriber);
+            try {
+                this.executor.execute(() -> {
+                    try {
+                        ChunkOutputStream out = new ChunkOutputStream(publisher);
+                        this.entity.writeTo(out);
+                        out.close();
+                    } catch (IOException | RuntimeException e) {
+                        publisher.closeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                publisher.closeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 書き込まれたバイト列を一定の大きさに区切ってSubmissionPublisherへ渡すOutputStreamです<br>
+     * 閉じると残りのバイト列を渡してSubmissionPublisherを閉じます
+     */
+    private static final class ChunkOutputStream extends OutputStream {
+
+        /** 1つのバッファの大きさ */
+        private static final int CHUNK = 16 * 1024;
+
+        private final SubmissionPublisher<ByteBuffer> publisher;
+
+        private final byte[] buffer = new byte[CHUNK];
+
+        private int count;
+
+        ChunkOutputStream(SubmissionPublisher<ByteBuffer> publisher) {
+            this.publisher = publisher;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (this.count == this.buffer.length) {
+                this.submit();
+            }
+            this.buffer[this.count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (this.count == this.buffer.length) {
+                    this.submit();
+                }
+                int n = Math.min(len, this.buffer.length - this.count);
+                System.arraycopy(b, off, this.buffer, this.count, n);
+                this.count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.submit();
+            this.publisher.close();
+        }
+
+        /**
+         * バッファのバイト列をSubmissionPublisherへ渡します<br>
+         * 送信先へ渡していないバッファが多い場合は待機します
+         *
+         * @throws IOException 送信が中断された場合
+         */
+        private void submit() throws IOException {
+            if (this.count == 0) {
+                return;
+            }
+            if (!this.publisher.hasSubscribers()) {
+                throw new IOException("送信が中断されました");
+            }
+            this.publisher.submit(ByteBuffer.wrap(Arrays.copyOf(this.buffer, this.count)));
+            this.count = 0;
+        }
+    }
+
+    /**
+     * JdkHttpTransportBuilder を作成します
+     * @return JdkHttpTransportBuilder
+     */
+    public static JdkHttpTransportBuilder createBuilder() {
+        return new JdkHttpTransportBuilder();
+    }
+
+    public static class JdkHttpTransportBuilder {
+
+        private HttpClient.Version version = HttpClient.Version.HTTP_2;
+
+        private Duration connectTimeout = Duration.ofSeconds(10);
+
+        private Duration requestTimeout = Duration.ofSeconds(30);
+
+        /**
+         * 使用するHTTPのバージョンを設定します。既定値はHTTP/2です。
+         * HTTP/2に対応していない送信先にはHTTP/1.1で送信します。
+         * @param version HTTPのバージョン
+         * @return
+         */
+        public JdkHttpTransportBuilder setVersion(HttpClient.Version version) {
+            this.version = Objects.requireNonNull(version, "HTTPのバージョン");
+            return this;
+        }
+
+        /**
+         * 接続のタイムアウトを設定します。既定値は10秒です。
+         * @param connectTimeout 接続のタイムアウト
+         * @return
+         */
+        public JdkHttpTransportBuilder setConnectTimeout(Duration connectTimeout) {
+            this.connectTimeout = Objects.requireNonNull(connectTimeout, "接続のタイムアウト");
+            return this;
+        }
+
+        /**
+         * 送信を開始してから応答を待つ最大の時間を設定します。既定値は30秒です。
+         * @param requestTimeout 応答を待つ最大の時間
+         * @return
+         */
+        public JdkHttpTransportBuilder setRequestTimeout(Duration requestTimeout) {
+            this.requestTimeout = Objects.requireNonNull(requestTimeout, "応答を待つ最大の時間");
+            return this;
+        }
+
+        /**
+         * JdkHttpTransportを生成します
+         *
+         * @return JdkHttpTransport
+         */
+        public JdkHttpTransport build() {
+            HttpClient client = HttpClient.newBuilder()
+                    .version(this.version)
+                    .connectTimeout(this.connectTimeout)
+                    .build();
+            return new JdkHttpTransport(client, this.requestTimeout);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package logbook.kcvdb.client;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.junit.Test;
+
+public class JdkHttpTransportTest {
+
+    /**
+     * 送信して5xxとRetry-Afterの場合は再送信する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void sendTest() throws Exception {
+        try (StandInServer server = StandInServer.start();
+                JdkHttpTransport transport = JdkHttpTransport.createBuilder().build()) {
+            server.enqueue(StandInServer.Fault.retryAfter(503, Duration.ofSeconds(1)));
+            GzipSender sender = server.sender();
+            sender.setTransport(transport);
+            sender.waitTime = Duration.ZERO;
+            for (int i = 0; i < 5; i++) {
+                sender.add(TestData.port("id=" + i));
+            }
+            sender.send();
+            sender.close();
+
+            assertEquals(2, server.requests());
+            assertEquals(5, server.received().size());
+            assertEquals(0, server.invalid());
+        }
+    }
+
+    /**
+     * 書き込み用のバッファより大きい送信メッセージを区切って送信する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void largeTest() throws Exception {
+        try (StandInServer server = StandInServer.start();
+                JdkHttpTransport transport = JdkHttpTransport.createBuilder().build()) {
+            GzipSender sender = server.sender();
+            sender.setTransport(transport);
+            sender.waitTime = Duration.ZERO;
+            Random random = new Random(0);
+            for (int i = 0; i < 8; i++) {
+                byte[] bytes = new byte[32 * 1024];
+                random.nextBytes(bytes);
+                sender.add(ApiData.createBuilder()
+                        .setStatusCode(200)
+                        .setHttpDate("Sat, 07 May 2016 01:34:37 GMT")
+                        .setLocalTime(ZonedDateTime.now())
+                        .setRequestBody("api_verno=1")
+                        .setRequestUri("http://203.104.209.71/kcsapi/api_port/port?id=" + i)
+                        .setResponseBody("svdata=" + Base64.getEncoder().encodeToString(bytes))
+                        .build());
+            }
+            sender.send();
+            sender.close();
+
+            assertEquals(1, server.requests());
+            assertEquals(8, server.received().size());
+            assertEquals(0, server.invalid());
+            assertTrue(server.bytes() > 256 * 1024);
+        }
+    }
+
+    /**
+     * 送信メッセージを書き込めない場合は例外で完了する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void writeFailureTest() throws Exception {
+        try (StandInServer server = StandInServer.start();
+                JdkHttpTransport transport = JdkHttpTransport.createBuilder().build()) {
+            HttpEntity entity = new ByteArrayEntity(new byte[64 * 1024]) {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    out.write(new byte[32 * 1024]);
+                    throw new IOException("書き込めません");
+                }
+            };
+            try {
+                transport.post(server.uri(), entity).get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            assertEquals(0, server.received().size());
+        }
+    }
+
+    /**
+     * 応答を待つ間スレッドを占有せず、1つのスレッドで複数のバッチを同時に送信する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void concurrentTest() throws Exception {
+        // 既定のトランスポートは応答を待つ間スレッドを占有するため、1つずつ送信する
+        assertEquals(1, this.maxInFlight(null));
+        try (JdkHttpTransport transport = JdkHttpTransport.createBuilder().build()) {
+            assertEquals(8, this.maxInFlight(transport));
+        }
+    }
+
+    /**
+     * 1つのスレッドで8個のバッチを同時に送信できる設定で全て送信し、サーバーが同時に処理したリクエストの最大数を取得します
+     *
+     * @param transport トランスポート、nullの場合は既定のトランスポート
+     * @return 同時に処理したリクエストの最大数
+     * @throws Exception
+     */
+    private int maxInFlight(Transport transport) throws Exception {
+        try (StandInServer server = StandInServer.start()) {
+            server.setLatency(Duration.ofMillis(200));
+            SenderEngine engine = SenderEngine.createBuilder()
+                    .setThreads(1)
+                    .build();
+            GzipSender sender = server.sender(engine.getConnectionPool());
+            sender.setTransport(transport);
+            sender.waitTime = Duration.ZERO;
+            sender.window = 8;
+            sender.flushPolicy = FlushPolicy.createBuilder()
+                    .setMaxRecords(1)
+                    .build();
+            sender.start(engine);
+            for (int i = 0; i < 8; i++) {
+                sender.add(TestData.port("id=" + i));
+            }
+            // 送信が終わるまで待機する
+            sender.close();
+            engine.close();
+            assertEquals(8, server.received().size());
+            return server.maxInFlight();
+        }
+    }
+}
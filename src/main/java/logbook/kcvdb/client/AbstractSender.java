@@ -1,33 +1,55 @@
 package logbook.kcvdb.client;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Queue;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.ServiceUnavailableRetryStrategy;
 import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.protocol.HttpContext;
 
 /**
  * KCVDBへ送信する抽象クラスです
  *
  */
-public abstract class AbstractSender {
+public abstract class AbstractSender implements Closeable {
+
+    /** 送信先が送信の頻度を制限したことを表すステータスコード */
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /** 送信待ちのApiDataが無いことを表す{@link #firstPending}の値 */
+    static final long NO_PENDING = Long.MIN_VALUE;
 
     /** セッションID */
     protected UUID sessionId = UUID.randomUUID();
@@ -35,35 +57,438 @@ public abstract class AbstractSender {
     /** 送信クライアント */
     protected String agent = "logbook-kcvdb-client v1";
 
+    /** リクエストボディから秘匿すべきパラメータを取り除くRedactor */
+    protected Redactor redactor = Redactor.defaults();
+
+    /** 送信待ちキューに追加する前にApiDataを除外、間引き、又は振り分けるApiFilter */
+    protected ApiFilter filter = ApiFilter.acceptAll();
+
+    /** 送信データの圧縮レベルと圧縮方式 */
+    protected Compression compression = Compression.DEFAULT;
+
+    /** 大きな送信データを並列に圧縮する設定(nullの場合は並列に圧縮しない) */
+    protected ParallelCompression parallelCompression;
+
+    /** {@link #add(ApiData)}を呼び出したスレッドで送信データのJSONを事前に構成するか */
+    protected boolean preSerialize;
+
     /** 送信待ちキュー */
-    protected Queue<ApiData> queue = new ArrayBlockingQueue<>(32);
+    protected Queue<ApiData> queue = SendQueue.createBuilder().build();
 
-    /** 送信リトライカウント */
-    protected int failureCount = 0;
+    /** APIごとに送信待ちキューと送信の条件を分けるレーン */
+    private volatile Lanes lanes = Lanes.NONE;
 
-    /** 最大送信リトライ数 */
-    protected int maxFailure = 5;
+    /** 送信待ちのApiDataをディスクに書き込むスプール */
+    protected Spool spool;
 
-    /** 送信待ち時間 */
+    /** スプールから1回に送信する最大数 */
+    protected int spoolBatchSize = 32;
+
+    /** 送信に失敗したバッチの再送信ポリシー */
+    protected RetryPolicy retryPolicy = RetryPolicy.createBuilder().build();
+
+    /** 送信先が停止している間の送信を止めるサーキットブレーカー */
+    protected CircuitBreaker circuitBreaker = CircuitBreaker.createBuilder().build();
+
+    /** 送信待ち時間({@link #rateLimiter}が設定されていない場合の送信の間隔) */
     protected Duration waitTime = Duration.ofSeconds(1);
 
-    /** 送信失敗時の待ち時間 */
-    protected Duration coolDownTime = Duration.ofSeconds(20);
+    /** 送信の頻度を制限するRateLimiter(nullの場合は{@link #waitTime}の間隔で送信する) */
+    protected RateLimiter rateLimiter;
+
+    /** {@link #waitTime}から作成したRateLimiter */
+    private RateLimiter intervalLimiter;
+
+    /** {@link #intervalLimiter}を作成した時の{@link #waitTime} */
+    private Duration intervalTime;
 
     /** 最後に送信試行(成功失敗を問わない)した時間 */
     protected LocalDateTime sendTime = LocalDateTime.MIN;
 
+    /** 送信待ちのApiDataをまとめて送信する条件 */
+    protected FlushPolicy flushPolicy = FlushPolicy.createBuilder().build();
+
+    /** 送信先が413を返したために調整した、1回に送信するApiDataの最大の合計サイズ */
+    private volatile long adaptiveBytes = Long.MAX_VALUE;
+
+    /** 最も古い送信待ちのApiDataを追加した時刻(ナノ秒) */
+    private final AtomicLong firstPending = new AtomicLong(NO_PENDING);
+
+    /** 件数又はサイズが上限に達したために送信を要求しているか */
+    private final AtomicBoolean triggered = new AtomicBoolean();
+
+    /** 計測値 */
+    protected final SenderMetrics metrics = new SenderMetrics(this::queues);
+
+    /** 計測値を出力する間隔 */
+    protected Duration exportInterval = Duration.ofMinutes(1);
+
+    /** 計測値を出力するMetricsExporter */
+    private final List<MetricsExporter> exporters = new CopyOnWriteArrayList<>();
+
+    /** {@link #close()}で送信の完了を待つ最大の時間 */
+    protected Duration closeTimeout = Duration.ofSeconds(30);
+
+    /** バックグラウンドで同時に送信するバッチの最大数 */
+    protected int window = 1;
+
+    /** {@link #start()}でバッチの構成と送信を仮想スレッドで行うか(Java 21以降で有効) */
+    protected boolean virtualThreads;
+
+    /** バッチの構成を直列化するためのロック */
+    private final Object sendLock = new Object();
+
+    /** 構成中のバッチ */
+    private Batch building;
+
+    /** 次に構成するバッチの順序 */
+    private long nextSequence;
+
+    /** 送信結果を確定させるためのロック */
+    private final Object ackLock = new Object();
+
+    /** 次に送信結果を確定させるバッチの順序 */
+    private long nextAck;
+
+    /** 送信が完了し、先に送信を開始したバッチの完了を待っているバッチ */
+    private final Map<Long, Batch> completed = new HashMap<>();
+
+    /** バックグラウンドで送信するスレッドとタイマー */
+    private volatile SenderEngine engine;
+
+    /** {@link #engine}がこのインスタンス専用か */
+    private boolean ownsEngine;
+
+    /** {@link #start()}で登録した定期的なタスク */
+    private final List<ScheduledFuture<?>> timers = new ArrayList<>();
+
+    /** バッチの構成を{@link #engine}のスレッドへ依頼済みか */
+    private final AtomicBoolean dispatchQueued = new AtomicBoolean();
+
+    /** バッチの構成を直列化するためのロック */
+    private final Object dispatchLock = new Object();
+
+    /** {@link #flush()}で要求され、まだバッチの構成を開始していない送信の結果 */
+    private final Queue<CompletableFuture<SendResult>> flushes = new ConcurrentLinkedQueue<>();
+
+    /** 送信待ちのApiDataを全てバッチにするまで待っている{@link #flush()}の結果 */
+    private final List<CompletableFuture<SendResult>> waiting = new ArrayList<>();
+
+    /** {@link #waiting}のために構成した最後のバッチの結果 */
+    private CompletableFuture<SendResult> lastFlushed;
+
+    /** 最後に構成したバッチの結果 */
+    private volatile CompletableFuture<SendResult> lastDispatched;
+
+    /** 再送信を待っているバッチと直前の送信の結果 */
+    private final Map<Batch, SendResult> retrying = new ConcurrentHashMap<>();
+
+    /** 同時に送信するバッチの数を制限するセマフォ */
+    private Semaphore slots;
+
+    /** 接続プール */
+    protected final ConnectionPool pool;
+
+    /** 接続プールを他のインスタンスと共有しているか */
+    private final boolean sharedPool;
+
+    /** 送信メッセージを送信するトランスポート(nullの場合は{@link #client()}で作成したHttpClientで送信する) */
+    protected Transport transport;
+
+    /** {@link #client()}で作成したHttpClientで送信するトランスポート */
+    private Transport defaultTransport;
+
+    /** 送信に使用するHttpClient */
+    private HttpClient httpClient;
+
+    /** HttpClientの生成と破棄を直列化するためのロック */
+    private final Object clientLock = new Object();
+
+    /**
+     * このインスタンス専用の接続プールを使用して送信します
+     */
+    protected AbstractSender() {
+        this(ConnectionPool.createBuilder().build(), false);
+    }
+
     /**
-     * 送信待ちキューにApiDataを追加します
+     * 他のインスタンスと共有する接続プールを使用して送信します<br>
+     * 接続プールは{@link #close()}で閉じられません
+     *
+     * @param pool 接続プール
+     */
+    protected AbstractSender(ConnectionPool pool) {
+        this(pool, true);
+    }
+
+    private AbstractSender(ConnectionPool pool, boolean sharedPool) {
+        this.pool = pool;
+        this.sharedPool = sharedPool;
+    }
+
+    /**
+     * 送信待ちキューにApiDataを追加します<br>
+     * {@link #filter}で除外又は間引かれたApiDataは追加せず、別の送信クラスへ振り分けられたApiDataはその送信待ちキューに追加します<br>
+     * 送信待ちキューの容量を超える場合は送信待ちキューの{@link OverflowPolicy}に従います。追加されたかを知る必要がある場合は{@link #offer(ApiData)}を使用してください
      *
      * @param data 追加されるApiData
+     * @throws IllegalStateException {@link OverflowPolicy#REJECT}で容量を超えた場合
      */
     public void add(ApiData data) {
-        if (!this.queue.offer(data)) {
-            // キューがあふれた場合
-            this.regenerateSession();
-            this.queue.offer(data);
+        this.offer(data);
+    }
+
+    /**
+     * 送信待ちキューにApiDataを追加し、追加されたかを返します<br>
+     * {@link #filter}で除外又は間引かれたApiDataは追加せず、別の送信クラスへ振り分けられたApiDataはその送信待ちキューに追加します<br>
+     * 送信待ちキューの容量を超える場合は送信待ちキューの{@link OverflowPolicy}に従います<br>
+     * {@link #preSerialize}がtrueの場合、呼び出し元のスレッドで送信データのJSONを構成してから追加します
+     *
+     * @param data 追加されるApiData
+     * @return 追加された場合true、除外されたか容量を超えたため破棄された場合false
+     * @throws IllegalStateException {@link OverflowPolicy#REJECT}で容量を超えた場合
+     */
+    public boolean offer(ApiData data) {
+        AbstractSender sender = this.filter.route(data, this);
+        if (sender == null) {
+            this.metrics.filtered();
+            return false;
+        }
+        return sender.enqueue(data);
+    }
+
+    /**
+     * ApiFilterを適用せずにスプール又は送信待ちキューにApiDataを追加します
+     *
+     * @param data 追加されるApiData
+     * @return 追加された場合true、容量を超えたため破棄された場合false
+     */
+    private boolean enqueue(ApiData data) {
+        boolean added = false;
+        Lane lane = null;
+        Spool spool = this.spool;
+        if (spool != null) {
+            try {
+                spool.append(data);
+                added = true;
+            } catch (IOException | UncheckedIOException e) {
+                // スプールに書き込めない場合やBodySourceを読み込めない場合はメモリ上のキューを使用する
+            }
+        }
+        if (!added) {
+            if (this.preSerialize) {
+                // 送信待ちキューに計上されるサイズが変わるため追加する前に構成する
+                Composer.prepare(data, this.redactor);
+            }
+            lane = this.lanes.select(data.getRequestUri());
+            Queue<ApiData> queue = lane != null ? lane.getQueue() : this.queue;
+            added = queue.offer(data);
+            if (!added && !(queue instanceof SendQueue)) {
+                // SendQueueは破棄した数を数えている
+                this.metrics.rejected();
+            }
+        }
+        if (added) {
+            this.metrics.enqueued(data);
+            this.pending(lane);
+        }
+        return added;
+    }
+
+    /**
+     * ApiDataが追加されたことを送信用のスレッドへ通知します<br>
+     * 送信待ちのApiDataが無かった場合は{@link FlushPolicy#getLinger()}後に、
+     * 件数又はサイズが上限に達した場合は直ちに送信します。{@link Lane#isImmediate()}がtrueのレーンは常に直ちに送信します
+     *
+     * @param lane ApiDataを追加したレーン、送信クラスの送信待ちキューに追加した場合null
+     */
+    private void pending(Lane lane) {
+        SenderEngine engine = this.engine;
+        AtomicLong firstPending = lane != null ? lane.firstPending : this.firstPending;
+        boolean first = firstPending.compareAndSet(NO_PENDING, System.nanoTime());
+        if (engine == null) {
+            return;
         }
+        try {
+            if (lane != null && lane.isImmediate()) {
+                this.requestDispatch();
+                return;
+            }
+            if (first) {
+                FlushPolicy policy = lane != null ? lane.getFlushPolicy() : this.flushPolicy;
+                engine.timer().schedule(this::requestDispatch, policy.getLinger().toNanos(), TimeUnit.NANOSECONDS);
+            }
+            boolean full = lane != null ? lane.isFull() : this.isFull();
+            if (full && this.triggered.compareAndSet(false, true)) {
+                this.requestDispatch();
+            }
+        } catch (RejectedExecutionException e) {
+            // 停止中
+        }
+    }
+
+    /**
+     * 送信待ちキューを設定します<br>
+     * 送信待ちキューに残っているApiDataは破棄されます
+     *
+     * @param queue 送信待ちキュー
+     */
+    public void setQueue(SendQueue queue) {
+        Queue<ApiData> old = this.queue;
+        this.queue = Objects.requireNonNull(queue, "送信待ちキュー");
+        old.clear();
+    }
+
+    /**
+     * APIごとに送信待ちキューと送信の条件を分けるレーンを設定します<br>
+     * どのレーンとも一致しないApiDataは{@link #queue}に追加されます。スプールを設定している場合、スプールに書き込んだApiDataはレーンを使用しません<br>
+     * 設定から外したレーンの送信待ちキューに残っているApiDataは破棄されます
+     *
+     * @param lanes レーン
+     */
+    public void setLanes(Lane... lanes) {
+        Lanes old = this.lanes;
+        this.lanes = new Lanes(lanes);
+        for (Lane lane : old.lanes()) {
+            if (!Arrays.asList(lanes).contains(lane)) {
+                lane.getQueue().clear();
+            }
+        }
+    }
+
+    /**
+     * 送信待ちのApiDataをディスクに書き込むスプールを設定します<br>
+     * スプールを設定するとApiDataは送信に成功するまでスプールに保持され、送信に失敗した場合やアプリケーションの再起動後に再送信されます<br>
+     * スプールは{@link #close()}で閉じられません
+     *
+     * @param spool スプール
+     */
+    public void setSpool(Spool spool) {
+        this.spool = spool;
+    }
+
+    /**
+     * 送信メッセージを送信するトランスポートを設定します<br>
+     * 設定しない場合は{@link #client()}で作成したHttpClientで送信します。
+     * トランスポートは複数のインスタンスで共有でき、{@link #close()}で閉じられません
+     *
+     * @param transport トランスポート、nullの場合は既定のトランスポート
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * 送信待ちキュー、レーン及びスプールから送信するApiDataを取り出します<br>
+     * 優先度が0より大きいレーン、{@link #queue}、優先度が0以下のレーン、スプールの順に取り出し、
+     * {@link #flush()}や{@link #send()}以外では送信する条件を満たしていないレーンからは取り出しません<br>
+     * 取り出すApiDataは{@link #flushPolicy}の件数とサイズの上限までです
+     *
+     * @return 送信するApiData
+     */
+    protected List<ApiData> drain() {
+        int maxRecords = this.flushPolicy.getMaxRecords();
+        long maxBytes = this.maxBatchBytes();
+        List<ApiData> datas = new ArrayList<>();
+        long bytes = 0;
+        Map<MemoryGovernor, Long> reserved = new IdentityHashMap<>();
+        Batch batch = this.building;
+        boolean forced = batch == null || batch.forced;
+        long now = System.nanoTime();
+        Lanes lanes = this.lanes;
+        Lane[] order = lanes.lanes();
+        for (int i = 0; i <= order.length && datas.size() < maxRecords; i++) {
+            Queue<ApiData> queue;
+            if (i == lanes.high()) {
+                queue = this.queue;
+            } else {
+                Lane lane = order[i < lanes.high() ? i : i - 1];
+                if (!forced && !lane.isDue(now)) {
+                    continue;
+                }
+                queue = lane.getQueue();
+            }
+            long drained = drain(queue, datas, maxRecords, maxBytes - bytes);
+            MemoryGovernor governor = governor(queue);
+            if (governor != null && drained > 0) {
+                reserved.merge(governor, drained, Long::sum);
+            }
+            bytes += drained;
+        }
+        Spool spool = this.spool;
+        Spool.Mark mark = null;
+        if (spool != null && datas.size() < maxRecords && spool.hasUnread()) {
+            List<ApiData> spooled = spool.poll(Math.min(this.spoolBatchSize, maxRecords - datas.size()));
+            long spooledBytes = 0;
+            for (ApiData item : spooled) {
+                spooledBytes += item.size();
+            }
+            datas.addAll(spooled);
+            mark = spool.mark();
+            MemoryGovernor governor = governor(this.queue);
+            if (governor != null && spooledBytes > 0) {
+                reserved.merge(governor, spooledBytes, Long::sum);
+            }
+            bytes += spooledBytes;
+        }
+        // 送信が終わるまでメモリ使用量に計上する
+        for (Map.Entry<MemoryGovernor, Long> entry : reserved.entrySet()) {
+            entry.getKey().reserve(entry.getValue());
+        }
+        if (batch != null) {
+            long[] localTimes = Arrays.copyOf(batch.localTimes, batch.localTimes.length + datas.size());
+            for (int i = 0; i < datas.size(); i++) {
+                localTimes[batch.localTimes.length + i] = datas.get(i).getLocalTime().toInstant().toEpochMilli();
+            }
+            batch.localTimes = localTimes;
+            batch.datas.addAll(datas);
+            batch.records += datas.size();
+            batch.bytes += bytes;
+            if (mark != null) {
+                batch.mark = mark;
+            }
+            for (Map.Entry<MemoryGovernor, Long> entry : reserved.entrySet()) {
+                batch.reserved.merge(entry.getKey(), entry.getValue(), Long::sum);
+            }
+        } else {
+            // バッチの外で呼び出された場合は送信の完了を追跡できない
+            for (Map.Entry<MemoryGovernor, Long> entry : reserved.entrySet()) {
+                entry.getKey().release(entry.getValue());
+            }
+        }
+        return datas;
+    }
+
+    /**
+     * 送信待ちキューから件数とサイズの上限までApiDataを取り出します<br>
+     * {@code datas}が空の場合、1件目は上限を超えていても取り出します
+     *
+     * @param queue 送信待ちキュー
+     * @param datas 取り出したApiDataを追加するリスト
+     * @param maxRecords {@code datas}の最大の件数
+     * @param maxBytes 取り出すApiDataの最大の合計サイズ
+     * @return 取り出したApiDataの合計サイズ
+     */
+    private static long drain(Queue<ApiData> queue, List<ApiData> datas, int maxRecords, long maxBytes) {
+        if (queue instanceof SendQueue) {
+            // ロックを1回だけ取得してまとめて取り出す
+            return ((SendQueue) queue).drain(datas, maxRecords - datas.size(), maxBytes, datas.isEmpty());
+        }
+        long bytes = 0;
+        ApiData data;
+        while (datas.size() < maxRecords && (data = queue.peek()) != null) {
+            // 1件目は上限を超えていても送信する
+            if (!datas.isEmpty() && bytes + data.size() > maxBytes) {
+                break;
+            }
+            data = queue.poll();
+            if (data == null) {
+                break;
+            }
+            datas.add(data);
+            bytes += data.size();
+        }
+        return bytes;
     }
 
     /**
@@ -89,32 +514,50 @@ public abstract class AbstractSender {
     }
 
     /**
-     * HttpClient
+     * HttpClient<br>
+     * 生成されたHttpClientは{@link #close()}が呼び出されるまで再利用されます。{@link #transport}を設定した場合は使用されません
      *
      * @return HttpClient
      */
     protected HttpClient client() {
         return HttpClientBuilder.create()
+                .setConnectionManager(this.pool.manager())
+                .setConnectionManagerShared(true)
+                .setKeepAliveStrategy(this.pool.keepAliveStrategy())
                 .setDefaultRequestConfig(this.config())
                 .setDefaultHeaders(this.headers())
-                // IOException時に再試行処理を行う
-                .setRetryHandler(this::retryHandler)
-                // ステータスコードが200以外の場合に再試行処理を行う
-                .setServiceUnavailableRetryStrategy(new ServiceUnavailableRetryStrategy() {
-                    @Override
-                    public long getRetryInterval() {
-                        return AbstractSender.this.retryInterval();
-                    }
-
-                    @Override
-                    public boolean retryRequest(HttpResponse response, int executionCount, HttpContext context) {
-                        // ステータスコードが2xx以外の場合にretryHandlerを呼び出す
-                        int status = response.getStatusLine().getStatusCode();
-                        return !isSuccess(status) && AbstractSender.this.retryHandler();
-                    }
-                })
+                // 再送信はスレッドを待機させないよう retryPolicy に従ってタイマーで行う
+                .disableAutomaticRetries()
                 .build();
+    }
+
+    /**
+     * 送信先への接続を事前に確立します<br>
+     * 最初の送信でTCP及びTLSのハンドシェイクを待たずに済むようになります
+     *
+     * @param count 確立する接続の数
+     * @return 確立できた接続の数
+     */
+    public int prewarm(int count) {
+        return this.transport().prewarm(this.uri(), count, Duration.ofMillis(this.config().getConnectTimeout()));
+    }
 
+    /**
+     * 送信先が応答するかを確認します<br>
+     * サーキットブレーカーが開いている間、送信を再開する前に呼び出されます<br>
+     * URIへHEADリクエストを送信し、5xx以外のステータスコードが返された場合に送信を再開します。
+     * {@link #start()}で開始した送信では応答を待たずに構成を終え、確認が終わった時に構成を再開します
+     *
+     * @return 送信先が応答した場合trueで完了する確認の結果(例外で完了した場合は応答しなかったものとする)
+     */
+    protected CompletableFuture<Boolean> probe() {
+        CompletableFuture<Transport.Response> response;
+        try {
+            response = this.transport().head(this.uri());
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return response.handle((res, e) -> e == null && !this.retryPolicy.isRetryable(res.getStatusCode()));
     }
 
     /**
@@ -131,60 +574,731 @@ public abstract class AbstractSender {
      */
     abstract protected Optional<HttpEntity> httpEntity();
 
+    /**
+     * 指定したセッションIDとApiDataの送信メッセージ<br>
+     * 送信メッセージが大きすぎるために分割して送信する場合に使用されます。既定では分割して送信しません<br>
+     * 分割した送信メッセージは分割する前のバッチのセッションIDで構成するため、分割している間に
+     * {@link #regenerateSession()}が呼び出されても古いApiDataが新しいセッションIDで送信されることはありません
+     *
+     * @param sessionId 送信メッセージのセッションID
+     * @param datas 送信するApiData
+     * @return HttpEntity、分割して送信しない場合Optional.empty()
+     */
+    protected Optional<HttpEntity> httpEntity(UUID sessionId, List<ApiData> datas) {
+        return Optional.empty();
+    }
+
     /**
      * リクエストを送信する<br>
-     * このメソッドを複数回呼び出す場合、前回のメソッド呼び出しが復帰してから呼び出す必要があります<br>
-     * <strong>このメソッドはスレッドセーフではありません</strong>
+     * 送信待ちキューのApiDataを送信し、再送信を含めて送信が完了するまでブロックします<br>
+     * 送信待ちのApiDataが{@link #flushPolicy}の上限を超える場合は複数のバッチに分けて送信し、送信に失敗した時点で送信を止めます<br>
+     * サーキットブレーカーが開いている場合は送信しません<br>
+     * {@link #start()}でバックグラウンドでの送信を開始している場合は{@link #flush()}を使用してください
      */
     public void send() {
-        Optional<HttpEntity> entity = this.httpEntity();
-        if (entity.isPresent()) {
-            try {
-                LocalDateTime execute = this.sendTime.plus(this.waitTime);
-                LocalDateTime now = LocalDateTime.now();
-                if (execute.compareTo(now) > 0) {
-                    Duration wait = Duration.between(now, execute);
-                    TimeUnit.MILLISECONDS.sleep(wait.toMillis());
+        try {
+            while (this.hasPending() && this.isAvailable()) {
+                Batch batch = this.nextBatch(true, true);
+                if (batch == null) {
+                    return;
                 }
+                this.execute(batch);
+                if (!batch.future.join().isSuccess()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * バックグラウンドでの送信を開始します<br>
+     * 送信待ちキューのApiDataは{@link #flushPolicy}に従って送信用のスレッドから送信されるため、
+     * 呼び出し元で{@link #send()}をスケジュールする必要はありません<br>
+     * 送信中に次のApiDataが追加された場合、最大{@link #window}個のバッチを同時に送信します<br>
+     * 送信用のスレッドはこのインスタンス専用に作成されます。{@link #virtualThreads}がtrueの場合は仮想スレッドを使用します
+     */
+    public synchronized void start() {
+        if (this.engine != null) {
+            return;
+        }
+        this.start(new SenderEngine(this.window + 1, this.virtualThreads, this.pool, true, "kcvdb-sender"), true);
+    }
 
-                this.failureCount = 0;
-                HttpClient client = this.client();
+    /**
+     * 他のインスタンスとスレッドを共有してバックグラウンドでの送信を開始します<br>
+     * 送信の動作は{@link #start()}と同じですが、バッチの構成と送信はSenderEngineのスレッドで行われます。
+     * 接続も共有する場合は{@link SenderEngine#getConnectionPool()}を使用して作成してください
+     *
+     * @param engine SenderEngine
+     */
+    public synchronized void start(SenderEngine engine) {
+        if (this.engine != null) {
+            return;
+        }
+        this.start(Objects.requireNonNull(engine, "SenderEngine"), false);
+    }
+
+    private void start(SenderEngine engine, boolean owned) {
+        this.slots = new Semaphore(this.window);
+        this.ownsEngine = owned;
+        this.engine = engine;
+        engine.attach(this);
+        long interval = this.flushPolicy.getLinger().toNanos();
+        this.timers.add(engine.timer().scheduleWithFixedDelay(this::requestDispatch, interval, interval,
+                TimeUnit.NANOSECONDS));
+        long export = this.exportInterval.toNanos();
+        this.timers.add(engine.timer().scheduleAtFixedRate(this::export, export, export, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * 計測値を取得します
+     *
+     * @return 計測値
+     */
+    public SenderMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * 計測値を出力するMetricsExporterを追加します<br>
+     * 登録したMetricsExporterは{@link #start()}後に{@link #exportInterval}ごとと、{@link #close()}の時に呼び出されます
+     *
+     * @param exporter MetricsExporter
+     */
+    public void addExporter(MetricsExporter exporter) {
+        this.exporters.add(Objects.requireNonNull(exporter, "MetricsExporter"));
+    }
+
+    /**
+     * 登録したMetricsExporterへ計測値を出力します
+     */
+    private void export() {
+        for (MetricsExporter exporter : this.exporters) {
+            try {
+                exporter.export(this.metrics);
+            } catch (RuntimeException e) {
+                // 出力に失敗しても送信を止めない
+            }
+        }
+    }
+
+    /**
+     * 送信待ちキューのApiDataを{@link FlushPolicy#getLinger()}を待たずにバックグラウンドで直ちに送信します<br>
+     * このメソッドはブロックしません
+     *
+     * @return 送信の結果(複数のバッチを送信した場合は最後のバッチの結果)
+     * @throws IllegalStateException {@link #start()}が呼び出されていない場合
+     */
+    public synchronized CompletableFuture<SendResult> flush() {
+        if (this.engine == null) {
+            throw new IllegalStateException("start()が呼び出されていません");
+        }
+        CompletableFuture<SendResult> future = new CompletableFuture<>();
+        this.flushes.add(future);
+        this.requestDispatch();
+        return future;
+    }
+
+    /**
+     * 送信用のスレッドへバッチの構成を依頼します<br>
+     * 既に依頼していて構成を開始していない場合は何もしません
+     */
+    private void requestDispatch() {
+        SenderEngine engine = this.engine;
+        if (engine == null || !this.dispatchQueued.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            engine.io().execute(this::dispatch);
+        } catch (RejectedExecutionException e) {
+            this.dispatchQueued.set(false);
+        }
+    }
+
+    /**
+     * 送信待ちのApiDataが無くなるまでバッチを構成し、送信用のスレッドで送信します<br>
+     * 送信用のスレッドを他のインスタンスと共有するため待機はしません。
+     * 同時に送信するバッチ(再送信を待っているバッチを含む)が{@link #window}個に達している場合はバッチの送信が終わった時に、
+     * {@link #rateLimiter}の制限に達している場合は送信できるようになった時に構成を再開します<br>
+     * {@link #flush()}で要求された場合は{@link #flushPolicy}の条件を満たしていなくても送信し、
+     * 全てのApiDataをバッチにした時点で最後のバッチの結果を{@link #flush()}の結果とします<br>
+     * サーキットブレーカーが開いている場合はバッチを構成しません
+     */
+    private void dispatch() {
+        this.dispatchQueued.set(false);
+        this.triggered.set(false);
+        SenderEngine engine = this.engine;
+        synchronized (this.dispatchLock) {
+            if (this.waiting.isEmpty()) {
+                this.lastFlushed = null;
+            }
+            CompletableFuture<SendResult> future;
+            while ((future = this.flushes.poll()) != null) {
+                this.waiting.add(future);
+            }
+            boolean force = !this.waiting.isEmpty();
+            while (engine != null && this.hasPending() && (force || this.isReady()) && this.isAvailable(engine)) {
+                if (!this.slots.tryAcquire()) {
+                    // バッチの送信が終わった時に再開する
+                    return;
+                }
+                long wait = this.limiter().tryAcquire();
+                if (wait > 0) {
+                    this.slots.release();
+                    this.later(engine, wait);
+                    return;
+                }
+                Batch batch;
                 try {
-                    HttpPost method = new HttpPost(this.uri());
-                    method.setEntity(entity.get());
-
-                    HttpResponse response = client.execute(method);
-                    if (isSuccess(response.getStatusLine().getStatusCode())) {
-                        this.success();
-                    } else {
-                        this.failure();
+                    batch = this.nextBatch(false, force);
+                } catch (RuntimeException | InterruptedException e) {
+                    this.slots.release();
+                    break;
+                }
+                if (batch == null) {
+                    this.slots.release();
+                    break;
+                }
+                batch.dispatched = true;
+                this.lastDispatched = batch.future;
+                if (force) {
+                    this.lastFlushed = batch.future;
+                }
+                try {
+                    engine.io().execute(() -> this.execute(batch));
+                } catch (RejectedExecutionException e) {
+                    this.finish(batch, new SendResult(false, 0, batch.records, batch.sessionId, e));
+                    break;
+                }
+            }
+            CompletableFuture<SendResult> last = this.lastFlushed;
+            for (CompletableFuture<SendResult> waiter : this.waiting) {
+                if (last != null) {
+                    last.thenAccept(waiter::complete);
+                } else {
+                    waiter.complete(SendResult.empty(this.sessionId));
+                }
+            }
+            this.waiting.clear();
+        }
+    }
+
+    /**
+     * 指定した時間が経過した後にバッチの構成を依頼します
+     *
+     * @param engine SenderEngine
+     * @param delay 待機時間(ナノ秒)
+     */
+    private void later(SenderEngine engine, long delay) {
+        try {
+            engine.timer().schedule(this::requestDispatch, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // 停止中
+        }
+    }
+
+    /**
+     * 送信の頻度を制限するRateLimiter
+     *
+     * @return {@link #rateLimiter}、設定されていない場合は{@link #waitTime}の間隔で送信するRateLimiter
+     */
+    private RateLimiter limiter() {
+        RateLimiter limiter = this.rateLimiter;
+        if (limiter != null) {
+            return limiter;
+        }
+        synchronized (this.sendLock) {
+            Duration waitTime = this.waitTime;
+            if (this.intervalLimiter == null || !waitTime.equals(this.intervalTime)) {
+                this.intervalLimiter = RateLimiter.interval(waitTime);
+                this.intervalTime = waitTime;
+            }
+            return this.intervalLimiter;
+        }
+    }
+
+    /**
+     * サーキットブレーカーが閉じているかを確認します<br>
+     * 開いてから一定時間が経過している場合は{@link #probe()}で送信先を確認し、応答を待って応答があれば閉じます
+     *
+     * @return 送信できる場合true
+     */
+    private boolean isAvailable() {
+        CircuitBreaker breaker = this.circuitBreaker;
+        if (breaker.isClosed()) {
+            return true;
+        }
+        if (!breaker.tryProbe()) {
+            return false;
+        }
+        boolean reachable = this.probe().exceptionally(e -> false).join();
+        if (reachable) {
+            breaker.onSuccess();
+        } else {
+            breaker.onFailure();
+        }
+        return reachable;
+    }
+
+    /**
+     * サーキットブレーカーが閉じているかを確認します<br>
+     * 開いてから一定時間が経過している場合は送信用のスレッドで{@link #probe()}を開始し、応答を待たずにfalseを返します。
+     * 送信先が応答した場合はサーキットブレーカーを閉じて構成を再開します
+     *
+     * @param engine SenderEngine
+     * @return 送信できる場合true
+     */
+    private boolean isAvailable(SenderEngine engine) {
+        CircuitBreaker breaker = this.circuitBreaker;
+        if (breaker.isClosed()) {
+            return true;
+        }
+        if (!breaker.tryProbe()) {
+            return false;
+        }
+        try {
+            // 既定のトランスポートはHEADリクエストの応答を待つため、構成とは別のタスクで確認する
+            engine.io().execute(() -> this.probe().whenComplete((reachable, e) -> {
+                if (e == null && reachable) {
+                    breaker.onSuccess();
+                    this.requestDispatch();
+                } else {
+                    breaker.onFailure();
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            breaker.onFailure();
+        }
+        return false;
+    }
+
+    /**
+     * {@link #flushPolicy}又はいずれかのレーンの送信する条件を満たしているか
+     *
+     * @return 件数又はサイズが上限に達しているか、最も古いApiDataが待機する時間を過ぎている場合true
+     */
+    private boolean isReady() {
+        long now = System.nanoTime();
+        for (Lane lane : this.lanes.lanes()) {
+            if (lane.isDue(now)) {
+                return true;
+            }
+        }
+        if (!this.hasQueued()) {
+            return false;
+        }
+        if (this.isFull()) {
+            return true;
+        }
+        long first = this.firstPending.get();
+        // 前回の起動時にスプールに残ったApiDataのように追加された時刻が分からない場合は待機しない
+        return first == NO_PENDING || now - first >= this.flushPolicy.getLinger().toNanos();
+    }
+
+    /**
+     * 送信待ちキューのApiDataが1回に送信する件数又はサイズの上限に達しているか
+     *
+     * @return 上限に達している場合true
+     */
+    private boolean isFull() {
+        Queue<ApiData> queue = this.queue;
+        if (queue.size() >= this.flushPolicy.getMaxRecords()) {
+            return true;
+        }
+        return queue instanceof SendQueue && ((SendQueue) queue).getBytes() >= this.maxBatchBytes();
+    }
+
+    /**
+     * 1回に送信するApiDataの最大の合計サイズ
+     *
+     * @return {@link #flushPolicy}の上限と、送信先が413を返したために調整した上限の小さい方
+     */
+    private long maxBatchBytes() {
+        return Math.min(this.flushPolicy.getMaxBytes(), this.adaptiveBytes);
+    }
+
+    /**
+     * 送信待ちのApiDataがあるか
+     *
+     * @return 送信待ちキュー、レーン又はスプールに送信待ちのApiDataがある場合true
+     */
+    private boolean hasPending() {
+        if (this.hasQueued()) {
+            return true;
+        }
+        for (Lane lane : this.lanes.lanes()) {
+            if (!lane.getQueue().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@link #queue}又はスプールに送信待ちのApiDataがあるか
+     *
+     * @return 送信待ちのApiDataがある場合true
+     */
+    private boolean hasQueued() {
+        Spool spool = this.spool;
+        return !this.queue.isEmpty() || (spool != null && spool.hasUnread());
+    }
+
+    /**
+     * 送信待ちキューのApiDataからバッチを構成します
+     *
+     * @param wait {@link #rateLimiter}の許可を取得するまで待機する場合true
+     * @param forced 送信する条件を満たしていないレーンのApiDataも含める場合true
+     * @return バッチ、送信するApiDataが無い場合null
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    private Batch nextBatch(boolean wait, boolean forced) throws InterruptedException {
+        if (wait) {
+            this.limiter().acquire();
+        }
+        synchronized (this.sendLock) {
+
+            Batch batch = new Batch(this.nextSequence, this.sessionId);
+            batch.forced = forced;
+            Optional<HttpEntity> entity;
+            this.building = batch;
+            try {
+                entity = this.httpEntity();
+            } finally {
+                this.building = null;
+            }
+            if (!this.hasQueued()) {
+                this.firstPending.set(NO_PENDING);
+            }
+            for (Lane lane : this.lanes.lanes()) {
+                if (lane.getQueue().isEmpty()) {
+                    lane.firstPending.set(NO_PENDING);
+                }
+            }
+            if (!entity.isPresent()) {
+                return null;
+            }
+            batch.entity = entity.get();
+            this.nextSequence++;
+            this.sendTime = LocalDateTime.now();
+            return batch;
+        }
+    }
+
+    /**
+     * バッチを送信します<br>
+     * 送信に失敗し再送信する場合、送信用のスレッドで送信しているバッチはタイマーで再送信し、
+     * それ以外のバッチは呼び出し元のスレッドで待機してから再送信します<br>
+     * 送信用のスレッドで送信しているバッチは、トランスポートが応答を待たずに結果を返した場合は応答を受信したスレッドで続きを処理します
+     *
+     * @param batch バッチ
+     */
+    private void execute(Batch batch) {
+        while (true) {
+            CompletableFuture<SendResult> attempt = this.attempt(batch);
+            if (batch.dispatched && !attempt.isDone()) {
+                // 応答を待つ間送信用のスレッドを占有しない
+                attempt.thenAccept(result -> {
+                    if (this.proceed(batch, result)) {
+                        this.execute(batch);
+                    }
+                });
+                return;
+            }
+            if (!this.proceed(batch, attempt.join())) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 送信の結果から、分割した残りの送信、再送信又はバッチの送信の終了を行います
+     *
+     * @param batch バッチ
+     * @param result 送信の結果
+     * @return 直ちに次の送信メッセージを送信する場合true
+     */
+    private boolean proceed(Batch batch, SendResult result) {
+        if (result.isSuccess() ? this.nextPart(batch) : this.split(batch, result)) {
+            return true;
+        }
+        long delay = this.retryDelay(batch, result);
+        if (delay < 0) {
+            this.finish(batch, result);
+            return false;
+        }
+        this.metrics.retried();
+        if (batch.dispatched) {
+            this.schedule(batch, result, delay);
+            return false;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.finish(batch, result);
+            return false;
+        }
+        if (!this.circuitBreaker.isClosed()) {
+            this.finish(batch, result);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 送信先が413を返したかタイムアウトした場合に、送信メッセージを半分に分割して直ちに送信し直せるようにします<br>
+     * 分割した場合、以降のバッチの合計サイズの上限も分割後のサイズに調整します
+     *
+     * @param batch バッチ
+     * @param result 送信の結果
+     * @return 分割した場合true
+     */
+    private boolean split(Batch batch, SendResult result) {
+        boolean tooLarge = result.getStatusCode() == HttpStatus.SC_REQUEST_TOO_LONG
+                || result.getCause().filter(SocketTimeoutException.class::isInstance).isPresent();
+        List<ApiData> datas = batch.datas;
+        if (!tooLarge || datas.size() < 2) {
+            return false;
+        }
+        List<ApiData> first = new ArrayList<>(datas.subList(0, datas.size() / 2));
+        List<ApiData> second = new ArrayList<>(datas.subList(datas.size() / 2, datas.size()));
+        Optional<HttpEntity> entity = this.httpEntity(batch.sessionId, first);
+        if (!entity.isPresent()) {
+            return false;
+        }
+        long bytes = 0;
+        for (ApiData data : first) {
+            bytes += data.size();
+        }
+        this.adaptiveBytes = Math.max(1, Math.min(this.adaptiveBytes, bytes));
+        batch.parts.push(second);
+        batch.datas = first;
+        batch.entity = entity.get();
+        batch.attempts = 0;
+        return true;
+    }
+
+    /**
+     * 分割した送信メッセージの残りがある場合に、次の送信メッセージを送信できるようにします<br>
+     * 残りが無い場合は送信に成功したバッチの大きさに応じて、調整した合計サイズの上限を緩めます
+     *
+     * @param batch バッチ
+     * @return 次の送信メッセージがある場合true
+     */
+    private boolean nextPart(Batch batch) {
+        List<ApiData> datas = batch.parts.poll();
+        if (datas == null) {
+            long adaptive = this.adaptiveBytes;
+            if (adaptive != Long.MAX_VALUE) {
+                long grown = adaptive + Math.max(1, adaptive / 4);
+                this.adaptiveBytes = grown >= this.flushPolicy.getMaxBytes() ? Long.MAX_VALUE : grown;
+            }
+            return false;
+        }
+        Optional<HttpEntity> entity = this.httpEntity(batch.sessionId, datas);
+        if (!entity.isPresent()) {
+            return false;
+        }
+        batch.datas = datas;
+        batch.entity = entity.get();
+        batch.attempts = 0;
+        return true;
+    }
+
+    /**
+     * バッチを1回送信します
+     *
+     * @param batch バッチ
+     * @return 送信の結果(例外で完了しない)
+     */
+    private CompletableFuture<SendResult> attempt(Batch batch) {
+        batch.attempts++;
+        batch.retryAfter = -1;
+        RateLimiter limiter = this.limiter();
+        long size = 0;
+        for (ApiData data : batch.datas) {
+            size += data.size();
+        }
+        limiter.record(size);
+        long start = System.nanoTime();
+        CompletableFuture<Transport.Response> response;
+        try {
+            response = this.transport().post(this.uri(), batch.entity);
+        } catch (RuntimeException e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        return response.handle((res, e) -> {
+            try {
+                if (e != null) {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    return new SendResult(false, 0, batch.records, batch.sessionId, cause);
+                }
+                int status = res.getStatusCode();
+                if (isSuccess(status)) {
+                    limiter.onSuccess();
+                } else {
+                    batch.retryAfter = res.getRetryAfter()
+                            .map(value -> this.retryPolicy.retryAfterDelay(value, System.currentTimeMillis()))
+                            .orElse(-1L);
+                    if (status == TOO_MANY_REQUESTS || batch.retryAfter >= 0) {
+                        limiter.onThrottled(batch.retryAfter);
                     }
-                } catch (Exception e) {
-                    this.failure();
                 }
-                this.sendTime = LocalDateTime.now();
-                HttpClientUtils.closeQuietly(client);
-            } catch (InterruptedException e) {
+                return new SendResult(isSuccess(status), status, batch.records, batch.sessionId, null);
+            } finally {
+                this.metrics.attempted(System.nanoTime() - start);
+                synchronized (this.sendLock) {
+                    this.sendTime = LocalDateTime.now();
+                }
+            }
+        });
+    }
+
+    /**
+     * 送信の結果から再送信までの待機時間を決定し、サーキットブレーカーへ送信先の状態を通知します<br>
+     * 5xx、429及びIOExceptionは再送信し、Retry-Afterヘッダーがある場合はその時間だけ待機します
+     *
+     * @param batch バッチ
+     * @param result 送信の結果
+     * @return 待機時間(ミリ秒)、再送信しない場合-1
+     */
+    private long retryDelay(Batch batch, SendResult result) {
+        CircuitBreaker breaker = this.circuitBreaker;
+        if (result.isSuccess()) {
+            breaker.onSuccess();
+            return -1;
+        }
+        int status = result.getStatusCode();
+        boolean retryable;
+        if (status != 0) {
+            retryable = this.retryPolicy.isRetryable(status);
+            if (!retryable) {
+                // 4xxはリクエストの問題で送信先は応答している
+                breaker.onSuccess();
             }
+        } else {
+            retryable = result.getCause().filter(IOException.class::isInstance).isPresent();
+        }
+        if (!retryable) {
+            return -1;
+        }
+        breaker.onFailure();
+        if (!this.retryPolicy.canRetry(batch.attempts) || !breaker.isClosed()) {
+            return -1;
+        }
+        return batch.retryAfter >= 0 ? batch.retryAfter : this.retryPolicy.delay(batch.attempts);
+    }
+
+    /**
+     * バッチの再送信をタイマーに登録します<br>
+     * 送信用のスレッドが停止している場合は直前の送信の結果で確定させます
+     *
+     * @param batch バッチ
+     * @param result 直前の送信の結果
+     * @param delay 待機時間(ミリ秒)
+     */
+    private void schedule(Batch batch, SendResult result, long delay) {
+        this.retrying.put(batch, result);
+        SenderEngine engine = this.engine;
+        try {
+            engine.timer().schedule(() -> {
+                if (this.retrying.remove(batch) == null) {
+                    return;
+                }
+                if (!this.circuitBreaker.isClosed()) {
+                    this.finish(batch, result);
+                    return;
+                }
+                try {
+                    engine.io().execute(() -> this.execute(batch));
+                } catch (RejectedExecutionException e) {
+                    this.finish(batch, result);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException | NullPointerException e) {
+            if (this.retrying.remove(batch) != null) {
+                this.finish(batch, result);
+            }
+        }
+    }
+
+    /**
+     * バッチの送信を終了し、送信結果を確定させます
+     *
+     * @param batch バッチ
+     * @param result 送信の結果
+     */
+    private void finish(Batch batch, SendResult result) {
+        // 送信が終わったApiDataをメモリ使用量から除く
+        batch.entity = null;
+        batch.datas = Collections.emptyList();
+        batch.parts.clear();
+        for (Map.Entry<MemoryGovernor, Long> entry : batch.reserved.entrySet()) {
+            entry.getKey().release(entry.getValue());
+        }
+        batch.reserved.clear();
+        if (batch.dispatched) {
+            this.slots.release();
+            this.requestDispatch();
         }
+        this.complete(batch, result);
     }
 
     /**
-     * 送信失敗時に再試行のために待機する時間
+     * バッチの送信結果を送信を開始した順に確定させます<br>
+     * 先に送信を開始したバッチが完了していない場合、そのバッチが完了するまで確定を保留します
      *
-     * @return 待機時間(ミリ秒)
+     * @param batch バッチ
+     * @param result 送信の結果
      */
-    protected long retryInterval() {
-        long interval = this.waitTime.toMillis() + ((this.failureCount - 1) * this.coolDownTime.toMillis());
-        return interval;
+    private void complete(Batch batch, SendResult result) {
+        List<Batch> acknowledged = new ArrayList<>();
+        synchronized (this.ackLock) {
+            batch.result = result;
+            this.completed.put(batch.sequence, batch);
+            Batch next;
+            while ((next = this.completed.remove(this.nextAck)) != null) {
+                this.nextAck++;
+                this.acknowledge(next);
+                acknowledged.add(next);
+            }
+        }
+        for (Batch next : acknowledged) {
+            next.future.complete(next.result);
+        }
     }
 
     /**
-     * 送信失敗時に再試行されるかどうかを判断する
+     * 確定した送信結果をスプールとセッションへ反映します<br>
+     * 送信に失敗したバッチのセッションが既に再生成されている場合、セッションは再生成されません
+     *
+     * @param batch バッチ
      */
-    protected boolean retryHandler() {
-        this.failureCount++;
-        return this.maxFailure >= this.failureCount;
+    private void acknowledge(Batch batch) {
+        Spool spool = this.spool;
+        if (batch.result.isSuccess()) {
+            if (spool != null && batch.mark != null) {
+                try {
+                    spool.commit(batch.mark);
+                } catch (IOException e) {
+                    // チェックポイントを書き込めない場合は次回の起動時に再送信される
+                }
+            }
+            this.metrics.sent(batch, System.currentTimeMillis());
+            this.success();
+        } else {
+            this.metrics.failed(batch);
+            if (spool != null && batch.mark != null) {
+                spool.rewind(batch.mark);
+            }
+            if (batch.sessionId.equals(this.sessionId)) {
+                this.failure();
+            }
+        }
     }
 
     /**
@@ -201,24 +1315,133 @@ public abstract class AbstractSender {
     }
 
     /**
-     * セッションを再生成し送信待ちキューを空にします
+     * セッションを再生成し送信待ちキューを空にします<br>
+     * {@link Lane#isRetainOnRegenerate()}がtrueのレーンの送信待ちキューは空にせず、新しいセッションで送信します
      */
     public void regenerateSession() {
-        this.sessionId = UUID.randomUUID();
-        this.queue.clear();
+        this.metrics.regenerated();
+        // 構成中のバッチに新しいセッションIDと古いApiDataが混ざらないようにする
+        synchronized (this.sendLock) {
+            this.sessionId = UUID.randomUUID();
+            this.queue.clear();
+            for (Lane lane : this.lanes.lanes()) {
+                if (!lane.isRetainOnRegenerate()) {
+                    lane.getQueue().clear();
+                    lane.firstPending.set(NO_PENDING);
+                }
+            }
+        }
     }
 
-    private boolean retryHandler(IOException paramIOException, int paramInt, HttpContext paramHttpContext) {
-        if (this.retryHandler()) {
-            long wait = this.retryInterval();
+    /**
+     * バックグラウンドでの送信を停止し、HttpClientを閉じます<br>
+     * バックグラウンドでの送信を開始している場合、送信待ちキューに残っているApiDataと再送信を待っているバッチの送信を{@link #closeTimeout}まで試みます。
+     * {@link #start(SenderEngine)}で開始した場合、SenderEngineのスレッドは停止しません<br>
+     * 登録したMetricsExporterへ計測値を出力し、JMXに登録した計測値の登録を解除します<br>
+     * このインスタンス専用の接続プールを使用している場合は接続プールも閉じます
+     */
+    @Override
+    public synchronized void close() {
+        SenderEngine engine = this.engine;
+        if (engine != null) {
+            for (ScheduledFuture<?> timer : this.timers) {
+                timer.cancel(false);
+            }
+            this.timers.clear();
+            long deadline = System.nanoTime() + this.closeTimeout.toNanos();
+            CompletableFuture<SendResult> flushed = new CompletableFuture<>();
+            this.flushes.add(flushed);
+            this.requestDispatch();
             try {
-                TimeUnit.MILLISECONDS.sleep(wait);
+                flushed.get(remaining(deadline), TimeUnit.NANOSECONDS);
+                // 結果は送信を開始した順に確定するため、最後のバッチの完了で全てのバッチの完了が分かる
+                CompletableFuture<SendResult> last = this.lastDispatched;
+                if (last != null) {
+                    last.get(remaining(deadline), TimeUnit.NANOSECONDS);
+                }
+            } catch (TimeoutException | ExecutionException e) {
+                // 送信を諦める
             } catch (InterruptedException e) {
-                return false;
+                Thread.currentThread().interrupt();
+            }
+            this.engine = null;
+            engine.detach(this);
+            // 停止までに再送信できなかったバッチは直前の送信の結果で確定させる
+            for (Batch batch : new ArrayList<>(this.retrying.keySet())) {
+                SendResult result = this.retrying.remove(batch);
+                if (result != null) {
+                    this.finish(batch, result);
+                }
+            }
+            if (this.ownsEngine) {
+                engine.shutdown(Duration.ofNanos(remaining(deadline)));
             }
-            return true;
         }
-        return false;
+        synchronized (this.clientLock) {
+            if (this.httpClient != null) {
+                HttpClientUtils.closeQuietly(this.httpClient);
+                this.httpClient = null;
+            }
+        }
+        this.export();
+        this.metrics.unregisterMBean();
+        if (!this.sharedPool) {
+            this.pool.close();
+        }
+    }
+
+    /**
+     * 送信待ちキューのメモリ使用量の制限
+     *
+     * @param queue 送信待ちキュー
+     * @return メモリ使用量の制限、送信待ちキューが{@link SendQueue}ではない場合null
+     */
+    private static MemoryGovernor governor(Queue<ApiData> queue) {
+        if (queue instanceof SendQueue) {
+            return ((SendQueue) queue).getMemoryGovernor();
+        }
+        return null;
+    }
+
+    /**
+     * 計測値に計上する送信待ちキュー
+     *
+     * @return {@link #queue}とレーンの送信待ちキュー
+     */
+    private List<Queue<ApiData>> queues() {
+        Lane[] lanes = this.lanes.lanes();
+        List<Queue<ApiData>> queues = new ArrayList<>(lanes.length + 1);
+        queues.add(this.queue);
+        for (Lane lane : lanes) {
+            queues.add(lane.getQueue());
+        }
+        return queues;
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
+    private Transport transport() {
+        Transport transport = this.transport;
+        if (transport != null) {
+            return transport;
+        }
+        synchronized (this.clientLock) {
+            if (this.defaultTransport == null) {
+                this.defaultTransport = new ApacheTransport(this::httpClient, this.pool);
+            }
+            return this.defaultTransport;
+        }
+    }
+
+    private HttpClient httpClient() {
+        synchronized (this.clientLock) {
+            if (this.httpClient == null) {
+                this.httpClient = this.client();
+            }
+            return this.httpClient;
+        }
     }
 
     private static boolean isSuccess(int statusCode) {
@@ -0,0 +1,102 @@
+package logbook.kcvdb.client;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.HttpClientUtils;
+
+/**
+ * Apache HttpClient で送信するトランスポートです<br>
+ * 送信は呼び出し元のスレッドで行い、応答を受信してから結果を返します。
+ * {@link AbstractSender#transport}を設定しない場合は{@link AbstractSender#client()}で作成したHttpClientでこのトランスポートを使用します
+ *
+ */
+public class ApacheTransport implements Transport {
+
+    /** 送信に使用するHttpClient */
+    private final Supplier<HttpClient> client;
+
+    /** 接続プール(事前に接続を確立しない場合null) */
+    private final ConnectionPool pool;
+
+    /** HttpClientを{@link #close()}で閉じるか */
+    private final boolean owned;
+
+    /**
+     * 指定したHttpClientで送信します<br>
+     * HttpClientは{@link #close()}で閉じられます
+     *
+     * @param client HttpClient
+     */
+    public ApacheTransport(HttpClient client) {
+        Objects.requireNonNull(client, "HttpClient");
+        this.client = () -> client;
+        this.pool = null;
+        this.owned = true;
+    }
+
+    /**
+     * 送信クラスが管理するHttpClientで送信します
+     *
+     * @param client HttpClient を取得する関数
+     * @param pool 接続プール
+     */
+    ApacheTransport(Supplier<HttpClient> client, ConnectionPool pool) {
+        this.client = client;
+        this.pool = pool;
+        this.owned = false;
+    }
+
+    @Override
+    public CompletableFuture<Response> post(String uri, HttpEntity entity) {
+        HttpPost method = new HttpPost(uri);
+        method.setEntity(entity);
+        return this.execute(method);
+    }
+
+    @Override
+    public CompletableFuture<Response> head(String uri) {
+        return this.execute(new HttpHead(uri));
+    }
+
+    @Override
+    public int prewarm(String uri, int count, Duration timeout) {
+        return this.pool != null ? this.pool.prewarm(uri, count, timeout) : 0;
+    }
+
+    @Override
+    public void close() {
+        if (this.owned) {
+            HttpClientUtils.closeQuietly(this.client.get());
+        }
+    }
+
+    private CompletableFuture<Response> execute(HttpUriRequest request) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        try {
+            HttpResponse response = this.client.get().execute(request);
+            try {
+                Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+                future.complete(new Response(response.getStatusLine().getStatusCode(),
+                        retryAfter != null ? retryAfter.getValue() : null));
+            } finally {
+                // レスポンスを読み切って接続をプールへ戻す
+                HttpClientUtils.closeQuietly(response);
+            }
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
@@ -1,5 +1,8 @@
 package logbook.kcvdb.client;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.ZonedDateTime;
 import java.util.Objects;
 
@@ -13,10 +16,10 @@ public class ApiData {
     private final String requestUri;
 
     /** 艦これAPIのリクエストボディ */
-    private final String requestBody;
+    private final Body requestBody;
 
     /** 艦これAPIのレスポンスボディ */
-    private final String responseBody;
+    private final Body responseBody;
 
     /** 艦これAPIのレスポンスのステータスコードを表す数値 */
     private final int statusCode;
@@ -27,14 +30,22 @@ public class ApiData {
     /** 送信クライアントが艦これAPIを受信した日時 */
     private final ZonedDateTime localTime;
 
-    private ApiData(String requestUri, String requestBody, String responseBody, int statusCode, String httpDate,
+    /** ヒープ上で使用するおおよそのメモリ */
+    private final long size;
+
+    /** 事前に構成した送信データのJSON */
+    private volatile Composer.Fragment fragment;
+
+    private ApiData(String requestUri, Body requestBody, Body responseBody, int statusCode, String httpDate,
             ZonedDateTime localTime) {
         this.requestUri = Objects.requireNonNull(requestUri, "艦これAPIの絶対URL");
-        this.requestBody = Objects.requireNonNull(requestBody, "艦これAPIのリクエストボディ");
-        this.responseBody = Objects.requireNonNull(responseBody, "艦これAPIのレスポンスボディ");
+        this.requestBody = requestBody;
+        this.responseBody = responseBody;
         this.statusCode = statusCode;
         this.httpDate = Objects.requireNonNull(httpDate, "艦これAPIのレスポンスヘッダーのDateフィールドから得られる文字列");
         this.localTime = Objects.requireNonNull(localTime, "送信クライアントが艦これAPIを受信した日時");
+        this.size = 2L * (requestUri.length() + httpDate.length()) + requestBody.heapSize() + responseBody.heapSize()
+                + 256;
     }
 
     /**
@@ -47,17 +58,35 @@ public class ApiData {
 
     /**
      * 艦これAPIのリクエストボディを取得します。
+     * {@link BodyStorage#STRING}以外の形式で保持している場合は呼び出しごとにデコードします。
      * @return 艦これAPIのリクエストボディ
      */
     public String getRequestBody() {
-        return this.requestBody;
+        return this.requestBody.string();
     }
 
     /**
      * 艦これAPIのレスポンスボディを取得します。
+     * {@link BodyStorage#STRING}以外の形式で保持している場合は呼び出しごとにデコードします。
      * @return 艦これAPIのレスポンスボディ
      */
     public String getResponseBody() {
+        return this.responseBody.string();
+    }
+
+    /**
+     * 艦これAPIのリクエストボディを保持している形式のまま取得します。
+     * @return 艦これAPIのリクエストボディ
+     */
+    Body requestBody() {
+        return this.requestBody;
+    }
+
+    /**
+     * 艦これAPIのレスポンスボディを保持している形式のまま取得します。
+     * @return 艦これAPIのレスポンスボディ
+     */
+    Body responseBody() {
         return this.responseBody;
     }
 
@@ -85,6 +114,32 @@ public class ApiData {
         return this.localTime;
     }
 
+    /**
+     * ヒープ上で使用するおおよそのメモリを取得します。
+     * @return ヒープ上で使用するおおよそのメモリ(バイト)
+     */
+    long size() {
+        Composer.Fragment fragment = this.fragment;
+        return fragment != null ? this.size + fragment.length() : this.size;
+    }
+
+    /**
+     * 事前に構成した送信データのJSONを取得します。
+     * @return 送信データのJSON、構成していない場合null
+     */
+    Composer.Fragment getFragment() {
+        return this.fragment;
+    }
+
+    /**
+     * 事前に構成した送信データのJSONを設定します。
+     * 送信待ちキューは追加した時のサイズを計上するため、JSONをメモリ使用量に計上するには追加する前に設定してください。
+     * @param fragment 送信データのJSON
+     */
+    void setFragment(Composer.Fragment fragment) {
+        this.fragment = fragment;
+    }
+
     /**
      * ApiDataBuilder を作成します
      * @return ApiDataBuilder
@@ -97,9 +152,12 @@ public class ApiData {
 
         private String requestUri;
 
-        private String requestBody;
+        private Object requestBody;
+
+        private Object responseBody;
 
-        private String responseBody;
+        /** 保持する形式(nullの場合は設定した値の型に応じて決める) */
+        private BodyStorage storage;
 
         private int statusCode;
 
@@ -126,6 +184,40 @@ public class ApiData {
             return this;
         }
 
+        /**
+         * UTF-8でエンコードされた艦これAPIのリクエストボディを設定します。
+         * バイト列は複製されずに保持される場合があるため、設定した後に変更しないでください。
+         * @param requestBody UTF-8でエンコードされた艦これAPIのリクエストボディ
+         * @return
+         */
+        public ApiDataBuilder setRequestBody(byte[] requestBody) {
+            this.requestBody = requestBody;
+            return this;
+        }
+
+        /**
+         * 文字セットを指定して艦これAPIのリクエストボディを設定します。
+         * 文字セットがUTF-8の場合はデコードせずに保持し、それ以外の場合はここでデコードします。
+         * @param requestBody 艦これAPIのリクエストボディ
+         * @param charset 文字セット
+         * @return
+         */
+        public ApiDataBuilder setRequestBody(byte[] requestBody, Charset charset) {
+            this.requestBody = decode(requestBody, charset);
+            return this;
+        }
+
+        /**
+         * UTF-8でエンコードされた艦これAPIのリクエストボディを設定します。
+         * バッファの位置から上限までが複製されずに保持される場合があるため、設定した後に内容を変更しないでください。
+         * @param requestBody UTF-8でエンコードされた艦これAPIのリクエストボディ
+         * @return
+         */
+        public ApiDataBuilder setRequestBody(ByteBuffer requestBody) {
+            this.requestBody = requestBody;
+            return this;
+        }
+
         /**
          * 艦これAPIのレスポンスボディを設定します。
          * @param responseBody 艦これAPIのレスポンスボディ
@@ -136,6 +228,62 @@ public class ApiData {
             return this;
         }
 
+        /**
+         * UTF-8でエンコードされた艦これAPIのレスポンスボディを設定します。
+         * バイト列は複製されずに保持される場合があるため、設定した後に変更しないでください。
+         * @param responseBody UTF-8でエンコードされた艦これAPIのレスポンスボディ
+         * @return
+         */
+        public ApiDataBuilder setResponseBody(byte[] responseBody) {
+            this.responseBody = responseBody;
+            return this;
+        }
+
+        /**
+         * 文字セットを指定して艦これAPIのレスポンスボディを設定します。
+         * 文字セットがUTF-8の場合はデコードせずに保持し、それ以外の場合はここでデコードします。
+         * @param responseBody 艦これAPIのレスポンスボディ
+         * @param charset 文字セット
+         * @return
+         */
+        public ApiDataBuilder setResponseBody(byte[] responseBody, Charset charset) {
+            this.responseBody = decode(responseBody, charset);
+            return this;
+        }
+
+        /**
+         * UTF-8でエンコードされた艦これAPIのレスポンスボディを設定します。
+         * バッファの位置から上限までが複製されずに保持される場合があるため、設定した後に内容を変更しないでください。
+         * @param responseBody UTF-8でエンコードされた艦これAPIのレスポンスボディ
+         * @return
+         */
+        public ApiDataBuilder setResponseBody(ByteBuffer responseBody) {
+            this.responseBody = responseBody;
+            return this;
+        }
+
+        /**
+         * 艦これAPIのレスポンスボディを読み込むBodySourceを設定します。
+         * レスポンスボディは保持されず、送信データを構成する度に読み込まれます({@link #setBodyStorage(BodyStorage)}は適用されません)。
+         * @param responseBody UTF-8でエンコードされた艦これAPIのレスポンスボディを読み込むBodySource
+         * @return
+         */
+        public ApiDataBuilder setResponseBody(BodySource responseBody) {
+            this.responseBody = responseBody;
+            return this;
+        }
+
+        /**
+         * リクエストボディとレスポンスボディをヒープ上に保持する形式を設定します。
+         * 既定ではStringで設定したボディは{@link BodyStorage#STRING}、UTF-8のバイト列で設定したボディは{@link BodyStorage#UTF8}で保持します。
+         * @param storage 保持する形式
+         * @return
+         */
+        public ApiDataBuilder setBodyStorage(BodyStorage storage) {
+            this.storage = Objects.requireNonNull(storage, "保持する形式");
+            return this;
+        }
+
         /**
          * 艦これAPIのレスポンスのステータスコードを表す数値を設定します。
          * @param statusCode 艦これAPIのレスポンスのステータスコードを表す数値
@@ -172,8 +320,32 @@ public class ApiData {
          * @return ApiData
          */
         public ApiData build() {
-            return new ApiData(this.requestUri, this.requestBody, this.responseBody, this.statusCode, this.httpDate,
+            Body requestBody = this.body(Objects.requireNonNull(this.requestBody, "艦これAPIのリクエストボディ"));
+            Body responseBody = this.body(Objects.requireNonNull(this.responseBody, "艦これAPIのレスポンスボディ"));
+            return new ApiData(this.requestUri, requestBody, responseBody, this.statusCode, this.httpDate,
                     this.localTime);
         }
+
+        private Body body(Object value) {
+            // 形式を指定しない場合、UTF-8のバイト列はStringにデコードせずに保持する
+            BodyStorage bytes = this.storage != null ? this.storage : BodyStorage.UTF8;
+            if (value instanceof byte[]) {
+                return Body.of((byte[]) value, bytes);
+            }
+            if (value instanceof ByteBuffer) {
+                return Body.of((ByteBuffer) value, bytes);
+            }
+            if (value instanceof BodySource) {
+                return Body.of((BodySource) value);
+            }
+            return Body.of((String) value, this.storage != null ? this.storage : BodyStorage.STRING);
+        }
+
+        private static Object decode(byte[] bytes, Charset charset) {
+            if (bytes == null || StandardCharsets.UTF_8.equals(charset)) {
+                return bytes;
+            }
+            return new String(bytes, charset);
+        }
     }
 }
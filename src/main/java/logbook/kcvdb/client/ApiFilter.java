@@ -0,0 +1,225 @@
+package logbook.kcvdb.client;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 送信待ちキューに追加する前にApiDataを除外、間引き、又は別の送信クラスへ振り分けます<br>
+ * 規則はApiDataの{@code requestUri}のパス(スキーム、ホスト及びクエリを除いた部分)と照合します。
+ * 完全一致の規則は{@link HashMap}で、末尾が{@code *}の前方一致の規則は長い順に照合し、
+ * 完全一致を前方一致より、長い前方一致を短い前方一致より優先します。どの規則とも一致しない場合は既定の割合で間引きます
+ *
+ */
+public final class ApiFilter {
+
+    /** 全て受け入れる既定の設定 */
+    private static final ApiFilter ACCEPT_ALL = createBuilder().build();
+
+    /** 完全一致の規則 */
+    private final Map<String, Rule> exact;
+
+    /** 前方一致の規則(長い順) */
+    private final Rule[] prefixes;
+
+    /** どの規則とも一致しない場合の規則 */
+    private final Rule others;
+
+    private ApiFilter(List<Rule> rules, double defaultRate) {
+        Map<String, Rule> exact = new HashMap<>();
+        List<Rule> prefixes = new ArrayList<>();
+        for (Rule rule : rules) {
+            if (rule.prefix) {
+                prefixes.add(rule);
+            } else {
+                exact.put(rule.path, rule);
+            }
+        }
+        // 同じ長さの場合は後から追加した規則を優先する
+        List<Rule> reversed = new ArrayList<>(prefixes.size());
+        for (int i = prefixes.size() - 1; i >= 0; i--) {
+            reversed.add(prefixes.get(i));
+        }
+        reversed.sort(Comparator.comparingInt((Rule rule) -> rule.path.length()).reversed());
+        this.exact = exact;
+        this.prefixes = reversed.toArray(new Rule[reversed.size()]);
+        this.others = new Rule("", true, defaultRate, null);
+    }
+
+    /**
+     * 全て受け入れる既定の設定を取得します
+     *
+     * @return ApiFilter
+     */
+    public static ApiFilter acceptAll() {
+        return ACCEPT_ALL;
+    }
+
+    /**
+     * ApiDataを追加する送信クラスを決定します
+     *
+     * @param data ApiData
+     * @param sender 規則で振り分け先が指定されていない場合の送信クラス
+     * @return ApiDataを追加する送信クラス、除外又は間引かれた場合null
+     */
+    public AbstractSender route(ApiData data, AbstractSender sender) {
+        Rule rule = this.rule(path(data.getRequestUri()));
+        double rate = rule.rate;
+        if (rate < 1 && (rate <= 0 || ThreadLocalRandom.current().nextDouble() >= rate)) {
+            return null;
+        }
+        return rule.target != null ? rule.target : sender;
+    }
+
+    private Rule rule(String path) {
+        if (!this.exact.isEmpty()) {
+            Rule rule = this.exact.get(path);
+            if (rule != null) {
+                return rule;
+            }
+        }
+        for (Rule rule : this.prefixes) {
+            if (path.startsWith(rule.path)) {
+                return rule;
+            }
+        }
+        return this.others;
+    }
+
+    /**
+     * URIからスキーム、ホスト及びクエリを除いたパスを取り出します
+     *
+     * @param uri URI
+     * @return パス
+     */
+    static String path(String uri) {
+        int start = 0;
+        int scheme = uri.indexOf("://");
+        if (scheme >= 0) {
+            int slash = uri.indexOf('/', scheme + 3);
+            start = slash >= 0 ? slash : uri.length();
+        }
+        int end = uri.indexOf('?', start);
+        if (end < 0) {
+            end = uri.length();
+        }
+        return start == 0 && end == uri.length() ? uri : uri.substring(start, end);
+    }
+
+    /**
+     * ApiFilterBuilder を作成します
+     * @return ApiFilterBuilder
+     */
+    public static ApiFilterBuilder createBuilder() {
+        return new ApiFilterBuilder();
+    }
+
+    public static class ApiFilterBuilder {
+
+        private final List<Rule> rules = new ArrayList<>();
+
+        private double defaultRate = 1;
+
+        /**
+         * 受け入れるAPIを追加します。前方一致の規則から一部のAPIを除く場合に使用します。
+         * @param path APIのパス(末尾が*の場合は前方一致)
+         * @return
+         */
+        public ApiFilterBuilder accept(String path) {
+            return this.add(path, 1, null);
+        }
+
+        /**
+         * 除外するAPIを追加します。
+         * @param path APIのパス(末尾が*の場合は前方一致)
+         * @return
+         */
+        public ApiFilterBuilder drop(String path) {
+            return this.add(path, 0, null);
+        }
+
+        /**
+         * 指定した割合だけ受け入れるAPIを追加します。
+         * @param path APIのパス(末尾が*の場合は前方一致)
+         * @param rate 受け入れる割合(0以上1以下)
+         * @return
+         */
+        public ApiFilterBuilder sample(String path, double rate) {
+            return this.add(path, rate, null);
+        }
+
+        /**
+         * 別の送信クラスへ振り分けるAPIを追加します。
+         * 振り分け先の送信クラスのApiFilterは適用されません。
+         * @param path APIのパス(末尾が*の場合は前方一致)
+         * @param sender 振り分け先の送信クラス
+         * @return
+         */
+        public ApiFilterBuilder route(String path, AbstractSender sender) {
+            return this.add(path, 1, Objects.requireNonNull(sender, "振り分け先の送信クラス"));
+        }
+
+        /**
+         * どの規則とも一致しないAPIを受け入れる割合を設定します。既定では全て受け入れます。
+         * @param rate 受け入れる割合(0以上1以下)
+         * @return
+         */
+        public ApiFilterBuilder setDefaultRate(double rate) {
+            this.defaultRate = checkRate(rate);
+            return this;
+        }
+
+        /**
+         * ApiFilterを生成します
+         *
+         * @return ApiFilter
+         */
+        public ApiFilter build() {
+            return new ApiFilter(this.rules, this.defaultRate);
+        }
+
+        private ApiFilterBuilder add(String path, double rate, AbstractSender target) {
+            Objects.requireNonNull(path, "APIのパス");
+            boolean prefix = path.endsWith("*");
+            this.rules.add(new Rule(prefix ? path.substring(0, path.length() - 1) : path, prefix, checkRate(rate),
+                    target));
+            return this;
+        }
+
+        private static double checkRate(double rate) {
+            if (!(rate >= 0 && rate <= 1)) {
+                throw new IllegalArgumentException("受け入れる割合は0以上1以下である必要があります");
+            }
+            return rate;
+        }
+    }
+
+    /**
+     * APIのパスと一致した場合の扱い
+     */
+    private static final class Rule {
+
+        /** APIのパス(前方一致の場合は末尾の*を除く) */
+        private final String path;
+
+        /** 前方一致か */
+        private final boolean prefix;
+
+        /** 受け入れる割合 */
+        private final double rate;
+
+        /** 振り分け先の送信クラス(nullの場合は振り分けない) */
+        private final AbstractSender target;
+
+        Rule(String path, boolean prefix, double rate, AbstractSender target) {
+            this.path = path;
+            this.prefix = prefix;
+            this.rate = rate;
+            this.target = target;
+        }
+    }
+}
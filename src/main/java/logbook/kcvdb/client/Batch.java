@@ -0,0 +1,72 @@
+package logbook.kcvdb.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.http.HttpEntity;
+
+/**
+ * 1回の送信で送るApiDataのまとまりです
+ *
+ */
+class Batch {
+
+    /** セッション内で送信を開始した順序 */
+    final long sequence;
+
+    /** 送信に使用するセッションID */
+    final UUID sessionId;
+
+    /** 送信の結果 */
+    final CompletableFuture<SendResult> future = new CompletableFuture<>();
+
+    /** ApiDataの数 */
+    int records;
+
+    /** ApiDataの合計サイズ */
+    long bytes;
+
+    /** 送信が終わるまでメモリ使用量に計上したサイズ(メモリ使用量の制限ごと) */
+    final Map<MemoryGovernor, Long> reserved = new IdentityHashMap<>();
+
+    /** 送信する条件を満たしていないレーンのApiDataも含めるか */
+    boolean forced = true;
+
+    /** ApiDataを受信した日時(エポックミリ秒) */
+    long[] localTimes = new long[0];
+
+    /** スプールから読み込んだ位置 */
+    Spool.Mark mark;
+
+    /** 送信メッセージ */
+    HttpEntity entity;
+
+    /** 送信メッセージに含まれるApiData */
+    List<ApiData> datas = new ArrayList<>();
+
+    /** 送信メッセージが大きすぎたために分割し、後で送信するApiData */
+    final Deque<List<ApiData>> parts = new ArrayDeque<>();
+
+    /** 送信の結果(送信順に確定させるまで保持する) */
+    SendResult result;
+
+    /** 送信を試行した回数 */
+    int attempts;
+
+    /** 送信先がRetry-Afterヘッダーで指定した待機時間(ミリ秒)、指定が無い場合-1 */
+    long retryAfter = -1;
+
+    /** 送信用のスレッドで送信しているか */
+    boolean dispatched;
+
+    Batch(long sequence, UUID sessionId) {
+        this.sequence = sequence;
+        this.sessionId = sessionId;
+    }
+}
@@ -0,0 +1,353 @@
+package logbook.kcvdb.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * ApiDataのリクエストボディ又はレスポンスボディです<br>
+ * {@link BodyStorage}に従ってStringかUTF-8のバイト列(圧縮する場合を含む)で保持し、
+ * Stringが必要になった時にだけデコードします。{@link BodySource}から生成した場合は保持せず、必要になった時に読み込みます
+ *
+ */
+abstract class Body {
+
+    /** 読み込み及び展開時のバッファサイズ */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** ストリームから読み込むBodyが使用するおおよそのメモリ */
+    private static final int SOURCE_SIZE = 64;
+
+    /**
+     * 文字列からBodyを生成します
+     *
+     * @param value 文字列
+     * @param storage 保持する形式
+     * @return Body
+     */
+    static Body of(String value, BodyStorage storage) {
+        if (storage == BodyStorage.STRING) {
+            return new StringBody(value);
+        }
+        return of(value.getBytes(StandardCharsets.UTF_8), storage);
+    }
+
+    /**
+     * UTF-8のバイト列からBodyを生成します<br>
+     * バイト列は複製されずに保持されるため、呼び出し元で変更しないでください
+     *
+     * @param utf8 UTF-8のバイト列
+     * @param storage 保持する形式
+     * @return Body
+     */
+    static Body of(byte[] utf8, BodyStorage storage) {
+        return of(ByteBuffer.wrap(utf8), storage);
+    }
+
+    /**
+     * UTF-8のバイト列を格納したバッファからBodyを生成します<br>
+     * バッファの位置から上限までを複製せずに保持するため、呼び出し元で内容を変更しないでください
+     *
+     * @param utf8 UTF-8のバイト列を格納したバッファ
+     * @param storage 保持する形式
+     * @return Body
+     */
+    static Body of(ByteBuffer utf8, BodyStorage storage) {
+        switch (storage) {
+        case STRING:
+            return new StringBody(StandardCharsets.UTF_8.decode(utf8.duplicate()).toString());
+        case COMPRESSED:
+            return new CompressedBody(deflate(utf8.duplicate()), utf8.remaining());
+        case UTF8:
+        default:
+            return new BufferBody(utf8.slice());
+        }
+    }
+
+    /**
+     * 送信するまで何度でも読み込めるストリームからBodyを生成します<br>
+     * ボディは保持せず、送信データの構成やスプールへの書き込みの度に読み込みます
+     *
+     * @param source UTF-8のバイト列を読み込むストリームを開くBodySource
+     * @return Body
+     */
+    static Body of(BodySource source) {
+        return new SourceBody(Objects.requireNonNull(source, "BodySource"));
+    }
+
+    /**
+     * 文字列を取得します。バイト列で保持している場合は呼び出しごとにデコードします
+     *
+     * @return 文字列
+     */
+    String string() {
+        return new String(this.utf8(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * UTF-8のバイト列を取得します。返されたバイト列を保持しているバイト列と共有する場合があるため、変更しないでください
+     *
+     * @return UTF-8のバイト列
+     */
+    abstract byte[] utf8();
+
+    /**
+     * ヒープ上で使用するおおよそのメモリを取得します
+     *
+     * @return おおよそのメモリ(バイト)
+     */
+    abstract long heapSize();
+
+    /**
+     * 引用符で囲んだJSONの文字列として書き込みます<br>
+     * バイト列で保持している場合はデコードせずにエスケープして書き込みます
+     *
+     * @param out 出力ストリーム
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    void writeJson(OutputStream out) throws IOException {
+        out.write('"');
+        this.writeEscaped(out);
+        out.write('"');
+    }
+
+    /**
+     * UTF-8のバイト列をエスケープして書き込みます。引用符は書き込みません
+     *
+     * @param out 出力ストリーム
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    abstract void writeEscaped(OutputStream out) throws IOException;
+
+    private static byte[] deflate(ByteBuffer utf8) {
+        Compression.Context context = Compression.FAST.acquire();
+        try {
+            Deflater deflater = context.deflater;
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(utf8.remaining() / 4, 32));
+            while (utf8.hasRemaining()) {
+                if (utf8.hasArray()) {
+                    deflater.setInput(utf8.array(), utf8.arrayOffset() + utf8.position(), utf8.remaining());
+                    utf8.position(utf8.limit());
+                } else {
+                    int len = Math.min(utf8.remaining(), context.input.length);
+                    utf8.get(context.input, 0, len);
+                    deflater.setInput(context.input, 0, len);
+                }
+                while (!deflater.needsInput()) {
+                    out.write(context.buffer, 0, deflater.deflate(context.buffer));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.write(context.buffer, 0, deflater.deflate(context.buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            Compression.FAST.release(context);
+        }
+    }
+
+    /**
+     * Stringとして保持するBody
+     */
+    static final class StringBody extends Body {
+
+        private final String value;
+
+        StringBody(String value) {
+            this.value = value;
+        }
+
+        @Override
+        String string() {
+            return this.value;
+        }
+
+        @Override
+        byte[] utf8() {
+            return this.value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        long heapSize() {
+            return 2L * this.value.length();
+        }
+
+        @Override
+        void writeJson(OutputStream out) throws IOException {
+            JsonStrings.write(out, this.value);
+        }
+
+        @Override
+        void writeEscaped(OutputStream out) throws IOException {
+            byte[] utf8 = this.utf8();
+            JsonStrings.writeEscaped(out, utf8, 0, utf8.length);
+        }
+    }
+
+    /**
+     * UTF-8のバイト列を格納したバッファとして保持するBody
+     */
+    static final class BufferBody extends Body {
+
+        /** 位置が0のバッファ(配列を直接参照するため読み取り専用にはせず、位置も内容も変更しない) */
+        private final ByteBuffer buffer;
+
+        BufferBody(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        byte[] utf8() {
+            ByteBuffer buffer = this.buffer.duplicate();
+            if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.remaining() == buffer.array().length) {
+                return buffer.array();
+            }
+            byte[] array = new byte[buffer.remaining()];
+            buffer.get(array);
+            return array;
+        }
+
+        @Override
+        long heapSize() {
+            return this.buffer.remaining();
+        }
+
+        @Override
+        void writeEscaped(OutputStream out) throws IOException {
+            ByteBuffer buffer = this.buffer.duplicate();
+            if (buffer.hasArray()) {
+                JsonStrings.writeEscaped(out, buffer.array(), buffer.arrayOffset(), buffer.remaining());
+                return;
+            }
+            byte[] chunk = new byte[Math.min(BUFFER_SIZE, Math.max(buffer.remaining(), 1))];
+            while (buffer.hasRemaining()) {
+                int len = Math.min(buffer.remaining(), chunk.length);
+                buffer.get(chunk, 0, len);
+                JsonStrings.writeEscaped(out, chunk, 0, len);
+            }
+        }
+    }
+
+    /**
+     * UTF-8のバイト列を圧縮して保持するBody
+     */
+    static final class CompressedBody extends Body {
+
+        private final byte[] bytes;
+
+        /** 展開後のバイト数 */
+        private final int length;
+
+        CompressedBody(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        @Override
+        byte[] utf8() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(this.length);
+            this.inflate(out::write);
+            return out.toByteArray();
+        }
+
+        @Override
+        long heapSize() {
+            return this.bytes.length;
+        }
+
+        @Override
+        void writeEscaped(OutputStream out) throws IOException {
+            try {
+                this.inflate((b, off, len) -> {
+                    try {
+                        JsonStrings.writeEscaped(out, b, off, len);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void inflate(Chunk chunk) {
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(this.bytes);
+                byte[] buffer = new byte[Math.min(BUFFER_SIZE, Math.max(this.length, 1))];
+                while (!inflater.finished()) {
+                    int len = inflater.inflate(buffer);
+                    if (len == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IllegalStateException("圧縮されたボディが壊れています");
+                    }
+                    chunk.accept(buffer, 0, len);
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("圧縮されたボディが壊れています", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * 保持せず、必要になった時にストリームから読み込むBody
+     */
+    static final class SourceBody extends Body {
+
+        private final BodySource source;
+
+        SourceBody(BodySource source) {
+            this.source = source;
+        }
+
+        @Override
+        byte[] utf8() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+            try (InputStream in = this.source.open()) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, len);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toByteArray();
+        }
+
+        @Override
+        long heapSize() {
+            return SOURCE_SIZE;
+        }
+
+        @Override
+        void writeEscaped(OutputStream out) throws IOException {
+            try (InputStream in = this.source.open()) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    // エスケープするのは1バイトの文字だけなので、マルチバイト文字の途中で区切っても問題ない
+                    JsonStrings.writeEscaped(out, buffer, 0, len);
+                }
+            }
+        }
+    }
+
+    /**
+     * 展開したバイト列を受け取る
+     */
+    @FunctionalInterface
+    private interface Chunk {
+        void accept(byte[] b, int off, int len);
+    }
+}
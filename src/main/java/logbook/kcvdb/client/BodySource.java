@@ -0,0 +1,22 @@
+package logbook.kcvdb.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 艦これAPIのボディをUTF-8のバイト列として読み込むストリームを開きます<br>
+ * ボディはApiDataに保持されず、送信データの構成やスプールへの書き込みの度に{@link #open()}が呼び出されます。
+ * 送信が終わるまで、何度呼び出しても同じ内容を読み込めるようにしてください
+ *
+ */
+@FunctionalInterface
+public interface BodySource {
+
+    /**
+     * ボディを先頭から読み込むストリームを開きます。ストリームは呼び出し元で閉じます
+     *
+     * @return ボディを読み込むストリーム
+     * @throws IOException ストリームを開けなかった場合
+     */
+    InputStream open() throws IOException;
+}
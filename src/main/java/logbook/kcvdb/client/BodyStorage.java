@@ -0,0 +1,17 @@
+package logbook.kcvdb.client;
+
+/**
+ * ApiDataがリクエストボディとレスポンスボディをヒープ上に保持する形式です
+ *
+ */
+public enum BodyStorage {
+
+    /** Stringとして保持します(1文字あたり2バイト) */
+    STRING,
+
+    /** UTF-8でエンコードしたバイト列として保持し、Stringが必要になった時にデコードします */
+    UTF8,
+
+    /** UTF-8でエンコードしたバイト列を圧縮して保持し、必要になった時に展開します */
+    COMPRESSED
+}
@@ -0,0 +1,157 @@
+package logbook.kcvdb.client;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * 送信先が停止していると判断される間、バッチの構成と送信を止めるサーキットブレーカーです<br>
+ * 送信が連続して失敗すると開き、一定時間が経過すると軽量なリクエストで送信先を確認してから送信を再開します
+ *
+ */
+public class CircuitBreaker {
+
+    /**
+     * サーキットブレーカーの状態
+     */
+    public enum State {
+        /** 送信できる */
+        CLOSED,
+        /** 送信先が停止しているため送信しない */
+        OPEN,
+        /** 送信先を確認している */
+        HALF_OPEN
+    }
+
+    /** 開くまでに連続して失敗できる回数 */
+    private final int failureThreshold;
+
+    /** 開いてから送信先を確認するまでの時間 */
+    private final long openNanos;
+
+    /** 現在時刻(ナノ秒) */
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+
+    /** 連続して失敗した回数 */
+    private int failures;
+
+    /** 開いた時刻(ナノ秒) */
+    private long openedAt;
+
+    CircuitBreaker(int failureThreshold, Duration openDuration, LongSupplier clock) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("連続して失敗できる回数は1以上である必要があります");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.clock = clock;
+    }
+
+    /**
+     * 状態を取得します
+     *
+     * @return 状態
+     */
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    /**
+     * 送信してよいかを判断します
+     *
+     * @return 閉じている場合true
+     */
+    public synchronized boolean isClosed() {
+        return this.state == State.CLOSED;
+    }
+
+    /**
+     * 開いてから一定時間が経過している場合に、送信先の確認を開始します<br>
+     * 確認を開始した場合、呼び出し元は確認の結果を{@link #onSuccess()}又は{@link #onFailure()}で通知する必要があります
+     *
+     * @return 確認を開始した場合true
+     */
+    public synchronized boolean tryProbe() {
+        if (this.state == State.OPEN && this.clock.getAsLong() - this.openedAt >= this.openNanos) {
+            this.state = State.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 送信先が応答したことを通知します
+     */
+    public synchronized void onSuccess() {
+        this.failures = 0;
+        this.state = State.CLOSED;
+    }
+
+    /**
+     * 送信先に到達できなかったか、送信先がエラーを返したことを通知します
+     */
+    public synchronized void onFailure() {
+        switch (this.state) {
+        case HALF_OPEN:
+            this.open();
+            break;
+        case CLOSED:
+            if (++this.failures >= this.failureThreshold) {
+                this.open();
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void open() {
+        this.state = State.OPEN;
+        this.openedAt = this.clock.getAsLong();
+    }
+
+    /**
+     * CircuitBreakerBuilder を作成します
+     * @return CircuitBreakerBuilder
+     */
+    public static CircuitBreakerBuilder createBuilder() {
+        return new CircuitBreakerBuilder();
+    }
+
+    public static class CircuitBreakerBuilder {
+
+        private int failureThreshold = 5;
+
+        private Duration openDuration = Duration.ofSeconds(30);
+
+        /**
+         * 開くまでに連続して失敗できる回数を設定します。
+         * @param failureThreshold 連続して失敗できる回数
+         * @return
+         */
+        public CircuitBreakerBuilder setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * 開いてから送信先を確認するまでの時間を設定します。
+         * @param openDuration 送信先を確認するまでの時間
+         * @return
+         */
+        public CircuitBreakerBuilder setOpenDuration(Duration openDuration) {
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        /**
+         * CircuitBreakerを生成します
+         *
+         * @return CircuitBreaker
+         */
+        public CircuitBreaker build() {
+            return new CircuitBreaker(this.failureThreshold, this.openDuration, System::nanoTime);
+        }
+    }
+}
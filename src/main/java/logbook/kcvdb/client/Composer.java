@@ -2,16 +2,19 @@ package logbook.kcvdb.client;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.ForkJoinTask;
 
 import javax.json.Json;
-import javax.json.JsonArrayBuilder;
 import javax.json.JsonObjectBuilder;
-import javax.json.JsonWriter;
 
 /**
  * 送信データを構成する
@@ -19,6 +22,22 @@ import javax.json.JsonWriter;
  */
 class Composer {
 
+    /** JSONオブジェクトのキー(値の前までを含む) */
+    private static final byte[] REQUEST_URI = "{\"RequestUri\":".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] REQUEST_BODY = ",\"RequestBody\":".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] RESPONSE_BODY = ",\"ResponseBody\":".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] STATUS_CODE = ",\"StatusCode\":".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] HTTP_DATE = ",\"HttpDate\":".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] LOCAL_TIME = ",\"LocalTime\":".getBytes(StandardCharsets.US_ASCII);
+
+    /** LocalTimeのタイムゾーン */
+    private static final ZoneId GMT = ZoneId.of("GMT");
+
     /**
      * metadata を構成します
      *
@@ -40,29 +59,266 @@ class Composer {
      */
     public static byte[] composeBody(Collection<ApiData> datas) {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
-        try (GZIPOutputStream gout = new GZIPOutputStream(out)) {
-            JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
+        try {
+            writeBody(datas, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * body を構成し出力ストリームへ書き込みます<br>
+     * APIデータは1件ずつJSONに変換されgzip圧縮されながら書き込まれるため、JSON全体がメモリ上に構築されることはありません<br>
+     * 出力ストリームは閉じられません
+     *
+     * @param datas APIデータ
+     * @param out 出力ストリーム
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    static void writeBody(Iterable<ApiData> datas, OutputStream out) throws IOException {
+        writeBody(datas, Redactor.defaults(), out);
+    }
+
+    /**
+     * body を構成し出力ストリームへ書き込みます<br>
+     * 出力ストリームは閉じられません
+     *
+     * @param datas APIデータ
+     * @param redactor リクエストボディから秘匿すべきパラメータを取り除くRedactor
+     * @param out 出力ストリーム
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    static void writeBody(Iterable<ApiData> datas, Redactor redactor, OutputStream out) throws IOException {
+        writeBody(datas, redactor, Compression.DEFAULT, out);
+    }
+
+    /**
+     * APIデータを送信データのJSONオブジェクトへ事前に変換し、APIデータに保持させます<br>
+     * 送信時は変換済みのJSONを連結して圧縮するだけになるため、変換の負荷をAPIデータを追加するスレッドへ分散できます
+     *
+     * @param data APIデータ
+     * @param redactor リクエストボディから秘匿すべきパラメータを取り除くRedactor
+     */
+    static void prepare(ApiData data, Redactor redactor) {
+        Fragment fragment = data.getFragment();
+        if (fragment == null || fragment.redactor != redactor) {
+            data.setFragment(new Fragment(redactor, serialize(data, redactor)));
+        }
+    }
+
+    /**
+     * APIデータをUTF-8でエンコードされたJSONオブジェクトに変換します
+     *
+     * @param data APIデータ
+     * @param redactor リクエストボディから秘匿すべきパラメータを取り除くRedactor
+     * @return JSONオブジェクト
+     */
+    private static byte[] serialize(ApiData data, Redactor redactor) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(data.size() / 2, Integer.MAX_VALUE - 8));
+        try {
+            writeApiData(out, data, redactor);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * APIデータのJSONオブジェクトを区切り文字で連結して書き込みます<br>
+     * 同じRedactorで事前に変換したJSONオブジェクトがある場合はそれを書き込みます
+     *
+     * @param datas APIデータ
+     * @param redactor リクエストボディから秘匿すべきパラメータを取り除くRedactor
+     * @param out 出力ストリーム
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    private static void writeElements(Iterable<ApiData> datas, Redactor redactor, OutputStream out)
+            throws IOException {
+        boolean first = true;
+        for (ApiData data : datas) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            Fragment fragment = data.getFragment();
+            if (fragment != null && fragment.redactor == redactor) {
+                out.write(fragment.json);
+            } else {
+                writeApiData(out, data, redactor);
+            }
+        }
+    }
+
+    /**
+     * body を構成し出力ストリームへ書き込みます<br>
+     * 圧縮に使用するDeflaterとバッファは{@link Compression}から借りて再利用します<br>
+     * 事前に変換したJSONオブジェクトを持つAPIデータは、変換済みのJSONをそのまま圧縮します<br>
+     * 出力ストリームは閉じられません
+     *
+     * @param datas APIデータ
+     * @param redactor リクエストボディから秘匿すべきパラメータを取り除くRedactor
+     * @param compression 圧縮レベルと圧縮方式
+     * @param out 出力ストリーム
+     * @return 圧縮前のバイト数
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    static long writeBody(Iterable<ApiData> datas, Redactor redactor, Compression compression, OutputStream out)
+            throws IOException {
+        try (PooledGzipOutputStream gout = new PooledGzipOutputStream(out, compression)) {
+            gout.write('[');
+            writeElements(datas, redactor, gout);
+            gout.write(']');
+            return gout.getTotal();
+        }
+    }
+
+    /**
+     * body を構成し出力ストリームへ書き込みます<br>
+     * APIデータの推定サイズが{@link ParallelCompression#getThreshold()}以上の場合、APIデータを分割して並列に圧縮し、
+     * 分割したJSONを順に連結したgzipメンバーとして書き込みます。展開すると1つのJSON配列になります<br>
+     * 出力ストリームは閉じられません
+     *
+     * @param datas APIデータ
+     * @param redactor リクエストボディから秘匿すべきパラメータを取り除くRedactor
+     * @param compression 圧縮レベルと圧縮方式
+     * @param parallel 並列に圧縮する設定、並列に圧縮しない場合null
+     * @param out 出力ストリーム
+     * @return 圧縮前のバイト数
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    static long writeBody(List<ApiData> datas, Redactor redactor, Compression compression,
+            ParallelCompression parallel, OutputStream out) throws IOException {
+        long total = 0;
+        for (ApiData data : datas) {
+            total += data.size();
+        }
+        if (parallel == null || datas.size() < 2 || total < parallel.getThreshold()) {
+            return writeBody(datas, redactor, compression, out);
+        }
+        // 推定サイズでAPIデータを分割する
+        List<List<ApiData>> chunks = new ArrayList<>();
+        int from = 0;
+        long size = 0;
+        for (int i = 0; i < datas.size(); i++) {
+            size += datas.get(i).size();
+            if (size >= parallel.getChunkSize() || i == datas.size() - 1) {
+                chunks.add(datas.subList(from, i + 1));
+                from = i + 1;
+                size = 0;
+            }
+        }
+        List<ForkJoinTask<byte[]>> tasks = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            List<ApiData> chunk = chunks.get(i);
+            boolean first = i == 0;
+            boolean last = i == chunks.size() - 1;
+            tasks.add(parallel.getPool().submit(() -> writeMember(chunk, redactor, compression, first, last)));
+        }
+        try {
+            long uncompressed = 0;
+            for (ForkJoinTask<byte[]> task : tasks) {
+                byte[] member = task.join();
+                out.write(member);
+                // gzipトレーラーの末尾4バイトは圧縮前のバイト数(gzipメンバーは4GiBより十分小さい)
+                uncompressed += (member[member.length - 4] & 0xffL)
+                        | (member[member.length - 3] & 0xffL) << 8
+                        | (member[member.length - 2] & 0xffL) << 16
+                        | (member[member.length - 1] & 0xffL) << 24;
+            }
+            return uncompressed;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (ForkJoinTask<byte[]> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * 分割したAPIデータを1つのgzipメンバーとして圧縮します<br>
+     * 最初のメンバーはJSON配列の開始を、最後のメンバーは終了を含み、それ以外のメンバーは要素の区切りから始まります
+     *
+     * @param datas 分割したAPIデータ
+     * @param redactor リクエストボディから秘匿すべきパラメータを取り除くRedactor
+     * @param compression 圧縮レベルと圧縮方式
+     * @param first 最初のメンバーの場合true
+     * @param last 最後のメンバーの場合true
+     * @return gzipメンバー
+     */
+    private static byte[] writeMember(List<ApiData> datas, Redactor redactor, Compression compression,
+            boolean first, boolean last) {
+        try {
+            long size = 0;
             for (ApiData data : datas) {
-                JsonObjectBuilder objectBuilder = Json.createObjectBuilder();
-
-                objectBuilder.add("RequestUri", data.getRequestUri());
-                objectBuilder.add("RequestBody",
-                        data.getRequestBody().replaceAll("&api(_|%5F)token=[0-9a-f]+|api(_|%5F)token=[0-9a-f]+&?", ""));
-                objectBuilder.add("ResponseBody", data.getResponseBody());
-                objectBuilder.add("StatusCode", data.getStatusCode());
-                objectBuilder.add("HttpDate", data.getHttpDate());
-                objectBuilder.add("LocalTime", DateTimeFormatter.RFC_1123_DATE_TIME
-                        .format(data.getLocalTime().withZoneSameInstant(ZoneId.of("GMT"))));
-
-                arrayBuilder.add(objectBuilder.build());
+                size += data.size();
             }
-            try (JsonWriter writer = Json.createWriter(gout)) {
-                writer.writeArray(arrayBuilder.build());
+            ByteArrayOutputStream member = new ByteArrayOutputStream((int) Math.min(Math.max(size / 8, 32),
+                    Integer.MAX_VALUE - 8));
+            try (PooledGzipOutputStream gout = new PooledGzipOutputStream(member, compression)) {
+                gout.write(first ? '[' : ',');
+                writeElements(datas, redactor, gout);
+                if (last) {
+                    gout.write(']');
+                }
             }
+            return member.toByteArray();
         } catch (IOException e) {
-            throw new IllegalStateException(e);
+            throw new UncheckedIOException(e);
         }
+    }
 
-        return out.toByteArray();
+    /**
+     * APIデータを1件のJSONオブジェクトとして書き込みます<br>
+     * javax.json の JsonGenerator と同じJSONを出力します。
+     * UTF-8のバイト列で保持しているレスポンスボディはデコードせずにエスケープして書き込みます
+     *
+     * @param out 出力ストリーム
+     * @param data APIデータ
+     * @param redactor リクエストボディから秘匿すべきパラメータを取り除くRedactor
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    private static void writeApiData(OutputStream out, ApiData data, Redactor redactor) throws IOException {
+        out.write(REQUEST_URI);
+        JsonStrings.write(out, data.getRequestUri());
+        out.write(REQUEST_BODY);
+        JsonStrings.write(out, redactor.redact(data.getRequestBody()));
+        out.write(RESPONSE_BODY);
+        data.responseBody().writeJson(out);
+        out.write(STATUS_CODE);
+        out.write(Integer.toString(data.getStatusCode()).getBytes(StandardCharsets.US_ASCII));
+        out.write(HTTP_DATE);
+        JsonStrings.write(out, data.getHttpDate());
+        out.write(LOCAL_TIME);
+        JsonStrings.write(out, DateTimeFormatter.RFC_1123_DATE_TIME
+                .format(data.getLocalTime().withZoneSameInstant(GMT)));
+        out.write('}');
+    }
+
+    /**
+     * 事前に変換したAPIデータのJSONオブジェクト
+     */
+    static final class Fragment {
+
+        /** 変換に使用したRedactor */
+        final Redactor redactor;
+
+        /** UTF-8でエンコードされたJSONオブジェクト */
+        final byte[] json;
+
+        Fragment(Redactor redactor, byte[] json) {
+            this.redactor = redactor;
+            this.json = json;
+        }
+
+        /**
+         * JSONオブジェクトのバイト数
+         *
+         * @return バイト数
+         */
+        int length() {
+            return this.json.length;
+        }
     }
 }
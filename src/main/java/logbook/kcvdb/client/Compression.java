@@ -0,0 +1,145 @@
+package logbook.kcvdb.client;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 送信データの圧縮レベルと圧縮方式です<br>
+ * 圧縮に使用するDeflaterとバッファは送信ごとに生成せず、リセットして再利用します
+ *
+ */
+public final class Compression {
+
+    /** 速度を優先する(送信の遅延を抑えたい場合) */
+    public static final Compression FAST = new Compression(Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY);
+
+    /** 既定の圧縮レベル */
+    public static final Compression DEFAULT = new Compression(Deflater.DEFAULT_COMPRESSION,
+            Deflater.DEFAULT_STRATEGY);
+
+    /** 圧縮率を優先する(溜まったデータをまとめて送信する場合) */
+    public static final Compression BEST = new Compression(Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+
+    /** 圧縮時のバッファサイズ */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** 保持しておくDeflaterの最大数 */
+    private static final int MAX_POOLED = Runtime.getRuntime().availableProcessors() * 2;
+
+    /** 圧縮レベル */
+    private final int level;
+
+    /** 圧縮方式 */
+    private final int strategy;
+
+    /** 再利用できるDeflaterとバッファ */
+    private final Queue<Context> pool = new ConcurrentLinkedQueue<>();
+
+    /** 保持しているDeflaterの数 */
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    private Compression(int level, int strategy) {
+        this.level = level;
+        this.strategy = strategy;
+    }
+
+    /**
+     * 圧縮レベルと圧縮方式を指定してCompressionを生成します<br>
+     * Deflaterは生成したCompressionごとに再利用されるため、同じ設定のCompressionは共有してください
+     *
+     * @param level 圧縮レベル({@link Deflater#DEFAULT_COMPRESSION}又は0～9)
+     * @param strategy 圧縮方式({@link Deflater#DEFAULT_STRATEGY}、{@link Deflater#FILTERED}、{@link Deflater#HUFFMAN_ONLY})
+     * @return Compression
+     */
+    public static Compression of(int level, int strategy) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("圧縮レベルが不正です: " + level);
+        }
+        switch (strategy) {
+        case Deflater.DEFAULT_STRATEGY:
+        case Deflater.FILTERED:
+        case Deflater.HUFFMAN_ONLY:
+            break;
+        default:
+            throw new IllegalArgumentException("圧縮方式が不正です: " + strategy);
+        }
+        return new Compression(level, strategy);
+    }
+
+    /**
+     * 圧縮レベルを取得します
+     *
+     * @return 圧縮レベル
+     */
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * 圧縮方式を取得します
+     *
+     * @return 圧縮方式
+     */
+    public int getStrategy() {
+        return this.strategy;
+    }
+
+    /**
+     * 圧縮に使用するDeflaterとバッファを取得します<br>
+     * 使い終わったら{@link #release(Context)}で返却してください
+     *
+     * @return Deflaterとバッファ
+     */
+    Context acquire() {
+        Context context = this.pool.poll();
+        if (context != null) {
+            this.pooled.decrementAndGet();
+            return context;
+        }
+        Deflater deflater = new Deflater(this.level, true);
+        deflater.setStrategy(this.strategy);
+        return new Context(deflater);
+    }
+
+    /**
+     * Deflaterとバッファをリセットして返却します<br>
+     * 保持しているDeflaterが上限に達している場合は破棄します
+     *
+     * @param context Deflaterとバッファ
+     */
+    void release(Context context) {
+        context.deflater.reset();
+        context.crc.reset();
+        if (this.pooled.incrementAndGet() <= MAX_POOLED) {
+            this.pool.offer(context);
+        } else {
+            this.pooled.decrementAndGet();
+            context.deflater.end();
+        }
+    }
+
+    /**
+     * 1回の圧縮に使用するDeflaterとバッファ
+     */
+    static final class Context {
+
+        /** gzipヘッダーを書かないDeflater */
+        final Deflater deflater;
+
+        /** 圧縮されたデータを受け取るバッファ */
+        final byte[] buffer = new byte[BUFFER_SIZE];
+
+        /** 圧縮前の小さな書き込みをまとめるバッファ */
+        final byte[] input = new byte[BUFFER_SIZE];
+
+        /** gzipトレーラーのCRC-32 */
+        final CRC32 crc = new CRC32();
+
+        Context(Deflater deflater) {
+            this.deflater = deflater;
+        }
+    }
+}
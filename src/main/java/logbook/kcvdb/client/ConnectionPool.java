@@ -0,0 +1,283 @@
+package logbook.kcvdb.client;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * 送信に使用するHTTP接続のプールです<br>
+ * 1つのプールを複数の送信クラスインスタンスで共有することが出来ます<br>
+ * 接続マネージャーとアイドル状態の接続を破棄するスレッドは、最初に接続を使用する時に作成されます
+ *
+ */
+public class ConnectionPool implements Closeable {
+
+    /** プール全体の最大接続数 */
+    private final int maxTotal;
+
+    /** 送信先ごとの最大接続数 */
+    private final int maxPerRoute;
+
+    /** 接続を維持する最大時間 */
+    private final Duration keepAlive;
+
+    /** アイドル状態の接続を破棄するまでの時間 */
+    private final Duration idleTimeout;
+
+    /** アイドル状態の接続を検査する間隔 */
+    private final Duration evictionInterval;
+
+    /** 再利用前に接続を検証するまでのアイドル時間 */
+    private final Duration validateAfterInactivity;
+
+    /** 接続マネージャー(まだ接続を使用していない場合null) */
+    private volatile PoolingHttpClientConnectionManager manager;
+
+    /** アイドル状態の接続を破棄するスレッド(まだ接続を使用していない場合null) */
+    private IdleConnectionEvictor evictor;
+
+    /** 閉じられたか */
+    private boolean closed;
+
+    private ConnectionPool(int maxTotal, int maxPerRoute, Duration keepAlive, Duration idleTimeout,
+            Duration evictionInterval, Duration validateAfterInactivity) {
+        this.maxTotal = maxTotal;
+        this.maxPerRoute = maxPerRoute;
+        this.keepAlive = keepAlive;
+        this.idleTimeout = idleTimeout;
+        this.evictionInterval = evictionInterval;
+        this.validateAfterInactivity = validateAfterInactivity;
+    }
+
+    /**
+     * 接続マネージャーを取得します<br>
+     * 初めて呼び出された時に接続マネージャーとアイドル状態の接続を破棄するスレッドを作成します
+     *
+     * @return 接続マネージャー
+     * @throws IllegalStateException プールが閉じられている場合
+     */
+    HttpClientConnectionManager manager() {
+        PoolingHttpClientConnectionManager manager = this.manager;
+        if (manager != null) {
+            return manager;
+        }
+        synchronized (this) {
+            if (this.closed) {
+                throw new IllegalStateException("接続プールは閉じられています");
+            }
+            if (this.manager == null) {
+                manager = new PoolingHttpClientConnectionManager(this.keepAlive.toMillis(), TimeUnit.MILLISECONDS);
+                manager.setMaxTotal(this.maxTotal);
+                manager.setDefaultMaxPerRoute(this.maxPerRoute);
+                manager.setValidateAfterInactivity((int) this.validateAfterInactivity.toMillis());
+                this.evictor = new IdleConnectionEvictor(manager,
+                        this.evictionInterval.toMillis(), TimeUnit.MILLISECONDS,
+                        this.idleTimeout.toMillis(), TimeUnit.MILLISECONDS);
+                this.evictor.start();
+                this.manager = manager;
+            }
+            return this.manager;
+        }
+    }
+
+    /**
+     * 接続マネージャーが作成されているかを取得します
+     *
+     * @return 接続マネージャーが作成されている場合true
+     */
+    boolean isStarted() {
+        return this.manager != null;
+    }
+
+    /**
+     * 接続を維持する時間を決定する戦略を取得します<br>
+     * サーバーがKeep-Aliveヘッダーで指定した時間と設定値のうち短い方を使用します
+     *
+     * @return 接続を維持する時間を決定する戦略
+     */
+    ConnectionKeepAliveStrategy keepAliveStrategy() {
+        return this::keepAliveDuration;
+    }
+
+    /**
+     * 送信先への接続を事前に確立します<br>
+     * 最初の送信でTCP及びTLSのハンドシェイクを待たずに済むようになります
+     *
+     * @param uri 送信先URI
+     * @param count 確立する接続の数
+     * @param connectTimeout 接続タイムアウト
+     * @return 確立できた接続の数
+     */
+    public int prewarm(String uri, int count, Duration connectTimeout) {
+        HttpClientConnectionManager manager = this.manager();
+        HttpRoute route = route(URI.create(uri));
+        List<HttpClientConnection> connections = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                HttpClientContext context = HttpClientContext.create();
+                ConnectionRequest request = manager.requestConnection(route, null);
+                HttpClientConnection connection = request.get(connectTimeout.toMillis(), TimeUnit.MILLISECONDS);
+                connections.add(connection);
+                if (!connection.isOpen()) {
+                    manager.connect(connection, route, (int) connectTimeout.toMillis(), context);
+                    manager.routeComplete(connection, route, context);
+                }
+            }
+        } catch (Exception e) {
+            // 確立できた接続のみプールへ戻す
+        }
+        int opened = 0;
+        for (HttpClientConnection connection : connections) {
+            if (connection.isOpen()) {
+                opened++;
+            }
+            manager.releaseConnection(connection, null, this.keepAlive.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return opened;
+    }
+
+    /**
+     * プールを閉じ、全ての接続を破棄します
+     */
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        if (this.manager != null) {
+            this.evictor.shutdown();
+            this.manager.shutdown();
+        }
+    }
+
+    private long keepAliveDuration(HttpResponse response, HttpContext context) {
+        long max = this.keepAlive.toMillis();
+        HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+        while (it.hasNext()) {
+            HeaderElement element = it.nextElement();
+            if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                try {
+                    return Math.min(Long.parseLong(element.getValue()) * 1000, max);
+                } catch (NumberFormatException e) {
+                }
+            }
+        }
+        return max;
+    }
+
+    private static HttpRoute route(URI uri) {
+        boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        int port = uri.getPort() != -1 ? uri.getPort() : (secure ? 443 : 80);
+        return new HttpRoute(new HttpHost(uri.getHost(), port, uri.getScheme()), null, secure);
+    }
+
+    /**
+     * ConnectionPoolBuilder を作成します
+     * @return ConnectionPoolBuilder
+     */
+    public static ConnectionPoolBuilder createBuilder() {
+        return new ConnectionPoolBuilder();
+    }
+
+    public static class ConnectionPoolBuilder {
+
+        private int maxTotal = 16;
+
+        private int maxPerRoute = 4;
+
+        private Duration keepAlive = Duration.ofMinutes(2);
+
+        private Duration idleTimeout = Duration.ofSeconds(60);
+
+        private Duration evictionInterval = Duration.ofSeconds(10);
+
+        private Duration validateAfterInactivity = Duration.ofSeconds(2);
+
+        /**
+         * プール全体の最大接続数を設定します。
+         * @param maxTotal プール全体の最大接続数
+         * @return
+         */
+        public ConnectionPoolBuilder setMaxTotal(int maxTotal) {
+            this.maxTotal = maxTotal;
+            return this;
+        }
+
+        /**
+         * 送信先ごとの最大接続数を設定します。
+         * @param maxPerRoute 送信先ごとの最大接続数
+         * @return
+         */
+        public ConnectionPoolBuilder setMaxPerRoute(int maxPerRoute) {
+            this.maxPerRoute = maxPerRoute;
+            return this;
+        }
+
+        /**
+         * 接続を維持する最大時間を設定します。
+         * @param keepAlive 接続を維持する最大時間
+         * @return
+         */
+        public ConnectionPoolBuilder setKeepAlive(Duration keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        /**
+         * アイドル状態の接続を破棄するまでの時間を設定します。
+         * @param idleTimeout アイドル状態の接続を破棄するまでの時間
+         * @return
+         */
+        public ConnectionPoolBuilder setIdleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        /**
+         * アイドル状態の接続を検査する間隔を設定します。
+         * @param evictionInterval アイドル状態の接続を検査する間隔
+         * @return
+         */
+        public ConnectionPoolBuilder setEvictionInterval(Duration evictionInterval) {
+            this.evictionInterval = evictionInterval;
+            return this;
+        }
+
+        /**
+         * 再利用前に接続を検証するまでのアイドル時間を設定します。
+         * @param validateAfterInactivity 再利用前に接続を検証するまでのアイドル時間
+         * @return
+         */
+        public ConnectionPoolBuilder setValidateAfterInactivity(Duration validateAfterInactivity) {
+            this.validateAfterInactivity = validateAfterInactivity;
+            return this;
+        }
+
+        /**
+         * ConnectionPoolを生成します
+         *
+         * @return ConnectionPool
+         */
+        public ConnectionPool build() {
+            return new ConnectionPool(this.maxTotal, this.maxPerRoute, this.keepAlive, this.idleTimeout,
+                    this.evictionInterval, this.validateAfterInactivity);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package logbook.kcvdb.client;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * 送信待ちのApiDataをいつ、どれだけまとめて送信するかを決定します<br>
+ * 少量のApiDataは{@link #getLinger()}の間まとめられ、件数又はサイズが上限に達した場合は直ちに送信されます<br>
+ * 上限を超えるApiDataは複数のバッチに分割して送信されます
+ *
+ */
+public class FlushPolicy {
+
+    /** 1回に送信する最大のApiDataの数 */
+    private final int maxRecords;
+
+    /** 1回に送信するApiDataの最大の合計サイズ(推定値) */
+    private final long maxBytes;
+
+    /** 送信待ちのApiDataをまとめるために待機する最大の時間 */
+    private final Duration linger;
+
+    private FlushPolicy(int maxRecords, long maxBytes, Duration linger) {
+        if (maxRecords < 1) {
+            throw new IllegalArgumentException("最大のApiDataの数は1以上である必要があります");
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("最大の合計サイズは1以上である必要があります");
+        }
+        Objects.requireNonNull(linger, "待機する時間");
+        if (linger.isNegative() || linger.isZero()) {
+            throw new IllegalArgumentException("待機する時間は正である必要があります");
+        }
+        this.maxRecords = maxRecords;
+        this.maxBytes = maxBytes;
+        this.linger = linger;
+    }
+
+    /**
+     * 1回に送信する最大のApiDataの数を取得します
+     *
+     * @return 最大のApiDataの数
+     */
+    public int getMaxRecords() {
+        return this.maxRecords;
+    }
+
+    /**
+     * 1回に送信するApiDataの最大の合計サイズを取得します<br>
+     * サイズは圧縮前に見積もるため、{@link ApiData}の文字数から推定した値です
+     *
+     * @return 最大の合計サイズ(バイト)
+     */
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    /**
+     * 送信待ちのApiDataをまとめるために待機する最大の時間を取得します
+     *
+     * @return 待機する最大の時間
+     */
+    public Duration getLinger() {
+        return this.linger;
+    }
+
+    /**
+     * FlushPolicyBuilder を作成します
+     * @return FlushPolicyBuilder
+     */
+    public static FlushPolicyBuilder createBuilder() {
+        return new FlushPolicyBuilder();
+    }
+
+    public static class FlushPolicyBuilder {
+
+        private int maxRecords = 500;
+
+        private long maxBytes = 4 * 1024 * 1024;
+
+        private Duration linger = Duration.ofSeconds(5);
+
+        /**
+         * 1回に送信する最大のApiDataの数を設定します。
+         * @param maxRecords 最大のApiDataの数
+         * @return
+         */
+        public FlushPolicyBuilder setMaxRecords(int maxRecords) {
+            this.maxRecords = maxRecords;
+            return this;
+        }
+
+        /**
+         * 1回に送信するApiDataの最大の合計サイズを設定します。
+         * 送信先が413を返した場合、送信クラスはこの値より小さいサイズで送信するように調整します。
+         * @param maxBytes 最大の合計サイズ(バイト)
+         * @return
+         */
+        public FlushPolicyBuilder setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * 送信待ちのApiDataをまとめるために待機する最大の時間を設定します。
+         * @param linger 待機する最大の時間
+         * @return
+         */
+        public FlushPolicyBuilder setLinger(Duration linger) {
+            this.linger = linger;
+            return this;
+        }
+
+        /**
+         * FlushPolicyを生成します
+         *
+         * @return FlushPolicy
+         */
+        public FlushPolicy build() {
+            return new FlushPolicy(this.maxRecords, this.maxBytes, this.linger);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package logbook.kcvdb.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+/**
+ * gzip圧縮された送信データの body です<br>
+ * 送信データは書き込み時に構成され、出力ストリームへ直接書き込まれます<br>
+ * 再送信のために2回目の書き込みが行われた場合に限り、構成した送信データを保持して以降の書き込みに再利用します
+ *
+ */
+class GzipBody extends AbstractContentBody {
+
+    /** APIデータ */
+    private final List<ApiData> datas;
+
+    /** リクエストボディから秘匿すべきパラメータを取り除くRedactor */
+    private final Redactor redactor;
+
+    /** 圧縮レベルと圧縮方式 */
+    private final Compression compression;
+
+    /** 並列に圧縮する設定 */
+    private final ParallelCompression parallel;
+
+    /** 計測値 */
+    private final SenderMetrics metrics;
+
+    /** 書き込みを直列化するロック(送信先への書き込みを待つ間に仮想スレッドのキャリアを占有しないようにsynchronizedを使用しない) */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** 初回に書き込んだ送信データのサイズ(再送信用のバッファの初期サイズに使用する) */
+    private int written;
+
+    /** 書き込み回数 */
+    private int writeCount;
+
+    /** 再送信用に保持する送信データ(toByteArrayで複製せずにバッファから直接書き込む) */
+    private ByteArrayOutputStream cache;
+
+    /**
+     * gzip圧縮された送信データの body
+     *
+     * @param datas APIデータ
+     * @param redactor リクエストボディから秘匿すべきパラメータを取り除くRedactor
+     * @param compression 圧縮レベルと圧縮方式
+     * @param parallel 並列に圧縮する設定、並列に圧縮しない場合null
+     * @param metrics 構成にかかった時間と圧縮率を記録する計測値
+     */
+    GzipBody(List<ApiData> datas, Redactor redactor, Compression compression, ParallelCompression parallel,
+            SenderMetrics metrics) {
+        super(ContentType.DEFAULT_BINARY);
+        this.datas = datas;
+        this.redactor = redactor;
+        this.compression = compression;
+        this.parallel = parallel;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String getFilename() {
+        return null;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        this.lock.lock();
+        try {
+            if (this.writeCount++ == 0) {
+                // 初回は構成しながら直接書き込む(構成にかかった時間には送信先への書き込みを含む)
+                CountingOutputStream counter = new CountingOutputStream(out);
+                long start = System.nanoTime();
+                long uncompressed = Composer.writeBody(this.datas, this.redactor, this.compression, this.parallel,
+                        counter);
+                this.written = counter.count;
+                this.metrics.composed(System.nanoTime() - start, uncompressed, counter.count);
+            } else {
+                if (this.cache == null) {
+                    // 初回のサイズで確保し、バッファの拡張による複製を避ける
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(this.written, 32));
+                    Composer.writeBody(this.datas, this.redactor, this.compression, this.parallel, buffer);
+                    this.cache = buffer;
+                }
+                this.cache.writeTo(out);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public String getTransferEncoding() {
+        return MIME.ENC_BINARY;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * 書き込んだバイト数を数える出力ストリーム
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private int count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+    }
+}
@@ -1,17 +1,33 @@
 package logbook.kcvdb.client;
 
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 
 public class GzipSender extends AbstractSender {
 
+    /**
+     * このインスタンス専用の接続プールを使用して送信します
+     */
+    public GzipSender() {
+        super();
+    }
+
+    /**
+     * 他のインスタンスと共有する接続プールを使用して送信します
+     *
+     * @param pool 接続プール
+     */
+    public GzipSender(ConnectionPool pool) {
+        super(pool);
+    }
+
     @Override
     protected String uri() {
         return "https://kancollevdataapi.azurewebsites.net/api/send/gzip";
@@ -19,20 +35,37 @@ public class GzipSender extends AbstractSender {
 
     @Override
     protected Optional<HttpEntity> httpEntity() {
-        if (!this.queue.isEmpty()) {
-            List<ApiData> datas = new ArrayList<>();
-            ApiData data;
-            while ((data = this.queue.poll()) != null) {
-                datas.add(data);
-            }
+        return this.httpEntity(this.sessionId, this.drain());
+    }
+
+    @Override
+    protected Optional<HttpEntity> httpEntity(UUID sessionId, List<ApiData> datas) {
+        if (!datas.isEmpty()) {
             HttpEntity entry = MultipartEntityBuilder.create()
-                    .addTextBody("metadata", Composer.composeMetaData(this.sessionId, this.agent),
+                    .addTextBody("metadata", Composer.composeMetaData(sessionId, this.agent),
                             ContentType.create("text/plain", StandardCharsets.UTF_8))
-                    .addBinaryBody("body", Composer.composeBody(datas))
+                    .addPart("body", new GzipBody(datas, this.redactor, this.compression, this.parallelCompression,
+                            this.metrics))
                     .setBoundary(UUID.randomUUID().toString())
                     .build();
-            return Optional.of(entry);
+            return Optional.of(new RepeatableEntity(entry));
         }
         return Optional.empty();
     }
+
+    /**
+     * 長さが不明なためチャンク形式で送信されるマルチパートを再送信可能として扱います<br>
+     * body は{@link GzipBody}により何度でも書き込むことが出来ます
+     */
+    private static class RepeatableEntity extends HttpEntityWrapper {
+
+        RepeatableEntity(HttpEntity entity) {
+            super(entity);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+    }
 }
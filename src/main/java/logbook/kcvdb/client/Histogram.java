@@ -0,0 +1,109 @@
+package logbook.kcvdb.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 値の分布を2の累乗ごとの区間で数えるヒストグラムです<br>
+ * 記録はロックを使用せず、パーセンタイルは値が含まれる区間の上限(最大値を超えない)で近似します
+ *
+ */
+public final class Histogram {
+
+    /** 区間の数(0と、[2^(n-1), 2^n)の63区間) */
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * 値を記録します。負の値は0として記録します
+     *
+     * @param value 値
+     */
+    public void record(long value) {
+        long v = Math.max(value, 0);
+        this.buckets.incrementAndGet(bucket(v));
+        this.count.increment();
+        this.sum.add(v);
+        this.max.accumulate(v);
+    }
+
+    /**
+     * 記録した値の数を取得します
+     *
+     * @return 記録した値の数
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * 記録した値の合計を取得します
+     *
+     * @return 記録した値の合計
+     */
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * 記録した値の最大値を取得します
+     *
+     * @return 記録した値の最大値、記録していない場合0
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * 記録した値の平均を取得します
+     *
+     * @return 記録した値の平均、記録していない場合0
+     */
+    public double getMean() {
+        long count = this.getCount();
+        return count == 0 ? 0 : (double) this.getSum() / count;
+    }
+
+    /**
+     * 記録した値のパーセンタイルを近似します
+     *
+     * @param percentile パーセンタイル(0以上1以下)
+     * @return 値が含まれる区間の上限と最大値の小さい方、記録していない場合0
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(percentile, 0), 1) * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upper(i), this.getMax());
+            }
+        }
+        return this.getMax();
+    }
+
+    private static int bucket(long value) {
+        return value == 0 ? 0 : Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(value));
+    }
+
+    private static long upper(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
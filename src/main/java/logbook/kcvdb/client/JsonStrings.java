@@ -0,0 +1,77 @@
+package logbook.kcvdb.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * UTF-8のバイト列をJSONの文字列としてエスケープしながら書き込みます<br>
+ * エスケープの規則は javax.json の JsonGenerator と同じです。UTF-8のマルチバイト文字はエスケープ対象のASCII文字を含まないため、
+ * デコードせずにバイト単位でエスケープできます
+ *
+ */
+final class JsonStrings {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /** エスケープ後の表現(エスケープしないバイトはnull) */
+    private static final byte[][] ESCAPES = new byte[128][];
+
+    static {
+        for (int i = 0; i < 0x20; i++) {
+            ESCAPES[i] = new byte[] { '\\', 'u', '0', '0', HEX[i >> 4], HEX[i & 0xf] };
+        }
+        ESCAPES['\b'] = new byte[] { '\\', 'b' };
+        ESCAPES['\t'] = new byte[] { '\\', 't' };
+        ESCAPES['\n'] = new byte[] { '\\', 'n' };
+        ESCAPES['\f'] = new byte[] { '\\', 'f' };
+        ESCAPES['\r'] = new byte[] { '\\', 'r' };
+        ESCAPES['"'] = new byte[] { '\\', '"' };
+        ESCAPES['\\'] = new byte[] { '\\', '\\' };
+    }
+
+    private JsonStrings() {
+    }
+
+    /**
+     * 文字列を引用符で囲んだJSONの文字列として書き込みます
+     *
+     * @param out 出力ストリーム
+     * @param value 文字列
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    static void write(OutputStream out, String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.write('"');
+        writeEscaped(out, utf8, 0, utf8.length);
+        out.write('"');
+    }
+
+    /**
+     * UTF-8のバイト列をエスケープして書き込みます。引用符は書き込みません
+     *
+     * @param out 出力ストリーム
+     * @param utf8 UTF-8のバイト列
+     * @param off 開始位置
+     * @param len バイト数
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    static void writeEscaped(OutputStream out, byte[] utf8, int off, int len) throws IOException {
+        int end = off + len;
+        int copied = off;
+        for (int i = off; i < end; i++) {
+            int b = utf8[i];
+            // マルチバイト文字のバイトは負数になる
+            if (b >= 0 && ESCAPES[b] != null) {
+                if (copied < i) {
+                    out.write(utf8, copied, i - copied);
+                }
+                out.write(ESCAPES[b]);
+                copied = i + 1;
+            }
+        }
+        if (copied < end) {
+            out.write(utf8, copied, end - copied);
+        }
+    }
+}
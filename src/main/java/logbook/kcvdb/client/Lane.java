@@ -0,0 +1,279 @@
+package logbook.kcvdb.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * APIごとに送信待ちキューと送信の条件を分ける優先度付きのレーンです<br>
+ * ApiDataの{@code requestUri}のパスがレーンのパスと一致した場合、送信クラスの送信待ちキューではなくレーンの送信待ちキューに追加されます。
+ * パスの照合は{@link ApiFilter}と同じく、完全一致を前方一致より、長い前方一致を短い前方一致より優先します<br>
+ * バッチは優先度の高いレーンから順に送信する条件を満たしたApiDataで構成され、優先度が0より大きいレーンは送信クラスの送信待ちキューより先に、
+ * 0以下のレーンは後に取り出されます。1回に送信する件数とサイズの上限は送信クラスの{@link AbstractSender#flushPolicy}に従います<br>
+ * レーンは送信待ちの状態を持つため、1つの送信クラスでのみ使用できます
+ *
+ * <pre>
+ * sender.setLanes(
+ *         Lane.createBuilder()
+ *                 .setName("battle")
+ *                 .addPath("/kcsapi/api_req_sortie/*")
+ *                 .addPath("/kcsapi/api_req_battle_midnight/*")
+ *                 .setPriority(10)
+ *                 .setImmediate(true)
+ *                 .build(),
+ *         Lane.createBuilder()
+ *                 .setName("master")
+ *                 .addPath("/kcsapi/api_start2/*")
+ *                 .setPriority(-10)
+ *                 .setFlushPolicy(FlushPolicy.createBuilder().setLinger(Duration.ofSeconds(30)).build())
+ *                 .build());
+ * </pre>
+ *
+ */
+public final class Lane {
+
+    /** レーンの名前 */
+    private final String name;
+
+    /** APIのパス(末尾が*の場合は前方一致) */
+    private final List<String> paths;
+
+    /** 優先度 */
+    private final int priority;
+
+    /** 送信の条件 */
+    private final FlushPolicy flushPolicy;
+
+    /** 送信待ちキュー */
+    private final SendQueue queue;
+
+    /** 追加されたApiDataを直ちに送信するか */
+    private final boolean immediate;
+
+    /** セッションを再生成した時に送信待ちキューのApiDataを残すか */
+    private final boolean retainOnRegenerate;
+
+    /** 最も古い送信待ちのApiDataを追加した時刻(ナノ秒) */
+    final AtomicLong firstPending = new AtomicLong(AbstractSender.NO_PENDING);
+
+    private Lane(String name, List<String> paths, int priority, FlushPolicy flushPolicy, SendQueue queue,
+            boolean immediate, boolean retainOnRegenerate) {
+        this.name = Objects.requireNonNull(name, "レーンの名前");
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("APIのパスを1つ以上追加する必要があります");
+        }
+        this.paths = Collections.unmodifiableList(new ArrayList<>(paths));
+        this.priority = priority;
+        this.flushPolicy = Objects.requireNonNull(flushPolicy, "送信の条件");
+        this.queue = Objects.requireNonNull(queue, "送信待ちキュー");
+        this.immediate = immediate;
+        this.retainOnRegenerate = retainOnRegenerate;
+    }
+
+    /**
+     * レーンの名前を取得します
+     *
+     * @return レーンの名前
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * レーンに追加するAPIのパスを取得します
+     *
+     * @return APIのパス(末尾が*の場合は前方一致)
+     */
+    public List<String> getPaths() {
+        return this.paths;
+    }
+
+    /**
+     * 優先度を取得します
+     *
+     * @return 優先度
+     */
+    public int getPriority() {
+        return this.priority;
+    }
+
+    /**
+     * 送信の条件を取得します
+     *
+     * @return 送信の条件
+     */
+    public FlushPolicy getFlushPolicy() {
+        return this.flushPolicy;
+    }
+
+    /**
+     * 送信待ちキューを取得します
+     *
+     * @return 送信待ちキュー
+     */
+    public SendQueue getQueue() {
+        return this.queue;
+    }
+
+    /**
+     * 追加されたApiDataを{@link FlushPolicy#getLinger()}を待たずに直ちに送信するかを取得します
+     *
+     * @return 直ちに送信する場合true
+     */
+    public boolean isImmediate() {
+        return this.immediate;
+    }
+
+    /**
+     * セッションを再生成した時に送信待ちキューのApiDataを残すかを取得します
+     *
+     * @return 残す場合true
+     */
+    public boolean isRetainOnRegenerate() {
+        return this.retainOnRegenerate;
+    }
+
+    /**
+     * 送信待ちのApiDataが送信する条件を満たしているか
+     *
+     * @param now 現在時刻(ナノ秒)
+     * @return 直ちに送信するレーンか、件数又はサイズが上限に達しているか、最も古いApiDataが待機する時間を過ぎている場合true
+     */
+    boolean isDue(long now) {
+        if (this.queue.isEmpty()) {
+            return false;
+        }
+        if (this.immediate || this.isFull()) {
+            return true;
+        }
+        long first = this.firstPending.get();
+        return first == AbstractSender.NO_PENDING || now - first >= this.flushPolicy.getLinger().toNanos();
+    }
+
+    /**
+     * 送信待ちのApiDataが件数又はサイズの上限に達しているか
+     *
+     * @return 上限に達している場合true
+     */
+    boolean isFull() {
+        return this.queue.size() >= this.flushPolicy.getMaxRecords()
+                || this.queue.getBytes() >= this.flushPolicy.getMaxBytes();
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+    /**
+     * LaneBuilder を作成します
+     * @return LaneBuilder
+     */
+    public static LaneBuilder createBuilder() {
+        return new LaneBuilder();
+    }
+
+    public static class LaneBuilder {
+
+        private String name;
+
+        private final List<String> paths = new ArrayList<>();
+
+        private int priority;
+
+        private FlushPolicy flushPolicy = FlushPolicy.createBuilder().build();
+
+        private SendQueue queue;
+
+        private boolean immediate;
+
+        private boolean retainOnRegenerate;
+
+        /**
+         * レーンの名前を設定します。
+         * @param name レーンの名前
+         * @return
+         */
+        public LaneBuilder setName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * レーンに追加するAPIのパスを追加します。
+         * @param path APIのパス(末尾が*の場合は前方一致)
+         * @return
+         */
+        public LaneBuilder addPath(String path) {
+            this.paths.add(Objects.requireNonNull(path, "APIのパス"));
+            return this;
+        }
+
+        /**
+         * 優先度を設定します。既定値は0です。
+         * 値が大きいレーンから順に取り出され、0より大きいレーンは送信クラスの送信待ちキューより先に取り出されます。
+         * @param priority 優先度
+         * @return
+         */
+        public LaneBuilder setPriority(int priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * 送信待ちのApiDataをまとめる時間と、直ちに送信する件数とサイズの上限を設定します。
+         * 既定値は{@link FlushPolicy}の既定値です。
+         * @param flushPolicy 送信の条件
+         * @return
+         */
+        public LaneBuilder setFlushPolicy(FlushPolicy flushPolicy) {
+            this.flushPolicy = flushPolicy;
+            return this;
+        }
+
+        /**
+         * レーン専用の送信待ちキューを設定します。容量と容量を超えた場合の動作はレーンごとに設定できます。
+         * 設定しない場合は既定の設定で作成します。
+         * @param queue 送信待ちキュー
+         * @return
+         */
+        public LaneBuilder setQueue(SendQueue queue) {
+            this.queue = queue;
+            return this;
+        }
+
+        /**
+         * 追加されたApiDataを待機せずに直ちに送信するかを設定します。既定値はfalseです。
+         * @param immediate 直ちに送信する場合true
+         * @return
+         */
+        public LaneBuilder setImmediate(boolean immediate) {
+            this.immediate = immediate;
+            return this;
+        }
+
+        /**
+         * セッションを再生成した時に送信待ちキューのApiDataを残し、新しいセッションで送信するかを設定します。
+         * 既定値はfalseで、送信クラスの送信待ちキューと同じく破棄します。
+         * @param retainOnRegenerate 残す場合true
+         * @return
+         */
+        public LaneBuilder setRetainOnRegenerate(boolean retainOnRegenerate) {
+            this.retainOnRegenerate = retainOnRegenerate;
+            return this;
+        }
+
+        /**
+         * Laneを生成します
+         *
+         * @return Lane
+         */
+        public Lane build() {
+            SendQueue queue = this.queue != null ? this.queue : SendQueue.createBuilder().build();
+            return new Lane(this.name, this.paths, this.priority, this.flushPolicy, queue, this.immediate,
+                    this.retainOnRegenerate);
+        }
+    }
+}
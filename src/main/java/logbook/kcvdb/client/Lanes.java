@@ -0,0 +1,118 @@
+package logbook.kcvdb.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ApiDataの{@code requestUri}のパスからレーンを選択します<br>
+ * パスの照合は{@link ApiFilter}と同じく、完全一致を{@link HashMap}で、前方一致を長い順に照合します
+ *
+ */
+final class Lanes {
+
+    /** レーンを使用しない場合の設定 */
+    static final Lanes NONE = new Lanes(new Lane[0]);
+
+    /** 優先度の高い順のレーン */
+    private final Lane[] lanes;
+
+    /** 優先度が0より大きいレーンの数 */
+    private final int high;
+
+    /** 完全一致のパスとレーン */
+    private final Map<String, Lane> exact = new HashMap<>();
+
+    /** 前方一致のパス(長い順) */
+    private final String[] prefixes;
+
+    /** 前方一致のパスに対応するレーン */
+    private final Lane[] prefixLanes;
+
+    Lanes(Lane[] lanes) {
+        Lane[] sorted = lanes.clone();
+        Map<Lane, Boolean> distinct = new IdentityHashMap<>();
+        for (Lane lane : sorted) {
+            if (distinct.put(lane, Boolean.TRUE) != null) {
+                throw new IllegalArgumentException("同じレーンを複数回設定することはできません");
+            }
+        }
+        // 安定ソートのため優先度が同じ場合は設定した順
+        Arrays.sort(sorted, Comparator.comparingInt(Lane::getPriority).reversed());
+        int high = 0;
+        List<String> prefixes = new ArrayList<>();
+        List<Lane> prefixLanes = new ArrayList<>();
+        for (Lane lane : sorted) {
+            if (lane.getPriority() > 0) {
+                high++;
+            }
+            for (String path : lane.getPaths()) {
+                if (path.endsWith("*")) {
+                    prefixes.add(path.substring(0, path.length() - 1));
+                    prefixLanes.add(lane);
+                } else {
+                    this.exact.putIfAbsent(path, lane);
+                }
+            }
+        }
+        // 同じ長さの場合は優先度の高いレーンを優先する
+        Integer[] order = new Integer[prefixes.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt((Integer i) -> prefixes.get(i).length()).reversed());
+        this.prefixes = new String[order.length];
+        this.prefixLanes = new Lane[order.length];
+        for (int i = 0; i < order.length; i++) {
+            this.prefixes[i] = prefixes.get(order[i]);
+            this.prefixLanes[i] = prefixLanes.get(order[i]);
+        }
+        this.lanes = sorted;
+        this.high = high;
+    }
+
+    /**
+     * ApiDataを追加するレーンを選択します
+     *
+     * @param uri requestUri
+     * @return レーン、どのレーンとも一致しない場合null
+     */
+    Lane select(String uri) {
+        if (this.lanes.length == 0) {
+            return null;
+        }
+        String path = ApiFilter.path(uri);
+        Lane lane = this.exact.get(path);
+        if (lane != null) {
+            return lane;
+        }
+        for (int i = 0; i < this.prefixes.length; i++) {
+            if (path.startsWith(this.prefixes[i])) {
+                return this.prefixLanes[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 優先度の高い順のレーンを取得します
+     *
+     * @return レーン
+     */
+    Lane[] lanes() {
+        return this.lanes;
+    }
+
+    /**
+     * 優先度が0より大きいレーンの数を取得します
+     *
+     * @return 送信クラスの送信待ちキューより先に取り出すレーンの数
+     */
+    int high() {
+        return this.high;
+    }
+}
@@ -0,0 +1,153 @@
+package logbook.kcvdb.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 送信待ち、送信データの構成中、送信中のApiDataが使用するメモリの総量を制限します<br>
+ * 1つのインスタンスを複数の送信クラスインスタンスで共有することで、プロセス全体のメモリ使用量を制限できます<br>
+ * 確保と解放はロックを使用せず、ロックは解放を待っているスレッドがある場合の通知にのみ使用します
+ *
+ */
+public class MemoryGovernor {
+
+    /** 使用できるメモリの総量 */
+    private final long maxBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** メモリが解放された時に通知される */
+    private final Condition released = this.lock.newCondition();
+
+    /** 使用中のメモリ */
+    private final AtomicLong used = new AtomicLong();
+
+    /** メモリが解放された回数 */
+    private final AtomicLong releases = new AtomicLong();
+
+    /** メモリの解放を待っているスレッドの数 */
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    /**
+     * 使用できるメモリの総量を指定してMemoryGovernorを生成します
+     *
+     * @param maxBytes 使用できるメモリの総量(バイト)
+     */
+    public MemoryGovernor(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("使用できるメモリの総量は1以上である必要があります");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * メモリの使用量を制限しないMemoryGovernorを生成します
+     *
+     * @return MemoryGovernor
+     */
+    public static MemoryGovernor unlimited() {
+        return new MemoryGovernor(Long.MAX_VALUE);
+    }
+
+    /**
+     * 使用できるメモリの総量を超えない場合に限りメモリを確保します
+     *
+     * @param bytes 確保するメモリ(バイト)
+     * @return 確保できた場合true
+     */
+    public boolean tryAcquire(long bytes) {
+        while (true) {
+            long used = this.used.get();
+            if (used + bytes > this.maxBytes && used > 0) {
+                return false;
+            }
+            if (this.used.compareAndSet(used, used + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 使用できるメモリの総量に関係なくメモリを確保します<br>
+     * 既にメモリ上にあるApiDataの送信など、確保を待つことが出来ない場合に使用します
+     *
+     * @param bytes 確保するメモリ(バイト)
+     */
+    public void reserve(long bytes) {
+        this.used.addAndGet(bytes);
+    }
+
+    /**
+     * メモリを解放します
+     *
+     * @param bytes 解放するメモリ(バイト)
+     */
+    public void release(long bytes) {
+        if (bytes == 0) {
+            return;
+        }
+        this.used.getAndUpdate(used -> Math.max(0, used - bytes));
+        this.releases.incrementAndGet();
+        if (this.waiters.get() > 0) {
+            this.lock.lock();
+            try {
+                this.released.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 使用中のメモリを取得します
+     *
+     * @return 使用中のメモリ(バイト)
+     */
+    public long getUsed() {
+        return this.used.get();
+    }
+
+    /**
+     * 使用できるメモリの総量を取得します
+     *
+     * @return 使用できるメモリの総量(バイト)
+     */
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    /**
+     * メモリが解放された回数を取得します<br>
+     * {@link #awaitRelease(long, long)}に渡し、取得した後の解放を待つために使用します
+     *
+     * @return メモリが解放された回数
+     */
+    long releases() {
+        return this.releases.get();
+    }
+
+    /**
+     * メモリが解放されるまで待機します
+     *
+     * @param seen {@link #releases()}で取得したメモリが解放された回数
+     * @param nanos 最大の待機時間(ナノ秒)
+     * @return 待機時間の残り(ナノ秒)
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    long awaitRelease(long seen, long nanos) throws InterruptedException {
+        this.lock.lock();
+        // 待っていることを示してから解放の回数を確認するため、直前の解放の通知を見逃さない
+        this.waiters.incrementAndGet();
+        try {
+            while (this.releases.get() == seen && nanos > 0) {
+                nanos = this.released.awaitNanos(nanos);
+            }
+            return nanos;
+        } finally {
+            this.waiters.decrementAndGet();
+            this.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package logbook.kcvdb.client;
+
+/**
+ * 送信クラスの計測値を外部の監視システムへ出力します<br>
+ * {@link AbstractSender#addExporter(MetricsExporter)}で登録すると、送信用のスレッドから{@link AbstractSender#exportInterval}ごとと
+ * {@link AbstractSender#close()}の時に呼び出されます。ブロックしないように実装してください
+ *
+ */
+@FunctionalInterface
+public interface MetricsExporter {
+
+    /**
+     * 計測値を出力します
+     *
+     * @param metrics 計測値
+     */
+    void export(SenderMetrics metrics);
+}
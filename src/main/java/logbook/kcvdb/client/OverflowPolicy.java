@@ -0,0 +1,20 @@
+package logbook.kcvdb.client;
+
+/**
+ * 送信待ちキューの容量を超えてApiDataを追加しようとした場合の動作
+ *
+ */
+public enum OverflowPolicy {
+
+    /** 容量が空くまで待機し、待機時間を過ぎた場合は追加しない */
+    BLOCK,
+
+    /** 追加しようとしたApiDataを破棄する */
+    DROP_NEWEST,
+
+    /** 容量が空くまで最も古いApiDataから破棄する */
+    DROP_OLDEST,
+
+    /** 追加しようとしたApiDataを破棄し、呼び出し元に{@link IllegalStateException}をスローする */
+    REJECT;
+}
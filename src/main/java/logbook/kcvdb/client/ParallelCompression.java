@@ -0,0 +1,114 @@
+package logbook.kcvdb.client;
+
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 大きな送信データを分割し、複数のスレッドで並列に圧縮する設定です<br>
+ * 分割したデータはそれぞれ独立したgzipメンバーとして圧縮され、連結して1つのgzipストリームとして送信されます<br>
+ * 送信データの推定サイズが{@link #getThreshold()}未満の場合は分割せず、呼び出し元のスレッドで圧縮します
+ *
+ */
+public class ParallelCompression {
+
+    /** 並列に圧縮する送信データの最小の推定サイズ */
+    private final long threshold;
+
+    /** 1つのgzipメンバーに含める送信データの推定サイズ */
+    private final long chunkSize;
+
+    /** 圧縮に使用するスレッドプール */
+    private final ForkJoinPool pool;
+
+    private ParallelCompression(long threshold, long chunkSize, ForkJoinPool pool) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("gzipメンバーの推定サイズは1以上である必要があります");
+        }
+        this.threshold = threshold;
+        this.chunkSize = chunkSize;
+        this.pool = Objects.requireNonNull(pool, "スレッドプール");
+    }
+
+    /**
+     * 並列に圧縮する送信データの最小の推定サイズを取得します
+     *
+     * @return 推定サイズ(バイト)
+     */
+    public long getThreshold() {
+        return this.threshold;
+    }
+
+    /**
+     * 1つのgzipメンバーに含める送信データの推定サイズを取得します
+     *
+     * @return 推定サイズ(バイト)
+     */
+    public long getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * 圧縮に使用するスレッドプールを取得します
+     *
+     * @return スレッドプール
+     */
+    public ForkJoinPool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * ParallelCompressionBuilder を作成します
+     * @return ParallelCompressionBuilder
+     */
+    public static ParallelCompressionBuilder createBuilder() {
+        return new ParallelCompressionBuilder();
+    }
+
+    public static class ParallelCompressionBuilder {
+
+        private long threshold = 4 * 1024 * 1024;
+
+        private long chunkSize = 1024 * 1024;
+
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        /**
+         * 並列に圧縮する送信データの最小の推定サイズを設定します。
+         * @param threshold 推定サイズ(バイト)
+         * @return
+         */
+        public ParallelCompressionBuilder setThreshold(long threshold) {
+            this.threshold = threshold;
+            return this;
+        }
+
+        /**
+         * 1つのgzipメンバーに含める送信データの推定サイズを設定します。
+         * @param chunkSize 推定サイズ(バイト)
+         * @return
+         */
+        public ParallelCompressionBuilder setChunkSize(long chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * 圧縮に使用するスレッドプールを設定します。既定では共通プールを使用します。
+         * @param pool スレッドプール
+         * @return
+         */
+        public ParallelCompressionBuilder setPool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * ParallelCompressionを生成します
+         *
+         * @return ParallelCompression
+         */
+        public ParallelCompression build() {
+            return new ParallelCompression(this.threshold, this.chunkSize, this.pool);
+        }
+    }
+}
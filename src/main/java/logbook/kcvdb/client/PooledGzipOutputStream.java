@@ -0,0 +1,148 @@
+package logbook.kcvdb.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * {@link Compression}から借りたDeflaterとバッファでgzip形式に圧縮する出力ストリームです<br>
+ * {@link java.util.zip.GZIPOutputStream}と同じ形式で書き込みますが、Deflaterとバッファを生成しません<br>
+ * 入力バッファより小さな書き込みはまとめてからDeflaterに渡します<br>
+ * close()でgzipトレーラーを書き込みDeflaterを返却しますが、下位の出力ストリームは閉じません
+ *
+ */
+class PooledGzipOutputStream extends OutputStream {
+
+    /** gzipヘッダー(圧縮方式deflate、フラグ無し、更新時刻無し、OS不明) */
+    private static final byte[] HEADER = {
+            (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final OutputStream out;
+
+    private final Compression compression;
+
+    private Compression.Context context;
+
+    /** 圧縮前のバイト数 */
+    private long total;
+
+    /** 入力バッファに溜まっているバイト数 */
+    private int count;
+
+    PooledGzipOutputStream(OutputStream out, Compression compression) throws IOException {
+        this.out = out;
+        this.compression = compression;
+        this.context = compression.acquire();
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        Compression.Context context = this.context();
+        if (this.count == context.input.length) {
+            this.flushInput(context);
+        }
+        context.input[this.count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Compression.Context context = this.context();
+        if (len == 0) {
+            return;
+        }
+        if (this.count + len <= context.input.length) {
+            System.arraycopy(b, off, context.input, this.count, len);
+            this.count += len;
+            return;
+        }
+        this.flushInput(context);
+        if (len < context.input.length) {
+            System.arraycopy(b, off, context.input, 0, len);
+            this.count = len;
+            return;
+        }
+        this.compress(context, b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        Compression.Context context = this.context;
+        if (context != null) {
+            this.flushInput(context);
+        }
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        Compression.Context context = this.context;
+        if (context == null) {
+            return;
+        }
+        try {
+            this.flushInput(context);
+            Deflater deflater = context.deflater;
+            deflater.finish();
+            while (!deflater.finished()) {
+                this.deflate(context);
+            }
+            this.writeInt((int) context.crc.getValue());
+            this.writeInt((int) this.total);
+            this.out.flush();
+        } finally {
+            this.context = null;
+            this.compression.release(context);
+        }
+    }
+
+    /**
+     * 書き込まれた圧縮前のバイト数を取得します
+     *
+     * @return 圧縮前のバイト数
+     */
+    long getTotal() {
+        return this.total + this.count;
+    }
+
+    private void flushInput(Compression.Context context) throws IOException {
+        if (this.count > 0) {
+            int len = this.count;
+            this.count = 0;
+            this.compress(context, context.input, 0, len);
+        }
+    }
+
+    private void compress(Compression.Context context, byte[] b, int off, int len) throws IOException {
+        context.crc.update(b, off, len);
+        this.total += len;
+        Deflater deflater = context.deflater;
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            this.deflate(context);
+        }
+    }
+
+    private void deflate(Compression.Context context) throws IOException {
+        int len = context.deflater.deflate(context.buffer, 0, context.buffer.length);
+        if (len > 0) {
+            this.out.write(context.buffer, 0, len);
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        byte[] buffer = this.context.buffer;
+        buffer[0] = (byte) value;
+        buffer[1] = (byte) (value >> 8);
+        buffer[2] = (byte) (value >> 16);
+        buffer[3] = (byte) (value >> 24);
+        this.out.write(buffer, 0, 4);
+    }
+
+    private Compression.Context context() throws IOException {
+        if (this.context == null) {
+            throw new IOException("ストリームは閉じられています");
+        }
+        return this.context;
+    }
+}
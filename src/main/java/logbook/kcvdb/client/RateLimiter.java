@@ -0,0 +1,269 @@
+package logbook.kcvdb.client;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 送信の頻度を制限するトークンバケットです<br>
+ * リクエスト数と送信データのサイズ(推定値)それぞれに1秒あたりの量とバースト容量を設定できます。
+ * 時刻は{@link System#nanoTime()}で計るため、システム時刻の変更の影響を受けません<br>
+ * 送信先が429を返すか Retry-After ヘッダーを返した場合は、その時間だけ送信を止め、リクエスト数の補充を一時的に半分に落とします。
+ * 落とした補充の速さは送信に成功するたびに少しずつ戻ります<br>
+ * {@link #tryAcquire()}は待機せず、送信できるまでの時間を返すため、呼び出し元はタイマーで再試行できます
+ *
+ */
+public final class RateLimiter {
+
+    /** 送信先に制限された場合に補充の速さに掛ける最小の係数 */
+    private static final double MIN_FACTOR = 1.0 / 16;
+
+    /** 送信に成功するたびに補充の速さの係数に加える値 */
+    private static final double RECOVERY = 1.0 / 16;
+
+    /** 1秒あたりに補充するリクエスト数(0の場合制限しない) */
+    private final double requestsPerSecond;
+
+    /** 貯めておけるリクエスト数 */
+    private final double requestBurst;
+
+    /** 1秒あたりに補充するバイト数(0の場合制限しない) */
+    private final double bytesPerSecond;
+
+    /** 貯めておけるバイト数 */
+    private final double byteBurst;
+
+    /** 残りのリクエスト数 */
+    private double requests;
+
+    /** 残りのバイト数(送信済みのサイズを差し引くため負になることがある) */
+    private double bytes;
+
+    /** リクエスト数の補充の速さに掛ける係数 */
+    private double factor = 1;
+
+    /** 最後に補充した時刻(ナノ秒) */
+    private long refilled;
+
+    /** 送信先の指示で送信を止めている期限(ナノ秒) */
+    private long pausedUntil;
+
+    /** 送信を止めているか */
+    private boolean paused;
+
+    private RateLimiter(double requestsPerSecond, double requestBurst, double bytesPerSecond, double byteBurst) {
+        if (requestsPerSecond < 0 || bytesPerSecond < 0) {
+            throw new IllegalArgumentException("1秒あたりの量は0以上である必要があります");
+        }
+        if (requestBurst < 1 || byteBurst < 1) {
+            throw new IllegalArgumentException("バースト容量は1以上である必要があります");
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        this.requestBurst = requestBurst;
+        this.bytesPerSecond = bytesPerSecond;
+        this.byteBurst = byteBurst;
+        this.requests = requestBurst;
+        this.bytes = byteBurst;
+        this.refilled = System.nanoTime();
+    }
+
+    /**
+     * 送信の頻度を制限しないRateLimiterを作成します<br>
+     * 送信先が429又は Retry-After ヘッダーを返した場合の停止は行います
+     *
+     * @return RateLimiter
+     */
+    public static RateLimiter unlimited() {
+        return createBuilder().build();
+    }
+
+    /**
+     * 指定した間隔に1回だけ送信するRateLimiterを作成します
+     *
+     * @param interval 送信の間隔(0の場合は制限しない)
+     * @return RateLimiter
+     */
+    public static RateLimiter interval(Duration interval) {
+        if (interval.isZero() || interval.isNegative()) {
+            return unlimited();
+        }
+        return createBuilder()
+                .setRequestsPerSecond((double) TimeUnit.SECONDS.toNanos(1) / interval.toNanos())
+                .build();
+    }
+
+    /**
+     * リクエストを1回送信する許可を待機せずに取得します<br>
+     * 取得できない場合は何も消費せず、取得できるようになるまでのおおよその時間を返します
+     *
+     * @return 取得できた場合0、取得できない場合は再試行するまでの時間(ナノ秒)
+     */
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        if (this.paused) {
+            long remaining = this.pausedUntil - now;
+            if (remaining > 0) {
+                return remaining;
+            }
+            this.paused = false;
+        }
+        this.refill(now);
+        long wait = 0;
+        if (this.requestsPerSecond > 0 && this.requests < 1) {
+            wait = nanos(1 - this.requests, this.requestsPerSecond * this.factor);
+        }
+        if (this.bytesPerSecond > 0 && this.bytes < 0) {
+            wait = Math.max(wait, nanos(-this.bytes, this.bytesPerSecond));
+        }
+        if (wait > 0) {
+            return wait;
+        }
+        if (this.requestsPerSecond > 0) {
+            this.requests -= 1;
+        }
+        return 0;
+    }
+
+    /**
+     * リクエストを1回送信する許可を取得できるまで待機します
+     *
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public void acquire() throws InterruptedException {
+        long wait;
+        while ((wait = this.tryAcquire()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * 送信したサイズを差し引きます<br>
+     * サイズは送信した後で差し引くため、残りが負になった場合は補充されるまで次の許可を取得できません
+     *
+     * @param size 送信したサイズ(バイト)
+     */
+    public synchronized void record(long size) {
+        if (this.bytesPerSecond > 0) {
+            this.refill(System.nanoTime());
+            this.bytes -= size;
+        }
+    }
+
+    /**
+     * 送信先に送信を制限されたことを通知します<br>
+     * 指定した時間は許可を取得できなくなり、リクエスト数の補充は半分の速さになります
+     *
+     * @param delay 送信を止める時間(ミリ秒)、送信先が時間を指定しなかった場合は負の値
+     */
+    public synchronized void onThrottled(long delay) {
+        long now = System.nanoTime();
+        this.refill(now);
+        this.factor = Math.max(MIN_FACTOR, this.factor / 2);
+        if (delay > 0) {
+            long until = now + TimeUnit.MILLISECONDS.toNanos(delay);
+            if (!this.paused || until - this.pausedUntil > 0) {
+                this.pausedUntil = until;
+            }
+            this.paused = true;
+        }
+    }
+
+    /**
+     * 送信に成功したことを通知します<br>
+     * {@link #onThrottled(long)}で落としたリクエスト数の補充の速さを少し戻します
+     */
+    public synchronized void onSuccess() {
+        if (this.factor < 1) {
+            this.refill(System.nanoTime());
+            this.factor = Math.min(1, this.factor + RECOVERY);
+        }
+    }
+
+    private void refill(long now) {
+        double seconds = (double) (now - this.refilled) / TimeUnit.SECONDS.toNanos(1);
+        this.refilled = now;
+        if (seconds <= 0) {
+            return;
+        }
+        if (this.requestsPerSecond > 0) {
+            this.requests = Math.min(this.requestBurst,
+                    this.requests + seconds * this.requestsPerSecond * this.factor);
+        }
+        if (this.bytesPerSecond > 0) {
+            this.bytes = Math.min(this.byteBurst, this.bytes + seconds * this.bytesPerSecond);
+        }
+    }
+
+    private static long nanos(double amount, double perSecond) {
+        return Math.max(1, (long) Math.ceil(amount / perSecond * TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    /**
+     * RateLimiterBuilder を作成します
+     * @return RateLimiterBuilder
+     */
+    public static RateLimiterBuilder createBuilder() {
+        return new RateLimiterBuilder();
+    }
+
+    public static class RateLimiterBuilder {
+
+        private double requestsPerSecond;
+
+        private double requestBurst = 1;
+
+        private double bytesPerSecond;
+
+        private double byteBurst = -1;
+
+        /**
+         * 1秒あたりに送信できるリクエスト数を設定します。0の場合は制限しません。
+         * @param requestsPerSecond 1秒あたりのリクエスト数
+         * @return
+         */
+        public RateLimiterBuilder setRequestsPerSecond(double requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+            return this;
+        }
+
+        /**
+         * 続けて送信できるリクエスト数を設定します。既定値は1です。
+         * @param requestBurst バースト容量
+         * @return
+         */
+        public RateLimiterBuilder setRequestBurst(int requestBurst) {
+            this.requestBurst = requestBurst;
+            return this;
+        }
+
+        /**
+         * 1秒あたりに送信できる送信データのサイズを設定します。0の場合は制限しません。
+         * サイズは圧縮前に見積もるため、{@link ApiData}の文字数から推定した値です。
+         * @param bytesPerSecond 1秒あたりのサイズ(バイト)
+         * @return
+         */
+        public RateLimiterBuilder setBytesPerSecond(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * 続けて送信できる送信データのサイズを設定します。既定値は1秒あたりのサイズと同じです。
+         * @param byteBurst バースト容量(バイト)
+         * @return
+         */
+        public RateLimiterBuilder setByteBurst(long byteBurst) {
+            this.byteBurst = byteBurst;
+            return this;
+        }
+
+        /**
+         * RateLimiterを生成します
+         *
+         * @return RateLimiter
+         */
+        public RateLimiter build() {
+            double byteBurst = this.byteBurst >= 0 ? this.byteBurst : Math.max(1, this.bytesPerSecond);
+            return new RateLimiter(this.requestsPerSecond, this.requestBurst, this.bytesPerSecond, byteBurst);
+        }
+    }
+}
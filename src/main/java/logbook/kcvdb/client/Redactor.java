@@ -0,0 +1,230 @@
+package logbook.kcvdb.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntPredicate;
+
+/**
+ * 艦これAPIのリクエストボディから秘匿すべきパラメータを取り除きます<br>
+ * 正規表現 {@code &NAME=VALUE+|NAME=VALUE+&?} ({@code NAME}中の{@code _}は{@code %5F}とも一致する)で
+ * {@link String#replaceAll(String, String)}した場合と同じ結果を、正規表現を使用せず1回の走査で得ます
+ *
+ */
+public final class Redactor {
+
+    /** api_token のみを取り除く既定の設定 */
+    private static final Redactor DEFAULT = createBuilder()
+            .addParameter("api_token", Redactor::isLowerHex)
+            .build();
+
+    /** 取り除くパラメータ */
+    private final Rule[] rules;
+
+    /** パラメータ名の先頭になりうるASCII文字 */
+    private final boolean[] starts = new boolean[128];
+
+    private Redactor(List<Rule> rules) {
+        this.rules = rules.toArray(new Rule[rules.size()]);
+        for (Rule rule : this.rules) {
+            char c = rule.name.charAt(0);
+            if (c < this.starts.length) {
+                this.starts[c] = true;
+            }
+        }
+    }
+
+    /**
+     * api_token のみを取り除く既定の設定を取得します
+     *
+     * @return Redactor
+     */
+    public static Redactor defaults() {
+        return DEFAULT;
+    }
+
+    /**
+     * リクエストボディから秘匿すべきパラメータを取り除きます<br>
+     * 取り除くパラメータが無い場合は引数の文字列をそのまま返します
+     *
+     * @param body リクエストボディ
+     * @return パラメータを取り除いたリクエストボディ
+     */
+    public String redact(String body) {
+        int length = body.length();
+        StringBuilder sb = null;
+        int copied = 0;
+        int i = 0;
+        while (i < length) {
+            char c = body.charAt(i);
+            int end = -1;
+            if (c == '&') {
+                end = this.match(body, i + 1, false);
+            }
+            if (end < 0 && this.isStart(c)) {
+                end = this.match(body, i, true);
+            }
+            if (end < 0) {
+                i++;
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(length);
+            }
+            sb.append(body, copied, i);
+            i = end;
+            copied = end;
+        }
+        if (sb == null) {
+            return body;
+        }
+        return sb.append(body, copied, length).toString();
+    }
+
+    private boolean isStart(char c) {
+        if (c < this.starts.length) {
+            return this.starts[c];
+        }
+        for (Rule rule : this.rules) {
+            if (rule.name.charAt(0) == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * いずれかのパラメータと一致する場合、一致した範囲の終端を返します
+     *
+     * @param body リクエストボディ
+     * @param start 開始位置
+     * @param trailing 後続の&も含めるか
+     * @return 一致した範囲の終端、一致しない場合-1
+     */
+    private int match(String body, int start, boolean trailing) {
+        for (Rule rule : this.rules) {
+            int end = rule.match(body, start);
+            if (end >= 0) {
+                if (trailing && end < body.length() && body.charAt(end) == '&') {
+                    end++;
+                }
+                return end;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isLowerHex(int c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+    }
+
+    /**
+     * RedactorBuilder を作成します
+     * @return RedactorBuilder
+     */
+    public static RedactorBuilder createBuilder() {
+        return new RedactorBuilder();
+    }
+
+    public static class RedactorBuilder {
+
+        private final List<Rule> rules = new ArrayList<>();
+
+        /**
+         * 既定の設定(api_token)を追加します。
+         * @return
+         */
+        public RedactorBuilder addDefaults() {
+            for (Rule rule : DEFAULT.rules) {
+                this.rules.add(rule);
+            }
+            return this;
+        }
+
+        /**
+         * 値が&以外の文字からなる、取り除くパラメータを追加します。
+         * @param name パラメータ名
+         * @return
+         */
+        public RedactorBuilder addParameter(String name) {
+            return this.addParameter(name, c -> c != '&');
+        }
+
+        /**
+         * 取り除くパラメータを追加します。
+         * @param name パラメータ名
+         * @param valueCharacter パラメータの値に含まれる文字を判定する関数
+         * @return
+         */
+        public RedactorBuilder addParameter(String name, IntPredicate valueCharacter) {
+            Objects.requireNonNull(name, "パラメータ名");
+            Objects.requireNonNull(valueCharacter, "パラメータの値に含まれる文字を判定する関数");
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("パラメータ名が空です");
+            }
+            this.rules.add(new Rule(name, valueCharacter));
+            return this;
+        }
+
+        /**
+         * Redactorを生成します
+         *
+         * @return Redactor
+         */
+        public Redactor build() {
+            return new Redactor(this.rules);
+        }
+    }
+
+    /**
+     * 取り除くパラメータ
+     */
+    private static final class Rule {
+
+        /** パラメータ名 */
+        private final String name;
+
+        /** パラメータの値に含まれる文字 */
+        private final IntPredicate valueCharacter;
+
+        Rule(String name, IntPredicate valueCharacter) {
+            this.name = name;
+            this.valueCharacter = valueCharacter;
+        }
+
+        /**
+         * {@code NAME=VALUE+}と一致する場合、一致した範囲の終端を返します
+         *
+         * @param body リクエストボディ
+         * @param start 開始位置
+         * @return 一致した範囲の終端、一致しない場合-1
+         */
+        int match(String body, int start) {
+            int length = body.length();
+            int i = start;
+            for (int j = 0; j < this.name.length(); j++) {
+                if (i >= length) {
+                    return -1;
+                }
+                char expected = this.name.charAt(j);
+                char c = body.charAt(i);
+                if (c == expected) {
+                    i++;
+                } else if (expected == '_' && c == '%' && body.startsWith("5F", i + 1)) {
+                    i += 3;
+                } else {
+                    return -1;
+                }
+            }
+            if (i >= length || body.charAt(i) != '=') {
+                return -1;
+            }
+            i++;
+            int value = i;
+            while (i < length && this.valueCharacter.test(body.charAt(i))) {
+                i++;
+            }
+            return i > value ? i : -1;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package logbook.kcvdb.client;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
+
+/**
+ * 送信に失敗したバッチを再送信するかどうかと、再送信までの待機時間を決定します<br>
+ * 待機時間は試行ごとに指数的に増加し、複数の送信クラスが同時に再送信しないようにランダムに揺らされます
+ *
+ */
+public class RetryPolicy {
+
+    /** 429 Too Many Requests(HttpStatusに定義されていない) */
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /** 1回目の再送信までの待機時間 */
+    private final Duration baseDelay;
+
+    /** 再送信までの最大の待機時間 */
+    private final Duration maxDelay;
+
+    /** 試行ごとに待機時間に乗じる値 */
+    private final double multiplier;
+
+    /** 待機時間を揺らす割合(0.0～1.0) */
+    private final double jitter;
+
+    /** 最大の試行回数(最初の送信を含む) */
+    private final int maxAttempts;
+
+    /** Retry-Afterヘッダーに従って待機する最大の時間 */
+    private final Duration maxRetryAfter;
+
+    private RetryPolicy(Duration baseDelay, Duration maxDelay, double multiplier, double jitter, int maxAttempts,
+            Duration maxRetryAfter) {
+        if (multiplier < 1.0) {
+            throw new IllegalArgumentException("待機時間に乗じる値は1以上である必要があります");
+        }
+        if (jitter < 0.0 || jitter > 1.0) {
+            throw new IllegalArgumentException("待機時間を揺らす割合は0以上1以下である必要があります");
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("最大の試行回数は1以上である必要があります");
+        }
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.maxAttempts = maxAttempts;
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+    /**
+     * HTTPステータスコードを返した送信を再送信するかを判断します<br>
+     * 5xxと429(送信先が混雑している)は再送信し、それ以外の4xxはリクエスト自体に問題があるため再送信しません
+     *
+     * @param statusCode HTTPステータスコード
+     * @return 再送信する場合true
+     */
+    public boolean isRetryable(int statusCode) {
+        return statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR || statusCode == TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * 再送信できる試行回数かを判断します
+     *
+     * @param attempts これまでの試行回数
+     * @return 再送信できる場合true
+     */
+    public boolean canRetry(int attempts) {
+        return attempts < this.maxAttempts;
+    }
+
+    /**
+     * 再送信までの待機時間を取得します<br>
+     * 待機時間は{@code baseDelay * multiplier^(attempts-1)}を{@code maxDelay}で制限し、
+     * その{@code jitter}の割合をランダムに差し引いた値です
+     *
+     * @param attempts これまでの試行回数
+     * @return 待機時間(ミリ秒)
+     */
+    public long delay(int attempts) {
+        double delay = this.baseDelay.toMillis() * Math.pow(this.multiplier, Math.max(0, attempts - 1));
+        long capped = (long) Math.min(delay, this.maxDelay.toMillis());
+        if (this.jitter == 0.0 || capped == 0) {
+            return capped;
+        }
+        long spread = (long) (capped * this.jitter);
+        return capped - ThreadLocalRandom.current().nextLong(spread + 1);
+    }
+
+    /**
+     * Retry-Afterヘッダーの値が指定する待機時間を、Retry-Afterヘッダーに従って待機する最大の時間で制限して取得します<br>
+     * 送信先が{@code maxDelay}より長い待機時間を指定した場合も従いますが、{@code maxRetryAfter}を超えて待機することはありません
+     *
+     * @param value Retry-Afterヘッダーの値
+     * @param now 現在時刻(エポックミリ秒)
+     * @return 待機時間(ミリ秒)、解釈できない場合-1
+     */
+    public long retryAfterDelay(String value, long now) {
+        long delay = parseRetryAfter(value, now);
+        return delay < 0 ? -1 : Math.min(delay, this.maxRetryAfter.toMillis());
+    }
+
+    /**
+     * Retry-Afterヘッダーの値が指定する待機時間を取得します<br>
+     * ミリ秒に換算してlongの範囲を超える秒数は{@link Long#MAX_VALUE}になります
+     *
+     * @param value Retry-Afterヘッダーの値
+     * @param now 現在時刻(エポックミリ秒)
+     * @return 待機時間(ミリ秒)、解釈できない場合-1
+     */
+    static long parseRetryAfter(String value, long now) {
+        value = value.trim();
+        // 負の秒数は待機しない
+        boolean negative = value.startsWith("-");
+        String digits = negative ? value.substring(1) : value;
+        if (!digits.isEmpty() && digits.chars().allMatch(c -> c >= '0' && c <= '9')) {
+            if (negative) {
+                return 0;
+            }
+            try {
+                return Math.multiplyExact(Long.parseLong(digits), 1000L);
+            } catch (NumberFormatException | ArithmeticException e) {
+                return Long.MAX_VALUE;
+            }
+        }
+        Date date = DateUtils.parseDate(value);
+        if (date == null) {
+            return -1;
+        }
+        return Math.max(0, date.getTime() - now);
+    }
+
+    /**
+     * RetryPolicyBuilder を作成します
+     * @return RetryPolicyBuilder
+     */
+    public static RetryPolicyBuilder createBuilder() {
+        return new RetryPolicyBuilder();
+    }
+
+    public static class RetryPolicyBuilder {
+
+        private Duration baseDelay = Duration.ofSeconds(1);
+
+        private Duration maxDelay = Duration.ofSeconds(60);
+
+        private double multiplier = 2.0;
+
+        private double jitter = 0.5;
+
+        private int maxAttempts = 6;
+
+        private Duration maxRetryAfter = Duration.ofMinutes(10);
+
+        /**
+         * 1回目の再送信までの待機時間を設定します。
+         * @param baseDelay 1回目の再送信までの待機時間
+         * @return
+         */
+        public RetryPolicyBuilder setBaseDelay(Duration baseDelay) {
+            this.baseDelay = baseDelay;
+            return this;
+        }
+
+        /**
+         * 再送信までの最大の待機時間を設定します。
+         * @param maxDelay 再送信までの最大の待機時間
+         * @return
+         */
+        public RetryPolicyBuilder setMaxDelay(Duration maxDelay) {
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * 試行ごとに待機時間に乗じる値を設定します。
+         * @param multiplier 試行ごとに待機時間に乗じる値
+         * @return
+         */
+        public RetryPolicyBuilder setMultiplier(double multiplier) {
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * 待機時間を揺らす割合を設定します。0の場合は待機時間を揺らしません。
+         * @param jitter 待機時間を揺らす割合(0.0～1.0)
+         * @return
+         */
+        public RetryPolicyBuilder setJitter(double jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * 最初の送信を含む最大の試行回数を設定します。1の場合は再送信しません。
+         * @param maxAttempts 最大の試行回数
+         * @return
+         */
+        public RetryPolicyBuilder setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Retry-Afterヘッダーに従って待機する最大の時間を設定します。既定値は10分です。
+         * 送信先が指定した待機時間がこれを超える場合はこの時間だけ待機します。
+         * @param maxRetryAfter Retry-Afterヘッダーに従って待機する最大の時間
+         * @return
+         */
+        public RetryPolicyBuilder setMaxRetryAfter(Duration maxRetryAfter) {
+            this.maxRetryAfter = maxRetryAfter;
+            return this;
+        }
+
+        /**
+         * RetryPolicyを生成します
+         *
+         * @return RetryPolicy
+         */
+        public RetryPolicy build() {
+            return new RetryPolicy(this.baseDelay, this.maxDelay, this.multiplier, this.jitter, this.maxAttempts,
+                    this.maxRetryAfter);
+        }
+    }
+}
@@ -0,0 +1,543 @@
+package logbook.kcvdb.client;
+
+import java.time.Duration;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ApiDataの合計サイズで容量を制限する送信待ちキューです<br>
+ * 容量を超える場合の動作は{@link OverflowPolicy}で選択できます<br>
+ * キュー上のApiDataは{@link MemoryGovernor}にも計上されます<br>
+ * 追加は複数のスレッドからロックを使用せずに行われ、ロックは取り出し、{@link #clear()}と容量を超えた場合にのみ使用します。
+ * 取り出す側は{@link #drain(List, int, long)}でまとめて取り出せます<br>
+ * {@link #clear()}と同時に追加されたApiDataは、クリアより前に追加されたものとして破棄されるか、後に追加されたものとして残るかのどちらかになります
+ *
+ */
+public class SendQueue extends AbstractQueue<ApiData> {
+
+    /** キューの容量(バイト) */
+    private final long maxBytes;
+
+    /** 容量を超える場合の動作 */
+    private final OverflowPolicy policy;
+
+    /** {@link OverflowPolicy#BLOCK}の場合の最大の待機時間 */
+    private final Duration timeout;
+
+    /** メモリ使用量の制限 */
+    private final MemoryGovernor governor;
+
+    /** 取り出し済みの最後のノード(取り出す側だけが更新する) */
+    private Node head;
+
+    /** 最後に追加されたノード */
+    private final AtomicReference<Node> tail;
+
+    /** 取り出し、クリアと容量を超えた場合の処理を直列化するロック */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** キューに空きが出来た時に通知される */
+    private final Condition notFull = this.lock.newCondition();
+
+    /** 空きを待っているスレッドの数 */
+    private final AtomicInteger blocked = new AtomicInteger();
+
+    /** キュー上のApiDataの合計サイズ(追加中のApiDataを含む) */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /** キュー上のApiDataの数 */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /** 破棄されたApiDataの数 */
+    private final LongAdder dropped = new LongAdder();
+
+    /** {@link #clear()}した回数。これより前の値で追加されたノードは取り出さずに破棄する */
+    private volatile long epoch;
+
+    /** クリアより前に追加を開始したノードが、まだ破棄されずに残っている可能性がある */
+    private volatile boolean stale;
+
+    private SendQueue(long maxBytes, OverflowPolicy policy, Duration timeout, MemoryGovernor governor) {
+        this.maxBytes = maxBytes;
+        this.policy = Objects.requireNonNull(policy, "容量を超える場合の動作");
+        this.timeout = Objects.requireNonNull(timeout, "最大の待機時間");
+        this.governor = Objects.requireNonNull(governor, "メモリ使用量の制限");
+        this.head = new Node(null, 0, 0);
+        this.tail = new AtomicReference<>(this.head);
+    }
+
+    /**
+     * ApiDataを追加します<br>
+     * 容量を超える場合は{@link OverflowPolicy}に従います
+     *
+     * @param data ApiData
+     * @return 追加された場合true
+     * @throws IllegalStateException {@link OverflowPolicy#REJECT}で容量を超えた場合
+     */
+    @Override
+    public boolean offer(ApiData data) {
+        Objects.requireNonNull(data);
+        long size = data.size();
+        long nanos = this.timeout.toNanos();
+        try {
+            while (true) {
+                long seen = this.governor.releases();
+                boolean full = !this.reserve(size);
+                if (!full) {
+                    if (this.governor.tryAcquire(size)) {
+                        this.link(data, size);
+                        return true;
+                    }
+                    this.unreserve(size);
+                }
+                switch (this.policy) {
+                case DROP_OLDEST:
+                    if (this.evict()) {
+                        continue;
+                    }
+                    this.dropped.increment();
+                    return false;
+                case DROP_NEWEST:
+                    this.dropped.increment();
+                    return false;
+                case REJECT:
+                    this.dropped.increment();
+                    throw new IllegalStateException("送信待ちキューの容量を超えています");
+                case BLOCK:
+                default:
+                    if (nanos <= 0) {
+                        this.dropped.increment();
+                        return false;
+                    }
+                    if (full) {
+                        nanos = this.awaitNotFull(size, nanos);
+                        continue;
+                    }
+                }
+                // 他のキューや送信中のApiDataがメモリを解放するまで待つ
+                nanos = this.governor.awaitRelease(seen, nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 容量を超えない場合に限りキュー上の合計サイズに計上します<br>
+     * キューが空の場合は容量を超えるApiDataでも1件は追加できます
+     *
+     * @param size ApiDataのサイズ
+     * @return 計上できた場合true
+     */
+    private boolean reserve(long size) {
+        while (true) {
+            long bytes = this.bytes.get();
+            if (bytes + size > this.maxBytes && bytes > 0) {
+                return false;
+            }
+            if (this.bytes.compareAndSet(bytes, bytes + size)) {
+                return true;
+            }
+        }
+    }
+
+    private void unreserve(long size) {
+        this.bytes.addAndGet(-size);
+        this.signalNotFull();
+    }
+
+    /**
+     * ノードを末尾に繋ぎます<br>
+     * 末尾を入れ替えてから前のノードに繋ぐため、繋ぐまでの間は取り出す側からこのノードと後続のノードが見えません。
+     * 件数は取り出されて負にならないよう繋ぐ前に数えます<br>
+     * 追加を開始してから繋ぐまでの間に{@link #clear()}された場合は、繋いだ後に破棄します
+     *
+     * @param data ApiData
+     * @param size 追加した時のApiDataのサイズ
+     */
+    private void link(ApiData data, long size) {
+        Node node = new Node(data, size, this.epoch);
+        this.count.incrementAndGet();
+        Node prev = this.tail.getAndSet(node);
+        prev.next = node;
+        if (node.epoch != this.epoch || this.stale) {
+            this.purge();
+        }
+    }
+
+    /**
+     * {@link #clear()}より前に追加を開始したノードを破棄します<br>
+     * 繋ぐ途中のノードがあり末尾まで辿れなかった場合は、そのノードを繋いだスレッドが改めて破棄します
+     */
+    private void purge() {
+        this.lock.lock();
+        try {
+            this.stale = true;
+            long epoch = this.epoch;
+            int records = 0;
+            long bytes = 0;
+            Node node = this.head;
+            Node next;
+            while ((next = node.next) != null) {
+                node = next;
+                if (node.epoch != epoch && node.data != null) {
+                    node.data = null;
+                    bytes += node.size;
+                    records++;
+                }
+            }
+            if (node == this.tail.get()) {
+                this.stale = false;
+            }
+            if (records > 0) {
+                this.removed(records, bytes);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private long awaitNotFull(long size, long nanos) throws InterruptedException {
+        this.lock.lock();
+        this.blocked.incrementAndGet();
+        try {
+            while (nanos > 0) {
+                long bytes = this.bytes.get();
+                if (bytes + size <= this.maxBytes || bytes == 0) {
+                    break;
+                }
+                nanos = this.notFull.awaitNanos(nanos);
+            }
+            return nanos;
+        } finally {
+            this.blocked.decrementAndGet();
+            this.lock.unlock();
+        }
+    }
+
+    private void signalNotFull() {
+        if (this.blocked.get() > 0) {
+            this.lock.lock();
+            try {
+                this.notFull.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public ApiData poll() {
+        this.lock.lock();
+        try {
+            Node node = this.first();
+            if (node == null) {
+                return null;
+            }
+            ApiData data = this.take(node);
+            this.removed(1, node.size);
+            return data;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * 先頭から件数とサイズの上限までApiDataをまとめて取り出します<br>
+     * 1件目は上限を超えていても取り出します
+     *
+     * @param sink 取り出したApiDataを追加するリスト
+     * @param maxRecords 取り出す最大の件数
+     * @param maxBytes 取り出すApiDataの最大の合計サイズ
+     * @return 取り出したApiDataの合計サイズ
+     */
+    public long drain(List<? super ApiData> sink, int maxRecords, long maxBytes) {
+        return this.drain(sink, maxRecords, maxBytes, true);
+    }
+
+    /**
+     * 先頭から件数とサイズの上限までApiDataをまとめて取り出します
+     *
+     * @param sink 取り出したApiDataを追加するリスト
+     * @param maxRecords 取り出す最大の件数
+     * @param maxBytes 取り出すApiDataの最大の合計サイズ
+     * @param oversized 1件目が上限を超えていても取り出す場合true
+     * @return 取り出したApiDataの合計サイズ
+     */
+    long drain(List<? super ApiData> sink, int maxRecords, long maxBytes, boolean oversized) {
+        this.lock.lock();
+        try {
+            int records = 0;
+            long bytes = 0;
+            Node node;
+            while (records < maxRecords && (node = this.first()) != null) {
+                long size = node.size;
+                if ((records > 0 || !oversized) && bytes + size > maxBytes) {
+                    break;
+                }
+                sink.add(this.take(node));
+                records++;
+                bytes += size;
+            }
+            if (records > 0) {
+                this.removed(records, bytes);
+            }
+            return bytes;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public ApiData peek() {
+        this.lock.lock();
+        try {
+            Node node = this.first();
+            return node != null ? node.data : null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.count.get();
+    }
+
+    /**
+     * キューを空にします<br>
+     * クリアした後に繋がれたノードでも、クリアより前に追加を開始したApiDataは取り出されずに破棄されます
+     */
+    @Override
+    public void clear() {
+        this.lock.lock();
+        try {
+            this.epoch++;
+            int records = 0;
+            long bytes = 0;
+            Node next;
+            while ((next = this.head.next) != null) {
+                if (this.take(next) != null) {
+                    bytes += next.size;
+                    records++;
+                }
+            }
+            this.removed(records, bytes);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * キューのスナップショットに対するイテレータを返します
+     */
+    @Override
+    public Iterator<ApiData> iterator() {
+        this.lock.lock();
+        try {
+            List<ApiData> items = new ArrayList<>(this.count.get());
+            long epoch = this.epoch;
+            for (Node node = this.head.next; node != null; node = node.next) {
+                if (node.epoch == epoch) {
+                    items.add(node.data);
+                }
+            }
+            return items.iterator();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * キュー上のApiDataの合計サイズを取得します<br>
+     * 追加の途中のApiDataのサイズを含みます
+     *
+     * @return キュー上のApiDataの合計サイズ(バイト)
+     */
+    public long getBytes() {
+        return this.bytes.get();
+    }
+
+    /**
+     * 容量を超えたために破棄されたApiDataの数を取得します
+     *
+     * @return 破棄されたApiDataの数
+     */
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * メモリ使用量の制限を取得します
+     *
+     * @return メモリ使用量の制限
+     */
+    public MemoryGovernor getMemoryGovernor() {
+        return this.governor;
+    }
+
+    /**
+     * 先頭の取り出せるノードを取得します<br>
+     * {@link #clear()}より前に追加を開始したノードは破棄します
+     *
+     * @return ノード、キューが空の場合null
+     */
+    private Node first() {
+        long epoch = this.epoch;
+        Node next;
+        int records = 0;
+        long bytes = 0;
+        while ((next = this.head.next) != null && next.epoch != epoch) {
+            if (this.take(next) != null) {
+                bytes += next.size;
+                records++;
+            }
+        }
+        if (records > 0) {
+            this.removed(records, bytes);
+        }
+        return next;
+    }
+
+    /**
+     * 先頭のノードを取り出し、取り出し済みの最後のノードにします
+     *
+     * @param node 先頭のノード
+     * @return ApiData
+     */
+    private ApiData take(Node node) {
+        ApiData data = node.data;
+        node.data = null;
+        this.head = node;
+        return data;
+    }
+
+    private boolean evict() {
+        this.lock.lock();
+        try {
+            Node node = this.first();
+            if (node == null) {
+                return false;
+            }
+            this.take(node);
+            this.removed(1, node.size);
+            this.dropped.increment();
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void removed(int records, long bytes) {
+        this.count.addAndGet(-records);
+        this.bytes.addAndGet(-bytes);
+        this.governor.release(bytes);
+        if (this.blocked.get() > 0) {
+            this.notFull.signalAll();
+        }
+    }
+
+    /**
+     * キューのノード
+     */
+    private static final class Node {
+
+        /** ApiData(取り出し済み又は破棄済みの場合null) */
+        ApiData data;
+
+        /** 追加した時のApiDataのサイズ(取り出す時もこのサイズを差し引く) */
+        final long size;
+
+        /** 追加を開始した時の{@link SendQueue#epoch} */
+        final long epoch;
+
+        /** 次のノード */
+        volatile Node next;
+
+        Node(ApiData data, long size, long epoch) {
+            this.data = data;
+            this.size = size;
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * SendQueueBuilder を作成します
+     * @return SendQueueBuilder
+     */
+    public static SendQueueBuilder createBuilder() {
+        return new SendQueueBuilder();
+    }
+
+    public static class SendQueueBuilder {
+
+        private long maxBytes = 16 * 1024 * 1024;
+
+        private OverflowPolicy policy = OverflowPolicy.DROP_OLDEST;
+
+        private Duration timeout = Duration.ofSeconds(5);
+
+        private MemoryGovernor governor;
+
+        /**
+         * キューの容量を設定します。
+         * @param maxBytes キューの容量(バイト)
+         * @return
+         */
+        public SendQueueBuilder setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * 容量を超える場合の動作を設定します。
+         * @param policy 容量を超える場合の動作
+         * @return
+         */
+        public SendQueueBuilder setOverflowPolicy(OverflowPolicy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * {@link OverflowPolicy#BLOCK}の場合の最大の待機時間を設定します。
+         * @param timeout 最大の待機時間
+         * @return
+         */
+        public SendQueueBuilder setTimeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * メモリ使用量の制限を設定します。
+         * 複数のキューで共有することでプロセス全体のメモリ使用量を制限できます。
+         * @param governor メモリ使用量の制限
+         * @return
+         */
+        public SendQueueBuilder setMemoryGovernor(MemoryGovernor governor) {
+            this.governor = governor;
+            return this;
+        }
+
+        /**
+         * SendQueueを生成します
+         *
+         * @return SendQueue
+         */
+        public SendQueue build() {
+            MemoryGovernor governor = this.governor != null ? this.governor : MemoryGovernor.unlimited();
+            return new SendQueue(this.maxBytes, this.policy, this.timeout, governor);
+        }
+    }
+}
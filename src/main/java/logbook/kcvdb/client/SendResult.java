@@ -0,0 +1,84 @@
+package logbook.kcvdb.client;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * 1回の送信の結果です
+ *
+ */
+public class SendResult {
+
+    /** 送信に成功したか */
+    private final boolean success;
+
+    /** KCVDBが返したHTTPステータスコード */
+    private final int statusCode;
+
+    /** 送信したApiDataの数 */
+    private final int records;
+
+    /** 送信に使用したセッションID */
+    private final UUID sessionId;
+
+    /** 送信に失敗した原因の例外 */
+    private final Throwable cause;
+
+    SendResult(boolean success, int statusCode, int records, UUID sessionId, Throwable cause) {
+        this.success = success;
+        this.statusCode = statusCode;
+        this.records = records;
+        this.sessionId = sessionId;
+        this.cause = cause;
+    }
+
+    /**
+     * 送信するApiDataが無かった場合の結果
+     *
+     * @param sessionId セッションID
+     * @return 送信の結果
+     */
+    static SendResult empty(UUID sessionId) {
+        return new SendResult(true, 0, 0, sessionId, null);
+    }
+
+    /**
+     * 送信に成功したかを取得します。送信するApiDataが無かった場合もtrueを返します
+     * @return 送信に成功した場合true
+     */
+    public boolean isSuccess() {
+        return this.success;
+    }
+
+    /**
+     * KCVDBが返したHTTPステータスコードを取得します。
+     * @return HTTPステータスコード、レスポンスを受信していない場合0
+     */
+    public int getStatusCode() {
+        return this.statusCode;
+    }
+
+    /**
+     * 送信したApiDataの数を取得します。
+     * @return 送信したApiDataの数
+     */
+    public int getRecords() {
+        return this.records;
+    }
+
+    /**
+     * 送信に使用したセッションIDを取得します。
+     * @return セッションID
+     */
+    public UUID getSessionId() {
+        return this.sessionId;
+    }
+
+    /**
+     * 送信に失敗した原因の例外を取得します。
+     * @return 送信に失敗した原因の例外
+     */
+    public Optional<Throwable> getCause() {
+        return Optional.ofNullable(this.cause);
+    }
+}
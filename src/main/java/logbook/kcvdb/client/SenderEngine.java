@@ -0,0 +1,208 @@
+package logbook.kcvdb.client;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 複数の送信クラスインスタンス(セッション)でスレッドと接続プールを共有してバックグラウンドで送信します<br>
+ * 各セッションは送信待ちキュー、セッションID、{@link AbstractSender#regenerateSession()}を個別に持ち、
+ * {@link AbstractSender#start(SenderEngine)}で開始したセッションのバッチの構成と送信は少数の共有スレッドで行われます<br>
+ * 共有スレッドはタスクを到着順に処理し、各セッションが同時に送信するバッチは{@link AbstractSender#window}個までのため、
+ * 送信待ちが多いセッションがあっても他のセッションの送信は待たされません<br>
+ * Java 21以降では{@link SenderEngineBuilder#setVirtualThreads(boolean)}でバッチの構成と送信、再送信を仮想スレッドで行えます
+ *
+ * <pre>
+ * SenderEngine engine = SenderEngine.createBuilder().setThreads(4).build();
+ * GzipSender sender = new GzipSender(engine.getConnectionPool());
+ * sender.start(engine);
+ * </pre>
+ *
+ */
+public class SenderEngine implements Closeable {
+
+    /** 再送信、待機時間の経過とバッチの送信条件の確認を行うタイマー */
+    private final ScheduledThreadPoolExecutor timer;
+
+    /** バッチの構成と送信を行うスレッド */
+    private final ExecutorService io;
+
+    /** 仮想スレッドを使用しているか */
+    private final boolean virtual;
+
+    /** 接続プール */
+    private final ConnectionPool pool;
+
+    /** 接続プールを{@link #close()}で閉じないか */
+    private final boolean sharedPool;
+
+    /** 開始しているセッション */
+    private final Set<AbstractSender> senders = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param threads バッチの構成と送信を行うスレッドの数
+     * @param virtual 仮想スレッドを使用できる場合に使用するか
+     * @param pool 接続プール、nullの場合は既定の設定で作成する
+     * @param sharedPool 接続プールを{@link #close()}で閉じない場合true
+     * @param name スレッド名の接頭辞
+     */
+    SenderEngine(int threads, boolean virtual, ConnectionPool pool, boolean sharedPool, String name) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("スレッドの数は1以上である必要があります");
+        }
+        this.pool = pool != null ? pool : ConnectionPool.createBuilder().build();
+        this.sharedPool = sharedPool;
+        this.timer = new ScheduledThreadPoolExecutor(1, Threads.daemon(name + "-timer"));
+        // 停止したセッションの定期的なタスクを残さない
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.virtual = virtual && Threads.isVirtualAvailable();
+        this.io = Threads.io(threads, this.virtual, name + "-io");
+    }
+
+    /**
+     * セッションで共有する接続プールを取得します<br>
+     * {@link GzipSender#GzipSender(ConnectionPool)}に渡して送信クラスを作成します
+     *
+     * @return 接続プール
+     */
+    public ConnectionPool getConnectionPool() {
+        return this.pool;
+    }
+
+    /**
+     * 開始しているセッションの数を取得します
+     *
+     * @return セッションの数
+     */
+    public int getSessionCount() {
+        return this.senders.size();
+    }
+
+    /**
+     * バッチの構成と送信を仮想スレッドで行っているかを取得します<br>
+     * 仮想スレッドを使用するように設定しても、Java 21より前のバージョンで実行している場合はfalseです
+     *
+     * @return 仮想スレッドを使用している場合true
+     */
+    public boolean isVirtualThreads() {
+        return this.virtual;
+    }
+
+    ScheduledExecutorService timer() {
+        return this.timer;
+    }
+
+    ExecutorService io() {
+        return this.io;
+    }
+
+    void attach(AbstractSender sender) {
+        this.senders.add(sender);
+    }
+
+    void detach(AbstractSender sender) {
+        this.senders.remove(sender);
+    }
+
+    /**
+     * スレッドを停止します<br>
+     * 送信中のバッチの完了を最大で指定した時間待ち、完了しない場合は割り込みます
+     *
+     * @param timeout 待機する最大の時間
+     */
+    void shutdown(Duration timeout) {
+        this.timer.shutdownNow();
+        this.io.shutdown();
+        try {
+            if (!this.io.awaitTermination(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                this.io.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            this.io.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 開始している全てのセッションを閉じてからスレッドを停止します<br>
+     * セッションは{@link AbstractSender#close()}と同様に残りのApiDataの送信を試みます。
+     * {@link SenderEngineBuilder#setConnectionPool(ConnectionPool)}で接続プールを指定していない場合は接続プールも閉じます
+     */
+    @Override
+    public void close() {
+        List<AbstractSender> senders = new ArrayList<>(this.senders);
+        for (AbstractSender sender : senders) {
+            sender.close();
+        }
+        this.shutdown(Duration.ZERO);
+        if (!this.sharedPool) {
+            this.pool.close();
+        }
+    }
+
+    /**
+     * SenderEngineBuilder を作成します
+     * @return SenderEngineBuilder
+     */
+    public static SenderEngineBuilder createBuilder() {
+        return new SenderEngineBuilder();
+    }
+
+    public static class SenderEngineBuilder {
+
+        private int threads = 4;
+
+        private boolean virtual;
+
+        private ConnectionPool pool;
+
+        /**
+         * 全てのセッションで共有するバッチの構成と送信を行うスレッドの数を設定します。
+         * @param threads スレッドの数
+         * @return
+         */
+        public SenderEngineBuilder setThreads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * バッチの構成と送信、再送信を仮想スレッドで行うかを設定します。既定値はfalseです。
+         * 仮想スレッドを使用する場合、スレッドの数の設定は無視され、同時に送信するバッチの数はセッションごとの
+         * {@link AbstractSender#window}で制限されます。Java 21より前のバージョンで実行している場合は無視されます。
+         * @param virtual 仮想スレッドを使用する場合true
+         * @return
+         */
+        public SenderEngineBuilder setVirtualThreads(boolean virtual) {
+            this.virtual = virtual;
+            return this;
+        }
+
+        /**
+         * 全てのセッションで共有する接続プールを設定します。設定しない場合は既定の設定で作成します。
+         * 設定した接続プールは{@link SenderEngine#close()}で閉じられません。
+         * @param pool 接続プール
+         * @return
+         */
+        public SenderEngineBuilder setConnectionPool(ConnectionPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * SenderEngineを生成します
+         *
+         * @return SenderEngine
+         */
+        public SenderEngine build() {
+            return new SenderEngine(this.threads, this.virtual, this.pool, this.pool != null, "kcvdb-engine");
+        }
+    }
+}
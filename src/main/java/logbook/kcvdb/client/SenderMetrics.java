@@ -0,0 +1,334 @@
+package logbook.kcvdb.client;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 送信クラスの計測値です<br>
+ * カウンターは{@link LongAdder}、時間の分布は{@link Histogram}で記録するため、送信処理を待たせません。
+ * {@link #registerMBean(String)}でJMXに公開し、{@link MetricsExporter}で外部の監視システムへ出力できます
+ *
+ */
+public final class SenderMetrics implements SenderMetricsMXBean {
+
+    /** JMXのドメイン */
+    private static final String DOMAIN = "logbook.kcvdb.client";
+
+    /** 送信待ちキュー(レーンの送信待ちキューを含む) */
+    private final Supplier<List<Queue<ApiData>>> queues;
+
+    private final LongAdder recordsEnqueued = new LongAdder();
+
+    private final LongAdder bytesEnqueued = new LongAdder();
+
+    private final LongAdder recordsFiltered = new LongAdder();
+
+    /** SendQueue以外の送信待ちキューに追加できなかったApiDataの数 */
+    private final LongAdder recordsRejected = new LongAdder();
+
+    private final LongAdder recordsSent = new LongAdder();
+
+    private final LongAdder bytesSent = new LongAdder();
+
+    private final LongAdder recordsFailed = new LongAdder();
+
+    private final LongAdder batchesSent = new LongAdder();
+
+    private final LongAdder batchesFailed = new LongAdder();
+
+    private final LongAdder retries = new LongAdder();
+
+    private final LongAdder sessionRegenerations = new LongAdder();
+
+    private final LongAdder uncompressedBytes = new LongAdder();
+
+    private final LongAdder compressedBytes = new LongAdder();
+
+    /** 送信データの構成と圧縮にかかった時間(ナノ秒) */
+    private final Histogram composeTime = new Histogram();
+
+    /** HTTPリクエストの応答時間(ナノ秒) */
+    private final Histogram httpLatency = new Histogram();
+
+    /** ApiDataの受信日時から送信に成功するまでの時間(ミリ秒) */
+    private final Histogram endToEndLatency = new Histogram();
+
+    /** JMXに登録した名前 */
+    private ObjectName objectName;
+
+    SenderMetrics(Supplier<List<Queue<ApiData>>> queues) {
+        this.queues = queues;
+    }
+
+    void enqueued(ApiData data) {
+        this.recordsEnqueued.increment();
+        this.bytesEnqueued.add(data.size());
+    }
+
+    void filtered() {
+        this.recordsFiltered.increment();
+    }
+
+    void rejected() {
+        this.recordsRejected.increment();
+    }
+
+    void composed(long nanos, long uncompressed, long compressed) {
+        this.composeTime.record(nanos);
+        this.uncompressedBytes.add(uncompressed);
+        this.compressedBytes.add(compressed);
+    }
+
+    void attempted(long nanos) {
+        this.httpLatency.record(nanos);
+    }
+
+    void retried() {
+        this.retries.increment();
+    }
+
+    void sent(Batch batch, long now) {
+        this.batchesSent.increment();
+        this.recordsSent.add(batch.records);
+        this.bytesSent.add(batch.bytes);
+        for (long localTime : batch.localTimes) {
+            this.endToEndLatency.record(now - localTime);
+        }
+    }
+
+    void failed(Batch batch) {
+        this.batchesFailed.increment();
+        this.recordsFailed.add(batch.records);
+    }
+
+    void regenerated() {
+        this.sessionRegenerations.increment();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        long depth = 0;
+        for (Queue<ApiData> queue : this.queues.get()) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    @Override
+    public long getQueueBytes() {
+        long bytes = 0;
+        for (Queue<ApiData> queue : this.queues.get()) {
+            if (queue instanceof SendQueue) {
+                bytes += ((SendQueue) queue).getBytes();
+            } else {
+                for (ApiData data : queue) {
+                    bytes += data.size();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getRecordsEnqueued() {
+        return this.recordsEnqueued.sum();
+    }
+
+    @Override
+    public long getBytesEnqueued() {
+        return this.bytesEnqueued.sum();
+    }
+
+    @Override
+    public long getRecordsFiltered() {
+        return this.recordsFiltered.sum();
+    }
+
+    /**
+     * {@inheritDoc}<br>
+     * 送信待ちキューが{@link SendQueue}の場合は現在の送信待ちキューとレーンの送信待ちキューで破棄された数を含みます
+     */
+    @Override
+    public long getRecordsDropped() {
+        long dropped = this.recordsRejected.sum();
+        for (Queue<ApiData> queue : this.queues.get()) {
+            if (queue instanceof SendQueue) {
+                dropped += ((SendQueue) queue).getDropped();
+            }
+        }
+        return dropped;
+    }
+
+    @Override
+    public long getRecordsSent() {
+        return this.recordsSent.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return this.bytesSent.sum();
+    }
+
+    @Override
+    public long getRecordsFailed() {
+        return this.recordsFailed.sum();
+    }
+
+    @Override
+    public long getBatchesSent() {
+        return this.batchesSent.sum();
+    }
+
+    @Override
+    public long getBatchesFailed() {
+        return this.batchesFailed.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return this.retries.sum();
+    }
+
+    @Override
+    public long getSessionRegenerations() {
+        return this.sessionRegenerations.sum();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long uncompressed = this.uncompressedBytes.sum();
+        return uncompressed == 0 ? 0 : (double) this.compressedBytes.sum() / uncompressed;
+    }
+
+    @Override
+    public double getComposeTimeMean() {
+        return millis(this.composeTime.getMean());
+    }
+
+    @Override
+    public double getComposeTime99thPercentile() {
+        return millis(this.composeTime.getPercentile(0.99));
+    }
+
+    @Override
+    public double getHttpLatencyMean() {
+        return millis(this.httpLatency.getMean());
+    }
+
+    @Override
+    public double getHttpLatency99thPercentile() {
+        return millis(this.httpLatency.getPercentile(0.99));
+    }
+
+    @Override
+    public double getEndToEndLatencyMean() {
+        return this.endToEndLatency.getMean();
+    }
+
+    @Override
+    public double getEndToEndLatency99thPercentile() {
+        return this.endToEndLatency.getPercentile(0.99);
+    }
+
+    /**
+     * 送信データの構成と圧縮にかかった時間の分布を取得します
+     *
+     * @return 時間の分布(ナノ秒)
+     */
+    public Histogram getComposeTime() {
+        return this.composeTime;
+    }
+
+    /**
+     * HTTPリクエストの応答時間の分布を取得します
+     *
+     * @return 時間の分布(ナノ秒)
+     */
+    public Histogram getHttpLatency() {
+        return this.httpLatency;
+    }
+
+    /**
+     * ApiDataの受信日時から送信に成功するまでの時間の分布を取得します
+     *
+     * @return 時間の分布(ミリ秒)
+     */
+    public Histogram getEndToEndLatency() {
+        return this.endToEndLatency;
+    }
+
+    /**
+     * 全ての計測値を名前と値の組で取得します。名前は{@link SenderMetricsMXBean}の属性名と同じです
+     *
+     * @return 名前と値の組
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        values.put("QueueDepth", this.getQueueDepth());
+        values.put("QueueBytes", this.getQueueBytes());
+        values.put("RecordsEnqueued", this.getRecordsEnqueued());
+        values.put("BytesEnqueued", this.getBytesEnqueued());
+        values.put("RecordsFiltered", this.getRecordsFiltered());
+        values.put("RecordsDropped", this.getRecordsDropped());
+        values.put("RecordsSent", this.getRecordsSent());
+        values.put("BytesSent", this.getBytesSent());
+        values.put("RecordsFailed", this.getRecordsFailed());
+        values.put("BatchesSent", this.getBatchesSent());
+        values.put("BatchesFailed", this.getBatchesFailed());
+        values.put("Retries", this.getRetries());
+        values.put("SessionRegenerations", this.getSessionRegenerations());
+        values.put("CompressionRatio", this.getCompressionRatio());
+        values.put("ComposeTimeMean", this.getComposeTimeMean());
+        values.put("ComposeTime99thPercentile", this.getComposeTime99thPercentile());
+        values.put("HttpLatencyMean", this.getHttpLatencyMean());
+        values.put("HttpLatency99thPercentile", this.getHttpLatency99thPercentile());
+        values.put("EndToEndLatencyMean", this.getEndToEndLatencyMean());
+        values.put("EndToEndLatency99thPercentile", this.getEndToEndLatency99thPercentile());
+        return values;
+    }
+
+    /**
+     * プラットフォームのMBeanServerに{@code logbook.kcvdb.client:type=SenderMetrics,name=NAME}として登録します<br>
+     * 登録済みの場合は登録し直します
+     *
+     * @param name 名前
+     * @throws JMException 登録できなかった場合
+     */
+    public synchronized void registerMBean(String name) throws JMException {
+        this.unregisterMBean();
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=SenderMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.objectName = objectName;
+    }
+
+    /**
+     * {@link #registerMBean(String)}で登録したMBeanの登録を解除します。登録していない場合は何もしません
+     */
+    public synchronized void unregisterMBean() {
+        ObjectName objectName = this.objectName;
+        if (objectName == null) {
+            return;
+        }
+        this.objectName = null;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            // 既に登録が解除されている
+        }
+    }
+
+    private static double millis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,128 @@
+package logbook.kcvdb.client;
+
+/**
+ * 送信クラスの計測値をJMXで公開するインターフェースです
+ *
+ */
+public interface SenderMetricsMXBean {
+
+    /**
+     * 送信待ちキュー(レーンの送信待ちキューを含む)のApiDataの数を取得します
+     * @return 送信待ちキューのApiDataの数
+     */
+    long getQueueDepth();
+
+    /**
+     * 送信待ちキュー(レーンの送信待ちキューを含む)のApiDataの合計サイズを取得します
+     * @return 送信待ちキューのApiDataの合計サイズ(バイト)
+     */
+    long getQueueBytes();
+
+    /**
+     * 送信待ちキュー又はスプールに追加したApiDataの数を取得します
+     * @return 追加したApiDataの数
+     */
+    long getRecordsEnqueued();
+
+    /**
+     * 送信待ちキュー又はスプールに追加したApiDataの合計サイズを取得します
+     * @return 追加したApiDataの合計サイズ(バイト)
+     */
+    long getBytesEnqueued();
+
+    /**
+     * ApiFilterで除外又は間引かれたApiDataの数を取得します
+     * @return 除外されたApiDataの数
+     */
+    long getRecordsFiltered();
+
+    /**
+     * 送信待ちキューの容量を超えたため破棄されたApiDataの数を取得します
+     * @return 破棄されたApiDataの数
+     */
+    long getRecordsDropped();
+
+    /**
+     * 送信に成功したApiDataの数を取得します
+     * @return 送信に成功したApiDataの数
+     */
+    long getRecordsSent();
+
+    /**
+     * 送信に成功したApiDataの合計サイズを取得します
+     * @return 送信に成功したApiDataの合計サイズ(バイト)
+     */
+    long getBytesSent();
+
+    /**
+     * 送信に失敗したApiDataの数を取得します
+     * @return 送信に失敗したApiDataの数
+     */
+    long getRecordsFailed();
+
+    /**
+     * 送信に成功したバッチの数を取得します
+     * @return 送信に成功したバッチの数
+     */
+    long getBatchesSent();
+
+    /**
+     * 送信に失敗したバッチの数を取得します
+     * @return 送信に失敗したバッチの数
+     */
+    long getBatchesFailed();
+
+    /**
+     * 再送信した回数を取得します
+     * @return 再送信した回数
+     */
+    long getRetries();
+
+    /**
+     * セッションを再生成した回数を取得します
+     * @return セッションを再生成した回数
+     */
+    long getSessionRegenerations();
+
+    /**
+     * 圧縮前の送信データの合計サイズに対する圧縮後の合計サイズの比を取得します
+     * @return 圧縮率、圧縮していない場合0
+     */
+    double getCompressionRatio();
+
+    /**
+     * 送信データの構成と圧縮にかかった時間の平均を取得します
+     * @return 平均(ミリ秒)
+     */
+    double getComposeTimeMean();
+
+    /**
+     * 送信データの構成と圧縮にかかった時間の99パーセンタイルを取得します
+     * @return 99パーセンタイル(ミリ秒)
+     */
+    double getComposeTime99thPercentile();
+
+    /**
+     * HTTPリクエストの応答時間の平均を取得します
+     * @return 平均(ミリ秒)
+     */
+    double getHttpLatencyMean();
+
+    /**
+     * HTTPリクエストの応答時間の99パーセンタイルを取得します
+     * @return 99パーセンタイル(ミリ秒)
+     */
+    double getHttpLatency99thPercentile();
+
+    /**
+     * ApiDataの受信日時から送信に成功するまでの時間の平均を取得します
+     * @return 平均(ミリ秒)
+     */
+    double getEndToEndLatencyMean();
+
+    /**
+     * ApiDataの受信日時から送信に成功するまでの時間の99パーセンタイルを取得します
+     * @return 99パーセンタイル(ミリ秒)
+     */
+    double getEndToEndLatency99thPercentile();
+}
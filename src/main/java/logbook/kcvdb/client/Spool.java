@@ -0,0 +1,685 @@
+package logbook.kcvdb.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * 送信待ちのApiDataをディスクに書き込むスプールです<br>
+ * ApiDataは固定長のセグメントファイルへメモリマップを通じて追記され、送信に成功するまで保持されます<br>
+ * 送信されていないApiDataはスプールを開き直した時に再度送信対象になります
+ *
+ * <p>
+ * セグメントファイルの各レコードは「ペイロード長(int)」「ペイロードのCRC32(int)」「ペイロード」で構成され、
+ * ペイロード長が0の位置がセグメントの終端です。送信に成功した位置はチェックポイントファイルに記録され、
+ * チェックポイントより前のレコードしか含まないセグメントは削除されます。
+ * </p>
+ *
+ */
+public class Spool implements Closeable {
+
+    /** セグメントファイルの接尾辞 */
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /** チェックポイントファイル名 */
+    private static final String CHECKPOINT = "checkpoint";
+
+    /** レコードのヘッダー長 */
+    private static final int HEADER = 8;
+
+    /** スプールのディレクトリ */
+    private final Path directory;
+
+    /** セグメントファイルのサイズ */
+    private final int segmentSize;
+
+    /** スプールが使用する最大のディスク容量 */
+    private final long maxBytes;
+
+    /** 追記ごとにディスクへ同期するか */
+    private final boolean force;
+
+    /** セグメント(セグメント番号順) */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    /** 削除に失敗したセグメントファイル */
+    private final List<Path> garbage = new ArrayList<>();
+
+    /** 追記中のセグメント */
+    private Segment writeSegment;
+
+    /** 追記中のセグメントのメモリマップ */
+    private MappedByteBuffer writeBuffer;
+
+    /** 送信に成功した位置(セグメント番号) */
+    private long checkpointSegment;
+
+    /** 送信に成功した位置(セグメント内の位置) */
+    private int checkpointOffset;
+
+    /** 次に読み込む位置(セグメント番号) */
+    private long readSegment;
+
+    /** 次に読み込む位置(セグメント内の位置) */
+    private int readOffset;
+
+    /** 送信に成功していないレコード数 */
+    private int unsent;
+
+    /** 読み込まれていないレコード数 */
+    private int unread;
+
+    /** 読み込み位置を巻き戻した回数 */
+    private long epoch;
+
+    /** 巻き戻してから読み込んだレコード数 */
+    private long readCount;
+
+    /** 巻き戻してから送信に成功したレコード数 */
+    private long committedCount;
+
+    private Spool(Path directory, int segmentSize, long maxBytes, boolean force) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        this.force = force;
+        Files.createDirectories(directory);
+        this.recover();
+    }
+
+    /**
+     * ApiDataを追記します<br>
+     * 最大のディスク容量を超える場合は古いセグメントから破棄します
+     *
+     * @param data ApiData
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    public synchronized void append(ApiData data) throws IOException {
+        byte[] payload = encode(data);
+        int length = HEADER + payload.length;
+        if (this.writeBuffer == null || this.writeBuffer.remaining() < length + 4) {
+            this.rotate(length + 4);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        int position = this.writeBuffer.position();
+        // 長さを最後に書き込み、書き込み途中のレコードを読み込まないようにする
+        this.writeBuffer.position(position + 4);
+        this.writeBuffer.putInt((int) crc.getValue());
+        this.writeBuffer.put(payload);
+        this.writeBuffer.putInt(position, payload.length);
+        if (this.force) {
+            this.writeBuffer.force();
+        }
+        this.writeSegment.end = this.writeBuffer.position();
+        this.writeSegment.records++;
+        this.unsent++;
+        this.unread++;
+    }
+
+    /**
+     * 送信されていないApiDataを読み込みます<br>
+     * 読み込んだApiDataは{@link #commit()}されるまで削除されず、{@link #rewind()}により再度読み込まれます
+     *
+     * @param max 読み込む最大数
+     * @return ApiData
+     */
+    public synchronized List<ApiData> poll(int max) {
+        List<ApiData> datas = new ArrayList<>();
+        while (datas.size() < max && this.unread > 0) {
+            Segment segment = this.segments.get(this.readSegment);
+            if (segment == null || this.readOffset >= segment.end) {
+                Long next = this.segments.higherKey(this.readSegment);
+                if (next == null) {
+                    break;
+                }
+                this.readSegment = next;
+                this.readOffset = 0;
+                continue;
+            }
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                segment.channel.read(header, this.readOffset);
+                header.flip();
+                int length = header.getInt();
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                segment.channel.read(payload, this.readOffset + HEADER);
+                this.readOffset += HEADER + length;
+                this.unread--;
+                this.readCount++;
+                datas.add(decode(payload.array()));
+            } catch (IOException e) {
+                // 読み込めないレコード以降は読み飛ばす
+                int lost = segment.remaining(this.readOffset);
+                this.unread -= lost;
+                this.unsent -= lost;
+                segment.end = this.readOffset;
+            }
+        }
+        return datas;
+    }
+
+    /**
+     * 現在の読み込み位置を取得します<br>
+     * {@link #poll(int)}の直後に取得し、読み込んだApiDataの送信に成功した時に{@link #commit(Mark)}へ渡します
+     *
+     * @return 読み込み位置
+     */
+    public synchronized Mark mark() {
+        return new Mark(this.epoch, this.readSegment, this.readOffset, this.readCount);
+    }
+
+    /**
+     * 読み込んだApiDataの送信に成功したことを記録し、不要になったセグメントを削除します
+     *
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    public synchronized void commit() throws IOException {
+        this.commit(this.mark());
+    }
+
+    /**
+     * 読み込み位置までのApiDataの送信に成功したことを記録し、不要になったセグメントを削除します<br>
+     * 読み込み位置を取得した後に{@link #rewind()}された場合は何もしません
+     *
+     * @param mark {@link #mark()}で取得した読み込み位置
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    public synchronized void commit(Mark mark) throws IOException {
+        if (mark.epoch != this.epoch || mark.count <= this.committedCount) {
+            return;
+        }
+        this.unsent -= (int) (mark.count - this.committedCount);
+        this.committedCount = mark.count;
+        this.checkpointSegment = mark.segment;
+        this.checkpointOffset = mark.offset;
+        this.writeCheckpoint();
+        this.compact();
+    }
+
+    /**
+     * 読み込み位置を取得した後に巻き戻していない場合に限り、{@link #rewind()}します<br>
+     * 複数のバッチを同時に送信している場合に、同じ失敗で何度も巻き戻さないようにするために使用します
+     *
+     * @param mark {@link #mark()}で取得した読み込み位置
+     */
+    public synchronized void rewind(Mark mark) {
+        if (mark.epoch == this.epoch) {
+            this.rewind();
+        }
+    }
+
+    /**
+     * 読み込んだApiDataの送信に失敗したため、送信に成功していない全てのApiDataが次回再度読み込まれるようにします<br>
+     * 巻き戻す前に取得した読み込み位置は無効になります
+     */
+    public synchronized void rewind() {
+        this.epoch++;
+        this.readCount = 0;
+        this.committedCount = 0;
+        this.unread = this.unsent;
+        this.readSegment = this.checkpointSegment;
+        this.readOffset = this.checkpointOffset;
+    }
+
+    /**
+     * 送信に成功していないApiDataの数を取得します
+     *
+     * @return 送信に成功していないApiDataの数
+     */
+    public synchronized int size() {
+        return this.unsent;
+    }
+
+    /**
+     * 読み込まれていないApiDataがあるかを取得します
+     *
+     * @return 読み込まれていないApiDataがある場合true
+     */
+    public synchronized boolean hasUnread() {
+        return this.unread > 0;
+    }
+
+    /**
+     * スプールを閉じます
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.writeBuffer != null) {
+            this.writeBuffer.force();
+            this.writeBuffer = null;
+        }
+        for (Segment segment : this.segments.values()) {
+            segment.channel.close();
+        }
+        this.segments.clear();
+    }
+
+    /**
+     * 新しいセグメントへ切り替えます
+     *
+     * @param required 必要な容量
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    private void rotate(int required) throws IOException {
+        int size = Math.max(this.segmentSize, required);
+        // 最大のディスク容量を超える場合は古いセグメントから破棄する
+        while (!this.segments.isEmpty() && this.diskUsage() + size > this.maxBytes) {
+            this.discard(this.segments.firstEntry().getValue());
+        }
+        long id = this.segments.isEmpty() ? this.checkpointSegment + 1 : this.segments.lastKey() + 1;
+        Path path = this.directory.resolve(String.format("%016d%s", id, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, path, channel, size);
+        this.segments.put(id, segment);
+        if (this.writeBuffer != null) {
+            this.writeBuffer.force();
+        }
+        this.writeSegment = segment;
+        this.writeBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (this.unsent == 0) {
+            this.checkpointSegment = id;
+            this.checkpointOffset = 0;
+            this.readSegment = id;
+            this.readOffset = 0;
+        }
+    }
+
+    /**
+     * 送信していないレコードを含むセグメントを破棄します
+     *
+     * @param segment セグメント
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    private void discard(Segment segment) throws IOException {
+        if (this.checkpointSegment <= segment.id) {
+            this.unsent -= segment.remaining(this.checkpointSegment == segment.id ? this.checkpointOffset : 0);
+            Long next = this.segments.higherKey(segment.id);
+            this.checkpointSegment = next != null ? next : segment.id + 1;
+            this.checkpointOffset = 0;
+        }
+        // 送信中のApiDataの読み込み位置は無効になるため巻き戻す
+        this.rewind();
+        if (this.writeSegment == segment) {
+            this.writeSegment = null;
+            this.writeBuffer = null;
+        }
+        this.segments.remove(segment.id);
+        this.delete(segment);
+        this.writeCheckpoint();
+    }
+
+    /**
+     * チェックポイントより前のレコードしか含まないセグメントを削除します
+     *
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    private void compact() throws IOException {
+        Iterator<Segment> it = this.segments.values().iterator();
+        while (it.hasNext()) {
+            Segment segment = it.next();
+            if (segment.id >= this.checkpointSegment || segment == this.writeSegment) {
+                break;
+            }
+            it.remove();
+            this.delete(segment);
+        }
+        // 削除に失敗したセグメントファイルを再度削除する
+        Iterator<Path> paths = this.garbage.iterator();
+        while (paths.hasNext()) {
+            try {
+                Files.deleteIfExists(paths.next());
+                paths.remove();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private void delete(Segment segment) {
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            // メモリマップが解放されていない場合削除できないことがあるため後で再試行する
+            this.garbage.add(segment.path);
+        }
+    }
+
+    private long diskUsage() {
+        long usage = 0;
+        for (Segment segment : this.segments.values()) {
+            usage += segment.size;
+        }
+        return usage;
+    }
+
+    /**
+     * ディレクトリ内のセグメントとチェックポイントから状態を復元します
+     *
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    private void recover() throws IOException {
+        this.readCheckpoint();
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        Collections.sort(paths);
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            long id;
+            try {
+                id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (id < this.checkpointSegment) {
+                // 送信済みのセグメント
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    this.garbage.add(path);
+                }
+                continue;
+            }
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(id, path, channel, (int) channel.size());
+            segment.scan();
+            this.segments.put(id, segment);
+            int offset = id == this.checkpointSegment ? this.checkpointOffset : 0;
+            this.unsent += segment.remaining(offset);
+        }
+        if (this.segments.isEmpty()) {
+            this.checkpointOffset = 0;
+        } else if (!this.segments.containsKey(this.checkpointSegment)) {
+            this.checkpointSegment = this.segments.firstKey();
+            this.checkpointOffset = 0;
+        }
+        this.readSegment = this.checkpointSegment;
+        this.readOffset = this.checkpointOffset;
+        this.unread = this.unsent;
+    }
+
+    private void readCheckpoint() throws IOException {
+        Path path = this.directory.resolve(CHECKPOINT);
+        if (Files.exists(path)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+                long segment = in.readLong();
+                int offset = in.readInt();
+                int checksum = in.readInt();
+                if (checksum == (int) (segment ^ (segment >>> 32) ^ offset)) {
+                    this.checkpointSegment = segment;
+                    this.checkpointOffset = offset;
+                }
+            } catch (IOException e) {
+                // 壊れたチェックポイントは無視して先頭から再送する
+            }
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        Path path = this.directory.resolve(CHECKPOINT);
+        Path temp = this.directory.resolve(CHECKPOINT + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+            out.writeLong(this.checkpointSegment);
+            out.writeInt(this.checkpointOffset);
+            out.writeInt((int) (this.checkpointSegment ^ (this.checkpointSegment >>> 32) ^ this.checkpointOffset));
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] encode(ApiData data) throws IOException {
+        byte[] requestBody = data.requestBody().utf8();
+        byte[] responseBody = data.responseBody().utf8();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(requestBody.length + responseBody.length + 128);
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            writeString(out, data.getRequestUri());
+            writeBytes(out, requestBody);
+            writeBytes(out, responseBody);
+            out.writeInt(data.getStatusCode());
+            writeString(out, data.getHttpDate());
+            Instant instant = data.getLocalTime().toInstant();
+            out.writeLong(instant.getEpochSecond());
+            out.writeInt(instant.getNano());
+            writeString(out, data.getLocalTime().getZone().getId());
+        }
+        return buffer.toByteArray();
+    }
+
+    private static ApiData decode(byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            // 読み込んだボディはデコードせずUTF-8のまま保持する
+            ApiData.ApiDataBuilder builder = ApiData.createBuilder()
+                    .setBodyStorage(BodyStorage.UTF8)
+                    .setRequestUri(readString(in))
+                    .setRequestBody(readBytes(in))
+                    .setResponseBody(readBytes(in))
+                    .setStatusCode(in.readInt())
+                    .setHttpDate(readString(in));
+            Instant instant = Instant.ofEpochSecond(in.readLong(), in.readInt());
+            return builder.setLocalTime(ZonedDateTime.ofInstant(instant, ZoneId.of(readString(in))))
+                    .build();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * スプールの読み込み位置
+     */
+    public static final class Mark {
+
+        /** 読み込み位置を巻き戻した回数 */
+        private final long epoch;
+
+        /** セグメント番号 */
+        private final long segment;
+
+        /** セグメント内の位置 */
+        private final int offset;
+
+        /** 巻き戻してから読み込んだレコード数 */
+        private final long count;
+
+        private Mark(long epoch, long segment, int offset, long count) {
+            this.epoch = epoch;
+            this.segment = segment;
+            this.offset = offset;
+            this.count = count;
+        }
+    }
+
+    /**
+     * SpoolBuilder を作成します
+     * @param directory スプールのディレクトリ
+     * @return SpoolBuilder
+     */
+    public static SpoolBuilder createBuilder(Path directory) {
+        return new SpoolBuilder(directory);
+    }
+
+    public static class SpoolBuilder {
+
+        private final Path directory;
+
+        private int segmentSize = 8 * 1024 * 1024;
+
+        private long maxBytes = 256L * 1024 * 1024;
+
+        private boolean force;
+
+        private SpoolBuilder(Path directory) {
+            this.directory = Objects.requireNonNull(directory, "スプールのディレクトリ");
+        }
+
+        /**
+         * セグメントファイルのサイズを設定します。
+         * @param segmentSize セグメントファイルのサイズ
+         * @return
+         */
+        public SpoolBuilder setSegmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * スプールが使用する最大のディスク容量を設定します。
+         * @param maxBytes スプールが使用する最大のディスク容量
+         * @return
+         */
+        public SpoolBuilder setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * 追記ごとにディスクへ同期するかを設定します。
+         * @param force 追記ごとにディスクへ同期する場合true
+         * @return
+         */
+        public SpoolBuilder setForce(boolean force) {
+            this.force = force;
+            return this;
+        }
+
+        /**
+         * Spoolを開きます
+         *
+         * @return Spool
+         * @throws IOException 入出力エラーが発生した場合
+         */
+        public Spool build() throws IOException {
+            return new Spool(this.directory, this.segmentSize, this.maxBytes, this.force);
+        }
+    }
+
+    /**
+     * セグメントファイル
+     */
+    private static final class Segment {
+
+        /** セグメント番号 */
+        private final long id;
+
+        /** セグメントファイル */
+        private final Path path;
+
+        /** セグメントファイルのチャネル */
+        private final FileChannel channel;
+
+        /** セグメントファイルのサイズ */
+        private final int size;
+
+        /** 有効なレコードの終端 */
+        private int end;
+
+        /** レコード数 */
+        private int records;
+
+        Segment(long id, Path path, FileChannel channel, int size) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        /**
+         * 有効なレコードを検査し終端を求めます<br>
+         * チェックサムが一致しないレコード以降は書き込み途中で中断されたものとして無視します
+         *
+         * @throws IOException 入出力エラーが発生した場合
+         */
+        void scan() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            int offset = 0;
+            while (offset + HEADER <= this.size) {
+                header.clear();
+                this.channel.read(header, offset);
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (length <= 0 || offset + HEADER + length > this.size) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                this.channel.read(payload, offset + HEADER);
+                CRC32 crc = new CRC32();
+                crc.update(payload.array(), 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                offset += HEADER + length;
+                this.records++;
+            }
+            this.end = offset;
+        }
+
+        /**
+         * 指定位置以降のレコード数を数えます
+         *
+         * @param offset 位置
+         * @return レコード数
+         */
+        int remaining(int offset) {
+            if (offset == 0) {
+                return this.records;
+            }
+            ByteBuffer header = ByteBuffer.allocate(4);
+            int count = 0;
+            int position = offset;
+            try {
+                while (position < this.end) {
+                    header.clear();
+                    this.channel.read(header, position);
+                    header.flip();
+                    position += HEADER + header.getInt();
+                    count++;
+                }
+            } catch (IOException e) {
+            }
+            return count;
+        }
+    }
+}
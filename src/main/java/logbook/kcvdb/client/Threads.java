@@ -0,0 +1,63 @@
+package logbook.kcvdb.client;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 送信に使用するスレッドを作成します<br>
+ * 仮想スレッドは{@link VirtualThreads}で作成し、Java 21以降で実行した場合にのみ使用できます
+ *
+ */
+final class Threads {
+
+    private Threads() {
+    }
+
+    /**
+     * 仮想スレッドを使用できるか
+     *
+     * @return 仮想スレッドを使用できる場合true
+     */
+    static boolean isVirtualAvailable() {
+        return VirtualThreads.isAvailable();
+    }
+
+    /**
+     * バッチの構成と送信を行うスレッドを作成します
+     *
+     * @param threads スレッドの数(仮想スレッドを使用する場合は無視される)
+     * @param virtual 仮想スレッドを使用する場合true(使用できない場合は無視される)
+     * @param name スレッド名の接頭辞
+     * @return バッチの構成と送信を行うExecutorService
+     */
+    static ExecutorService io(int threads, boolean virtual, String name) {
+        if (virtual) {
+            Optional<ExecutorService> executor = VirtualThreads.executor(name);
+            if (executor.isPresent()) {
+                return executor.get();
+            }
+        }
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                daemon(name));
+    }
+
+    /**
+     * デーモンスレッドを作成するThreadFactoryを作成します
+     *
+     * @param name スレッド名の接頭辞
+     * @return ThreadFactory
+     */
+    static ThreadFactory daemon(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
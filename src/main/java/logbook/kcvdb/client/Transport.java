@@ -0,0 +1,95 @@
+package logbook.kcvdb.client;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.http.HttpEntity;
+
+/**
+ * 送信メッセージを送信先へ送信するトランスポートです<br>
+ * 送信メッセージの構成は{@link AbstractSender#httpEntity()}が行い、トランスポートは送信先への送信と応答の受信だけを行います。
+ * 既定では{@link ApacheTransport}を使用します<br>
+ * 応答を待たずに結果を返す実装では、{@link AbstractSender#start()}で開始した送信は応答を待つ間に送信用のスレッドを占有しません
+ *
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * 送信メッセージをPOSTで送信します<br>
+     * 送信メッセージは再送信のために何度でも書き込むことが出来ます
+     *
+     * @param uri 送信先URI
+     * @param entity 送信メッセージ
+     * @return 送信先の応答、送信できなかった場合は例外で完了する
+     */
+    CompletableFuture<Response> post(String uri, HttpEntity entity);
+
+    /**
+     * HEADリクエストを送信します<br>
+     * サーキットブレーカーが開いている間、送信先が応答するかの確認に使用されます
+     *
+     * @param uri 送信先URI
+     * @return 送信先の応答、送信できなかった場合は例外で完了する
+     */
+    CompletableFuture<Response> head(String uri);
+
+    /**
+     * 送信先への接続を事前に確立します<br>
+     * 既定では何もしません
+     *
+     * @param uri 送信先URI
+     * @param count 確立する接続の数
+     * @param timeout 接続のタイムアウト
+     * @return 確立できた接続の数
+     */
+    default int prewarm(String uri, int count, Duration timeout) {
+        return 0;
+    }
+
+    /**
+     * トランスポートを閉じます
+     */
+    @Override
+    void close();
+
+    /**
+     * 送信先の応答です
+     */
+    final class Response {
+
+        /** HTTPステータスコード */
+        private final int statusCode;
+
+        /** Retry-Afterヘッダーの値 */
+        private final String retryAfter;
+
+        /**
+         * @param statusCode HTTPステータスコード
+         * @param retryAfter Retry-Afterヘッダーの値、無い場合null
+         */
+        public Response(int statusCode, String retryAfter) {
+            this.statusCode = statusCode;
+            this.retryAfter = retryAfter;
+        }
+
+        /**
+         * HTTPステータスコードを取得します
+         *
+         * @return HTTPステータスコード
+         */
+        public int getStatusCode() {
+            return this.statusCode;
+        }
+
+        /**
+         * Retry-Afterヘッダーの値を取得します
+         *
+         * @return Retry-Afterヘッダーの値
+         */
+        public Optional<String> getRetryAfter() {
+            return Optional.ofNullable(this.retryAfter);
+        }
+    }
+}
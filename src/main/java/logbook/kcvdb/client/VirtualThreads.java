@@ -0,0 +1,35 @@
+package logbook.kcvdb.client;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 仮想スレッドを作成します<br>
+ * Java 21以降で実行した場合は、マルチリリースJARの META-INF/versions/21 にある同名のクラスに置き換わります。
+ * このクラスはJava 8で動作する実装で、仮想スレッドは使用できません
+ *
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * 仮想スレッドを使用できるか
+     *
+     * @return 仮想スレッドを使用できる場合true
+     */
+    static boolean isAvailable() {
+        return false;
+    }
+
+    /**
+     * タスクごとに仮想スレッドを作成するExecutorServiceを作成します
+     *
+     * @param name スレッド名の接頭辞
+     * @return 仮想スレッドを使用できないため常にOptional.empty()
+     */
+    static Optional<ExecutorService> executor(String name) {
+        return Optional.empty();
+    }
+}
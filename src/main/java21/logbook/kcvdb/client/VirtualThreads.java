@@ -0,0 +1,37 @@
+package logbook.kcvdb.client;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 仮想スレッドを作成します<br>
+ * Java 21以降で使用されるマルチリリースJARの実装です。バッチの構成と送信、再送信はタスクごとに作成する仮想スレッドで行われ、
+ * HTTPリクエストの応答を待つ間はキャリアスレッドを占有しません
+ *
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * 仮想スレッドを使用できるか
+     *
+     * @return 仮想スレッドを使用できる場合true
+     */
+    static boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * タスクごとに仮想スレッドを作成するExecutorServiceを作成します
+     *
+     * @param name スレッド名の接頭辞
+     * @return ExecutorService
+     */
+    static Optional<ExecutorService> executor(String name) {
+        // 同時に送信するバッチの数はセッションごとのwindowで制限されるため、スレッドの数は制限しない
+        return Optional.of(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory()));
+    }
+}
@@ -0,0 +1,92 @@
+package logbook.kcvdb.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ApiFilterTest {
+
+    /**
+     * requestUriのパスを取り出す
+     */
+    @Test
+    public void pathTest() {
+        assertEquals("/kcsapi/api_port/port", ApiFilter.path("http://203.104.209.71/kcsapi/api_port/port"));
+        assertEquals("/kcsapi/api_port/port", ApiFilter.path("http://203.104.209.71/kcsapi/api_port/port?a=1"));
+        assertEquals("/kcsapi/api_port/port", ApiFilter.path("/kcsapi/api_port/port"));
+        assertEquals("", ApiFilter.path("http://203.104.209.71"));
+    }
+
+    /**
+     * 完全一致を前方一致より、長い前方一致を短い前方一致より優先する
+     */
+    @Test
+    public void ruleTest() {
+        GzipSender sender = new GzipSender();
+        GzipSender other = new GzipSender();
+        ApiFilter filter = ApiFilter.createBuilder()
+                .drop("/kcsapi/api_get_member/*")
+                .accept("/kcsapi/api_get_member/ship2")
+                .route("/kcsapi/api_get_member/mapinfo*", other)
+                .drop("/kcsapi/api_port/port")
+                .build();
+
+        assertNull(filter.route(TestData.data("http://203.104.209.71/kcsapi/api_get_member/deck"), sender));
+        assertSame(sender, filter.route(TestData.data("http://203.104.209.71/kcsapi/api_get_member/ship2"), sender));
+        assertSame(other, filter.route(TestData.data("http://203.104.209.71/kcsapi/api_get_member/mapinfo"), sender));
+        assertNull(filter.route(TestData.data("http://203.104.209.71/kcsapi/api_port/port?api_verno=1"), sender));
+        assertSame(sender, filter.route(TestData.data("http://203.104.209.71/kcsapi/api_req_map/start"), sender));
+        assertSame(sender,
+                ApiFilter.acceptAll().route(TestData.data("http://203.104.209.71/kcsapi/api_port/port"), sender));
+    }
+
+    /**
+     * 指定した割合だけ受け入れる
+     */
+    @Test
+    public void sampleTest() {
+        GzipSender sender = new GzipSender();
+        ApiFilter filter = ApiFilter.createBuilder()
+                .sample("/kcsapi/api_port/port", 0.25)
+                .setDefaultRate(0)
+                .build();
+        ApiData port = TestData.data("http://203.104.209.71/kcsapi/api_port/port");
+        int accepted = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.route(port, sender) != null) {
+                accepted++;
+            }
+        }
+        assertTrue(String.valueOf(accepted), accepted > 2000 && accepted < 3000);
+        assertNull(filter.route(TestData.data("http://203.104.209.71/kcsapi/api_req_map/start"), sender));
+
+        try {
+            ApiFilter.createBuilder().sample("/kcsapi/api_port/port", 1.5);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * 除外されたApiDataは送信待ちキューに追加されず、振り分けたApiDataは振り分け先の送信待ちキューに追加される
+     */
+    @Test
+    public void senderTest() {
+        GzipSender sender = new GzipSender();
+        GzipSender other = new GzipSender();
+        // 振り分け先のApiFilterは適用されない
+        other.filter = ApiFilter.createBuilder().setDefaultRate(0).build();
+        sender.filter = ApiFilter.createBuilder()
+                .drop("/kcsapi/api_port/port")
+                .route("/kcsapi/api_get_member/*", other)
+                .build();
+
+        assertFalse(sender.offer(TestData.data("http://203.104.209.71/kcsapi/api_port/port")));
+        assertTrue(sender.offer(TestData.data("http://203.104.209.71/kcsapi/api_get_member/deck")));
+        assertTrue(sender.offer(TestData.data("http://203.104.209.71/kcsapi/api_req_map/start")));
+
+        assertEquals(1, sender.queue.size());
+        assertEquals(1, other.queue.size());
+        assertEquals("http://203.104.209.71/kcsapi/api_get_member/deck", other.queue.peek().getRequestUri());
+    }
+}
@@ -0,0 +1,50 @@
+package logbook.kcvdb.client;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    /**
+     * 連続して失敗すると開き、一定時間後に1回だけ確認を許可する
+     */
+    @Test
+    public void stateTest() {
+        AtomicLong clock = new AtomicLong();
+        CircuitBreaker breaker = new CircuitBreaker(3, Duration.ofSeconds(10), clock::get);
+
+        breaker.onFailure();
+        breaker.onFailure();
+        // 成功すると失敗回数はリセットされる
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // 一定時間が経過するまでは確認しない
+        clock.set(Duration.ofSeconds(9).toNanos());
+        assertFalse(breaker.tryProbe());
+
+        clock.set(Duration.ofSeconds(10).toNanos());
+        assertTrue(breaker.tryProbe());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // 確認中は他の確認を許可しない
+        assertFalse(breaker.tryProbe());
+
+        // 確認に失敗すると再び開く
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryProbe());
+
+        clock.set(Duration.ofSeconds(20).toNanos());
+        assertTrue(breaker.tryProbe());
+        breaker.onSuccess();
+        assertTrue(breaker.isClosed());
+    }
+}
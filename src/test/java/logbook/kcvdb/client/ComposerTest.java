@@ -3,18 +3,27 @@ package logbook.kcvdb.client;
 import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 
 import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
+import javax.json.stream.JsonGenerator;
 
 import org.junit.Test;
 
@@ -89,4 +98,360 @@ public class ComposerTest {
             }
         }
     }
+
+    @Test
+    public void testWriteBody() throws IOException {
+        ApiData data = ApiData.createBuilder()
+                .setStatusCode(200)
+                .setHttpDate("Sat, 07 May 2016 01:34:30 GMT")
+                .setLocalTime(
+                        ZonedDateTime.from(
+                                DateTimeFormatter.RFC_1123_DATE_TIME.parse("Sat, 07 May 2016 01:34:37 GMT")))
+                .setRequestBody("api_verno=1&api_token=0123abcd&api_port=1")
+                .setRequestUri("RequestUri")
+                .setResponseBody("svdata={\"api_result\":1,\"api_data\":\"\u3042\\\"\"}")
+                .build();
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        boolean[] closed = new boolean[1];
+        FilterOutputStream out = new FilterOutputStream(buffer) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        Composer.writeBody(Arrays.asList(data, data), out);
+
+        // 出力ストリームは閉じられない
+        assertFalse(closed[0]);
+
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(buffer.toByteArray()))) {
+            try (JsonReader reader = Json.createReader(in)) {
+                JsonArray array = reader.readArray();
+
+                assertEquals(2, array.size());
+                for (int i = 0; i < array.size(); i++) {
+                    JsonObject obj = array.getJsonObject(i);
+                    assertEquals("api_verno=1&api_port=1", obj.getString("RequestBody"));
+                    assertEquals(data.getResponseBody(), obj.getString("ResponseBody"));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCompression() throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            body.append("api_data").append(i % 10).append(',');
+        }
+        ApiData data = ApiData.createBuilder()
+                .setStatusCode(200)
+                .setHttpDate("Sat, 07 May 2016 01:34:30 GMT")
+                .setLocalTime(
+                        ZonedDateTime.from(
+                                DateTimeFormatter.RFC_1123_DATE_TIME.parse("Sat, 07 May 2016 01:34:37 GMT")))
+                .setRequestBody("RequestBody")
+                .setRequestUri("RequestUri")
+                .setResponseBody(body.toString())
+                .build();
+        List<ApiData> datas = Arrays.asList(data, data, data);
+
+        Compression huffman = Compression.of(Deflater.BEST_SPEED, Deflater.HUFFMAN_ONLY);
+        for (Compression compression : Arrays.asList(Compression.FAST, Compression.BEST, huffman)) {
+            // Deflaterを再利用しても同じ結果になる
+            byte[] first = this.write(datas, compression);
+            byte[] second = this.write(datas, compression);
+            assertArrayEquals(first, second);
+
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(first))) {
+                try (JsonReader reader = Json.createReader(in)) {
+                    JsonArray array = reader.readArray();
+                    assertEquals(3, array.size());
+                    assertEquals(body.toString(), array.getJsonObject(2).getString("ResponseBody"));
+                }
+            }
+        }
+        assertTrue(this.write(datas, Compression.BEST).length < this.write(datas, huffman).length);
+    }
+
+    @Test
+    public void testParallel() throws IOException {
+        List<ApiData> datas = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            datas.add(ApiData.createBuilder()
+                    .setStatusCode(200)
+                    .setHttpDate("Sat, 07 May 2016 01:34:30 GMT")
+                    .setLocalTime(
+                            ZonedDateTime.from(
+                                    DateTimeFormatter.RFC_1123_DATE_TIME.parse("Sat, 07 May 2016 01:34:37 GMT")))
+                    .setRequestBody("api_token=0123abcd&api_port=" + i)
+                    .setRequestUri("RequestUri" + i)
+                    .setResponseBody("ResponseBody" + i)
+                    .build());
+        }
+        ParallelCompression parallel = ParallelCompression.createBuilder()
+                .setThreshold(0)
+                .setChunkSize(datas.get(0).size() * 7)
+                .build();
+
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        Composer.writeBody(datas, Redactor.defaults(), Compression.DEFAULT, single);
+        ByteArrayOutputStream multi = new ByteArrayOutputStream();
+        Composer.writeBody(datas, Redactor.defaults(), Compression.DEFAULT, parallel, multi);
+
+        // 複数のgzipメンバーを連結したストリームを展開すると1つのJSON配列になる
+        assertEquals(this.inflate(single.toByteArray()), this.inflate(multi.toByteArray()));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(multi.toByteArray()))) {
+            try (JsonReader reader = Json.createReader(in)) {
+                JsonArray array = reader.readArray();
+                assertEquals(100, array.size());
+                assertEquals("RequestUri99", array.getJsonObject(99).getString("RequestUri"));
+                assertEquals("api_port=99", array.getJsonObject(99).getString("RequestBody"));
+            }
+        }
+
+        // 閾値未満の場合は分割しない
+        ParallelCompression large = ParallelCompression.createBuilder()
+                .setThreshold(Long.MAX_VALUE)
+                .build();
+        ByteArrayOutputStream unsplit = new ByteArrayOutputStream();
+        Composer.writeBody(datas, Redactor.defaults(), Compression.DEFAULT, large, unsplit);
+        assertArrayEquals(single.toByteArray(), unsplit.toByteArray());
+    }
+
+    @Test
+    public void testPrepare() throws IOException {
+        List<ApiData> datas = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            datas.add(ApiData.createBuilder()
+                    .setStatusCode(200)
+                    .setHttpDate("Sat, 07 May 2016 01:34:30 GMT")
+                    .setLocalTime(
+                            ZonedDateTime.from(
+                                    DateTimeFormatter.RFC_1123_DATE_TIME.parse("Sat, 07 May 2016 01:34:37 GMT")))
+                    .setRequestBody("api_token=0123abcd&api_port=" + i)
+                    .setRequestUri("RequestUri" + i)
+                    .setResponseBody("svdata={\"api_data\":\"\u3042" + i + "\"}")
+                    .build());
+        }
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Composer.writeBody(datas, Redactor.defaults(), Compression.DEFAULT, expected);
+
+        // 一部のAPIデータだけを事前に変換する
+        for (int i = 0; i < datas.size(); i += 2) {
+            long size = datas.get(i).size();
+            Composer.prepare(datas.get(i), Redactor.defaults());
+            assertNotNull(datas.get(i).getFragment());
+            // 変換したJSONもメモリ使用量に計上される
+            assertTrue(datas.get(i).size() > size);
+        }
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        Composer.writeBody(datas, Redactor.defaults(), Compression.DEFAULT, actual);
+        assertEquals(this.inflate(expected.toByteArray()), this.inflate(actual.toByteArray()));
+
+        ParallelCompression parallel = ParallelCompression.createBuilder()
+                .setThreshold(0)
+                .setChunkSize(1)
+                .build();
+        ByteArrayOutputStream multi = new ByteArrayOutputStream();
+        Composer.writeBody(datas, Redactor.defaults(), Compression.DEFAULT, parallel, multi);
+        assertEquals(this.inflate(expected.toByteArray()), this.inflate(multi.toByteArray()));
+
+        // 異なるRedactorで送信する場合は事前に変換したJSONを使用しない
+        Redactor none = Redactor.createBuilder().build();
+        ByteArrayOutputStream unredacted = new ByteArrayOutputStream();
+        Composer.writeBody(datas, none, Compression.DEFAULT, unredacted);
+        assertTrue(this.inflate(unredacted.toByteArray()).contains("api_token=0123abcd"));
+    }
+
+    @Test
+    public void testEscape() throws IOException {
+        String text = "\u0000\u001f\b\t\n\f\r\"\\/\u007f\u3042\ud83d\ude00end";
+        ApiData data = ApiData.createBuilder()
+                .setStatusCode(200)
+                .setHttpDate("Sat, 07 May 2016 01:34:30 GMT")
+                .setLocalTime(
+                        ZonedDateTime.from(
+                                DateTimeFormatter.RFC_1123_DATE_TIME.parse("Sat, 07 May 2016 01:34:37 GMT")))
+                .setRequestBody("api_verno=1&text=" + text)
+                .setRequestUri("RequestUri" + text)
+                .setResponseBody("svdata=" + text)
+                .build();
+
+        // javax.json の JsonGenerator と同じJSONを出力する
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = Json.createGenerator(writer)) {
+            generator.writeStartArray()
+                    .writeStartObject()
+                    .write("RequestUri", data.getRequestUri())
+                    .write("RequestBody", data.getRequestBody())
+                    .write("ResponseBody", data.getResponseBody())
+                    .write("StatusCode", data.getStatusCode())
+                    .write("HttpDate", data.getHttpDate())
+                    .write("LocalTime", "Sat, 7 May 2016 01:34:37 GMT")
+                    .writeEnd()
+                    .writeEnd();
+        }
+        Redactor none = Redactor.createBuilder().build();
+        for (BodyStorage storage : BodyStorage.values()) {
+            ApiData stored = ApiData.createBuilder()
+                    .setStatusCode(data.getStatusCode())
+                    .setHttpDate(data.getHttpDate())
+                    .setLocalTime(data.getLocalTime())
+                    .setRequestBody(data.getRequestBody())
+                    .setRequestUri(data.getRequestUri())
+                    .setResponseBody(data.getResponseBody())
+                    .setBodyStorage(storage)
+                    .build();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Composer.writeBody(Arrays.asList(stored), none, Compression.DEFAULT, out);
+            assertEquals(storage.name(), writer.toString(), this.inflate(out.toByteArray()));
+        }
+    }
+
+    @Test
+    public void testBodyStorage() throws IOException {
+        StringBuilder body = new StringBuilder("svdata=");
+        for (int i = 0; i < 1000; i++) {
+            body.append("{\"api_id\":").append(i % 10).append(",\"api_name\":\"\u5439\u96ea\"},");
+        }
+        byte[] utf8 = body.toString().getBytes(StandardCharsets.UTF_8);
+
+        List<ApiData> datas = new ArrayList<>();
+        for (BodyStorage storage : BodyStorage.values()) {
+            datas.add(ApiData.createBuilder()
+                    .setStatusCode(200)
+                    .setHttpDate("Sat, 07 May 2016 01:34:30 GMT")
+                    .setLocalTime(
+                            ZonedDateTime.from(
+                                    DateTimeFormatter.RFC_1123_DATE_TIME.parse("Sat, 07 May 2016 01:34:37 GMT")))
+                    .setRequestBody("api_verno=1".getBytes(StandardCharsets.UTF_8))
+                    .setRequestUri("RequestUri")
+                    .setResponseBody(utf8)
+                    .setBodyStorage(storage)
+                    .build());
+        }
+        ApiData string = datas.get(BodyStorage.STRING.ordinal());
+        ApiData bytes = datas.get(BodyStorage.UTF8.ordinal());
+        ApiData compressed = datas.get(BodyStorage.COMPRESSED.ordinal());
+
+        // 形式に関わらず同じ値を取得できる
+        for (ApiData data : datas) {
+            assertEquals(body.toString(), data.getResponseBody());
+            assertEquals("api_verno=1", data.getRequestBody());
+        }
+        // バイト列で保持するとメモリ使用量が小さくなる
+        assertTrue(bytes.size() < string.size());
+        assertTrue(compressed.size() < bytes.size());
+
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(Composer.composeBody(datas)))) {
+            try (JsonReader reader = Json.createReader(in)) {
+                JsonArray array = reader.readArray();
+                assertEquals(3, array.size());
+                for (int i = 0; i < array.size(); i++) {
+                    assertEquals(body.toString(), array.getJsonObject(i).getString("ResponseBody"));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBodySource() throws IOException {
+        String body = "svdata={\"api_result\":1,\"api_data\":\"\u5439\u96ea\\\"\n\"}";
+        byte[] utf8 = body.getBytes(StandardCharsets.UTF_8);
+        ApiData.ApiDataBuilder builder = ApiData.createBuilder()
+                .setStatusCode(200)
+                .setHttpDate("Sat, 07 May 2016 01:34:30 GMT")
+                .setLocalTime(
+                        ZonedDateTime.from(
+                                DateTimeFormatter.RFC_1123_DATE_TIME.parse("Sat, 07 May 2016 01:34:37 GMT")))
+                .setRequestUri("RequestUri")
+                .setRequestBody("api_verno=1&api_token=0123abcd");
+        ApiData expected = builder.setResponseBody(body).build();
+
+        // バッファの位置から上限までがボディになる
+        ByteBuffer heap = ByteBuffer.allocate(utf8.length + 8);
+        heap.position(4);
+        heap.put(utf8);
+        heap.position(4).limit(4 + utf8.length);
+        ByteBuffer direct = ByteBuffer.allocateDirect(utf8.length);
+        direct.put(utf8).flip();
+        int[] opened = new int[1];
+        BodySource source = () -> {
+            opened[0]++;
+            return new ByteArrayInputStream(utf8);
+        };
+
+        List<ApiData> datas = new ArrayList<>();
+        for (BodyStorage storage : BodyStorage.values()) {
+            builder.setBodyStorage(storage);
+            datas.add(builder.setResponseBody(heap).build());
+            datas.add(builder.setResponseBody(direct).build());
+            datas.add(builder.setResponseBody(body.getBytes("Shift_JIS"), Charset.forName("Shift_JIS")).build());
+            datas.add(builder.setResponseBody(utf8, StandardCharsets.UTF_8).build());
+        }
+        datas.add(builder.setResponseBody(source).build());
+        // 設定したバッファの位置は変更されない
+        assertEquals(4, heap.position());
+        assertEquals(0, direct.position());
+        // BodySourceは必要になるまで読み込まない
+        assertEquals(0, opened[0]);
+
+        String json = this.inflate(this.write(Arrays.asList(expected), Compression.DEFAULT));
+        String element = json.substring(1, json.length() - 1);
+        StringBuilder array = new StringBuilder("[");
+        for (int i = 0; i < datas.size(); i++) {
+            assertEquals(body, datas.get(i).getResponseBody());
+            array.append(i == 0 ? "" : ",").append(element);
+        }
+        assertEquals(array.append(']').toString(), this.inflate(this.write(datas, Compression.DEFAULT)));
+        assertEquals(2, opened[0]);
+    }
+
+    /**
+     * 保持する形式を指定しない場合、UTF-8のバイト列はStringにデコードせずに保持する
+     */
+    @Test
+    public void testDefaultBodyStorage() {
+        byte[] utf8 = "svdata={\"api_result\":1}".getBytes(StandardCharsets.UTF_8);
+        ApiData.ApiDataBuilder builder = ApiData.createBuilder()
+                .setStatusCode(200)
+                .setHttpDate("Sat, 07 May 2016 01:34:30 GMT")
+                .setLocalTime(ZonedDateTime.now())
+                .setRequestUri("RequestUri");
+
+        ApiData bytes = builder.setRequestBody(ByteBuffer.wrap(utf8)).setResponseBody(utf8).build();
+        assertTrue(bytes.requestBody() instanceof Body.BufferBody);
+        assertTrue(bytes.responseBody() instanceof Body.BufferBody);
+        ApiData charset = builder.setResponseBody(utf8, StandardCharsets.UTF_8).build();
+        assertTrue(charset.responseBody() instanceof Body.BufferBody);
+        ApiData string = builder.setRequestBody("api_verno=1").setResponseBody("svdata={}").build();
+        assertTrue(string.requestBody() instanceof Body.StringBody);
+        assertTrue(string.responseBody() instanceof Body.StringBody);
+
+        // 明示的に指定した場合は指定した形式で保持する
+        ApiData decoded = builder.setBodyStorage(BodyStorage.STRING).setResponseBody(ByteBuffer.wrap(utf8)).build();
+        assertTrue(decoded.responseBody() instanceof Body.StringBody);
+        assertEquals("svdata={\"api_result\":1}", decoded.getResponseBody());
+    }
+
+    private String inflate(byte[] gzip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                out.write(buffer, 0, len);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private byte[] write(List<ApiData> datas, Compression compression) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Composer.writeBody(datas, Redactor.defaults(), compression, out);
+        return out.toByteArray();
+    }
 }
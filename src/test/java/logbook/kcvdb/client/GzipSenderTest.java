@@ -4,14 +4,33 @@ import static org.junit.Assert.*;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonReader;
+
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.message.BasicHeader;
 import org.junit.Test;
 
 public class GzipSenderTest {
@@ -22,28 +41,48 @@ public class GzipSenderTest {
     @Test
     public void retryTest() {
         GzipSender sender = new GzipSender();
-        // 1回目の送信失敗
-        assertEquals(true, sender.retryHandler());
-        // 1回目の再送信待ち時間
-        assertEquals(1000, sender.retryInterval());
-        // 2回目の送信失敗
-        assertEquals(true, sender.retryHandler());
-        // 2回目の再送信待ち時間
-        assertEquals(21000, sender.retryInterval());
-        // 3回目の送信失敗
-        assertEquals(true, sender.retryHandler());
-        // 3回目の再送信待ち時間
-        assertEquals(41000, sender.retryInterval());
-        // 4回目の送信失敗
-        assertEquals(true, sender.retryHandler());
-        // 4回目の再送信待ち時間
-        assertEquals(61000, sender.retryInterval());
-        // 5回目の送信失敗
-        assertEquals(true, sender.retryHandler());
-        // 5回目の再送信待ち時間
-        assertEquals(81000, sender.retryInterval());
-        // 5回目の再送信に失敗すると再送信しない
-        assertEquals(false, sender.retryHandler());
+        RetryPolicy policy = sender.retryPolicy;
+        // 待機時間は指数的に増加し、半分までの範囲で揺らされる
+        long expected = 1000;
+        for (int attempts = 1; attempts <= 5; attempts++) {
+            assertTrue(policy.canRetry(attempts));
+            long delay = policy.delay(attempts);
+            assertTrue(delay <= expected);
+            assertTrue(delay >= expected / 2);
+            expected *= 2;
+        }
+        // 6回目の送信に失敗すると再送信しない
+        assertFalse(policy.canRetry(6));
+        // 待機時間は60秒を超えない
+        assertTrue(policy.delay(20) <= 60000);
+
+        RetryPolicy fixed = RetryPolicy.createBuilder().setJitter(0).build();
+        assertEquals(1000, fixed.delay(1));
+        assertEquals(2000, fixed.delay(2));
+        assertEquals(4000, fixed.delay(3));
+        assertEquals(60000, fixed.delay(10));
+
+        // 5xxと429は再送信し、それ以外の4xxは再送信しない
+        assertTrue(policy.isRetryable(500));
+        assertTrue(policy.isRetryable(503));
+        assertTrue(policy.isRetryable(429));
+        assertFalse(policy.isRetryable(400));
+        assertFalse(policy.isRetryable(413));
+
+        // Retry-After
+        assertEquals(120000, RetryPolicy.parseRetryAfter("120", 0));
+        assertEquals(5000, RetryPolicy.parseRetryAfter(" Sat, 07 May 2016 01:34:35 GMT",
+                ZonedDateTime.parse("2016-05-07T01:34:30Z").toInstant().toEpochMilli()));
+        assertEquals(-1, RetryPolicy.parseRetryAfter("invalid", 0));
+        // 大きな秒数は桁あふれせず、Retry-Afterに従って待機する最大の時間で制限される
+        assertEquals(Long.MAX_VALUE, RetryPolicy.parseRetryAfter("9223372036854775807", 0));
+        assertEquals(Long.MAX_VALUE, RetryPolicy.parseRetryAfter("99999999999999999999", 0));
+        assertEquals(0, RetryPolicy.parseRetryAfter("-9223372036854775807", 0));
+        assertEquals(600000, policy.retryAfterDelay("9223372036854775807", 0));
+        assertEquals(120000, policy.retryAfterDelay("120", 0));
+        RetryPolicy capped = RetryPolicy.createBuilder().setMaxRetryAfter(Duration.ofSeconds(30)).build();
+        assertEquals(30000, capped.retryAfterDelay("120", 0));
+        assertEquals(-1, policy.retryAfterDelay("invalid", 0));
     }
 
     /**
@@ -62,17 +101,20 @@ public class GzipSenderTest {
         doReturn(mockStatusLine).when(mockResponse).getStatusLine();
 
         GzipSender sender = spy(new GzipSender());
+        sender.retryPolicy = this.fastRetry();
         HttpClient client = spy(sender.client());
         doReturn(mockResponse).when(client).execute(anyObject());
 
         doReturn(client).when(sender).client();
 
-        sender.add(this.get());
-        sender.add(this.get());
+        sender.add(TestData.get());
+        sender.add(TestData.get());
         sender.send();
 
         assertEquals(0, sender.queue.size());
 
+        // 5xxは再送信される
+        verify(client, times(3)).execute(anyObject());
         verify(sender).failure();
     }
 
@@ -84,18 +126,309 @@ public class GzipSenderTest {
     @Test
     public void failureTest2() throws Exception {
         GzipSender sender = spy(new GzipSender());
+        sender.retryPolicy = this.fastRetry();
         HttpClient client = spy(sender.client());
         doThrow(new UnknownHostException()).when(client).execute(anyObject());
 
         doReturn(client).when(sender).client();
 
-        sender.add(this.get());
-        sender.add(this.get());
+        sender.add(TestData.get());
+        sender.add(TestData.get());
         sender.send();
 
         assertEquals(0, sender.queue.size());
 
+        // IOExceptionは再送信される
+        verify(client, times(3)).execute(anyObject());
+        verify(sender).failure();
+    }
+
+    /**
+     * サーバーが返すHTTPステータスを400と仮定
+     *
+     * @throws Exception
+     */
+    @Test
+    public void clientErrorTest() throws Exception {
+        StatusLine mockStatusLine = mock(StatusLine.class);
+        doReturn(400).when(mockStatusLine).getStatusCode();
+
+        HttpResponse mockResponse = mock(CloseableHttpResponse.class);
+        doReturn(mockStatusLine).when(mockResponse).getStatusLine();
+
+        GzipSender sender = spy(new GzipSender());
+        sender.retryPolicy = this.fastRetry();
+        HttpClient client = spy(sender.client());
+        doReturn(mockResponse).when(client).execute(anyObject());
+
+        doReturn(client).when(sender).client();
+
+        sender.add(TestData.get());
+        sender.send();
+
+        // 4xxは再送信されず、サーキットブレーカーも開かない
+        verify(client, times(1)).execute(anyObject());
         verify(sender).failure();
+        assertTrue(sender.circuitBreaker.isClosed());
+    }
+
+    /**
+     * サーバーがRetry-After付きの429を返した後に200を返すと仮定
+     *
+     * @throws Exception
+     */
+    @Test
+    public void tooManyRequestsTest() throws Exception {
+        StatusLine tooManyRequests = mock(StatusLine.class);
+        doReturn(429).when(tooManyRequests).getStatusCode();
+        HttpResponse mockResponse1 = mock(CloseableHttpResponse.class);
+        doReturn(tooManyRequests).when(mockResponse1).getStatusLine();
+        doReturn(new BasicHeader("Retry-After", "0")).when(mockResponse1).getFirstHeader("Retry-After");
+
+        StatusLine ok = mock(StatusLine.class);
+        doReturn(200).when(ok).getStatusCode();
+        HttpResponse mockResponse2 = mock(CloseableHttpResponse.class);
+        doReturn(ok).when(mockResponse2).getStatusLine();
+
+        GzipSender sender = spy(new GzipSender());
+        sender.retryPolicy = this.fastRetry();
+        HttpClient client = spy(sender.client());
+        doReturn(mockResponse1).doReturn(mockResponse2).when(client).execute(anyObject());
+
+        doReturn(client).when(sender).client();
+
+        UUID sessionId = sender.sessionId;
+        sender.add(TestData.get());
+        sender.send();
+
+        // 429は再送信され、セッションは再生成されない
+        verify(client, times(2)).execute(anyObject());
+        verify(sender, never()).failure();
+        assertEquals(sessionId, sender.sessionId);
+        assertEquals(0, sender.queue.size());
+    }
+
+    /**
+     * 送信先が停止している間は送信せず、送信先を確認してから送信を再開する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void circuitBreakerTest() throws Exception {
+        StatusLine mockStatusLine = mock(StatusLine.class);
+        doReturn(200).when(mockStatusLine).getStatusCode();
+
+        HttpResponse mockResponse = mock(CloseableHttpResponse.class);
+        doReturn(mockStatusLine).when(mockResponse).getStatusLine();
+
+        GzipSender sender = spy(new GzipSender());
+        sender.waitTime = Duration.ZERO;
+        sender.retryPolicy = this.fastRetry();
+        sender.circuitBreaker = CircuitBreaker.createBuilder()
+                .setFailureThreshold(2)
+                .setOpenDuration(Duration.ofMillis(200))
+                .build();
+        HttpClient client = spy(sender.client());
+        doThrow(new UnknownHostException()).when(client).execute(anyObject());
+
+        doReturn(client).when(sender).client();
+
+        sender.add(TestData.get());
+        sender.send();
+        // 2回目の失敗で開き、再送信を打ち切る
+        verify(client, times(2)).execute(anyObject());
+        assertEquals(CircuitBreaker.State.OPEN, sender.circuitBreaker.getState());
+
+        // 開いている間は送信しない
+        sender.add(TestData.get());
+        sender.send();
+        verify(client, times(2)).execute(anyObject());
+        assertEquals(1, sender.queue.size());
+
+        // 一定時間後にHEADリクエストで確認してから送信する
+        TimeUnit.MILLISECONDS.sleep(300);
+        doReturn(mockResponse).when(client).execute(anyObject());
+        sender.send();
+        verify(client, times(1)).execute(isA(HttpHead.class));
+        verify(sender).success();
+        assertTrue(sender.circuitBreaker.isClosed());
+        assertEquals(0, sender.queue.size());
+    }
+
+    /**
+     * 件数の上限を超えるApiDataは複数のバッチに分けて送信する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void maxRecordsTest() throws Exception {
+        StatusLine mockStatusLine = mock(StatusLine.class);
+        doReturn(200).when(mockStatusLine).getStatusCode();
+
+        HttpResponse mockResponse = mock(CloseableHttpResponse.class);
+        doReturn(mockStatusLine).when(mockResponse).getStatusLine();
+
+        GzipSender sender = spy(new GzipSender());
+        sender.waitTime = Duration.ZERO;
+        sender.flushPolicy = FlushPolicy.createBuilder()
+                .setMaxRecords(2)
+                .build();
+        HttpClient client = spy(sender.client());
+        doReturn(mockResponse).when(client).execute(anyObject());
+
+        doReturn(client).when(sender).client();
+
+        for (int i = 0; i < 5; i++) {
+            sender.add(TestData.get());
+        }
+        sender.send();
+
+        verify(client, times(3)).execute(anyObject());
+        verify(sender, times(3)).success();
+        assertEquals(0, sender.queue.size());
+    }
+
+    /**
+     * 送信先が413を返した場合は分割して送信し直す
+     *
+     * @throws Exception
+     */
+    @Test
+    public void splitTest() throws Exception {
+        StatusLine okStatusLine = mock(StatusLine.class);
+        doReturn(200).when(okStatusLine).getStatusCode();
+        HttpResponse okResponse = mock(CloseableHttpResponse.class);
+        doReturn(okStatusLine).when(okResponse).getStatusLine();
+
+        StatusLine tooLargeStatusLine = mock(StatusLine.class);
+        doReturn(413).when(tooLargeStatusLine).getStatusCode();
+        HttpResponse tooLargeResponse = mock(CloseableHttpResponse.class);
+        doReturn(tooLargeStatusLine).when(tooLargeResponse).getStatusLine();
+
+        GzipSender sender = spy(new GzipSender());
+        HttpClient client = spy(sender.client());
+        doReturn(tooLargeResponse).doReturn(okResponse).when(client).execute(anyObject());
+
+        doReturn(client).when(sender).client();
+
+        for (int i = 0; i < 4; i++) {
+            sender.add(TestData.get());
+        }
+        sender.send();
+
+        // 4件で413、2件ずつ2回に分けて送信する
+        verify(client, times(3)).execute(anyObject());
+        verify(sender, times(1)).success();
+        verify(sender, never()).failure();
+
+        // 以降のバッチは分割後のサイズに抑えられる
+        for (int i = 0; i < 4; i++) {
+            sender.add(TestData.get());
+        }
+        assertEquals(2, sender.drain().size());
+    }
+
+    /**
+     * 分割して送信している間にセッションが再生成されても、残りの送信メッセージは元のセッションIDで送信する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void splitSessionTest() throws Exception {
+        try (StandInServer server = StandInServer.start()) {
+            server.enqueue(StandInServer.Fault.status(413));
+            GzipSender sender = server.sender();
+            sender.waitTime = Duration.ZERO;
+            Transport apache = new ApacheTransport(sender.client());
+            AtomicInteger posts = new AtomicInteger();
+            sender.setTransport(new Transport() {
+                @Override
+                public CompletableFuture<Response> post(String uri, HttpEntity entity) {
+                    if (posts.incrementAndGet() == 2) {
+                        // 分割した1つ目の送信メッセージを送信する時に再生成する
+                        sender.regenerateSession();
+                    }
+                    return apache.post(uri, entity);
+                }
+
+                @Override
+                public CompletableFuture<Response> head(String uri) {
+                    return apache.head(uri);
+                }
+
+                @Override
+                public void close() {
+                    apache.close();
+                }
+            });
+            UUID sessionId = sender.sessionId;
+            for (int i = 0; i < 4; i++) {
+                sender.add(TestData.port("id=" + i));
+            }
+            sender.send();
+            sender.close();
+            apache.close();
+
+            assertEquals(3, posts.get());
+            assertEquals(4, server.received().size());
+            for (StandInServer.Received received : server.received()) {
+                assertEquals(sessionId, received.sessionId);
+            }
+            assertNotEquals(sessionId, sender.sessionId);
+        }
+    }
+
+    /**
+     * 少量のApiDataは待機する時間だけまとめてから送信する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void lingerTest() throws Exception {
+        StatusLine mockStatusLine = mock(StatusLine.class);
+        doReturn(200).when(mockStatusLine).getStatusCode();
+
+        HttpResponse mockResponse = mock(CloseableHttpResponse.class);
+        doReturn(mockStatusLine).when(mockResponse).getStatusLine();
+
+        GzipSender sender = spy(new GzipSender());
+        sender.waitTime = Duration.ZERO;
+        sender.flushPolicy = FlushPolicy.createBuilder()
+                .setMaxRecords(3)
+                .setLinger(Duration.ofMillis(500))
+                .build();
+        HttpClient client = spy(sender.client());
+        AtomicInteger calls = new AtomicInteger();
+        doAnswer(invocation -> {
+            calls.incrementAndGet();
+            return mockResponse;
+        }).when(client).execute(anyObject());
+
+        doReturn(client).when(sender).client();
+
+        sender.start();
+        sender.add(TestData.get());
+        sender.add(TestData.get());
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertEquals(0, calls.get());
+        // 待機する時間が過ぎると送信される
+        this.awaitCalls(calls, 1);
+        assertEquals(0, sender.queue.size());
+
+        // 件数の上限に達すると直ちに送信される
+        sender.add(TestData.get());
+        sender.add(TestData.get());
+        sender.add(TestData.get());
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertEquals(2, calls.get());
+        sender.close();
+    }
+
+    private RetryPolicy fastRetry() {
+        return RetryPolicy.createBuilder()
+                .setBaseDelay(Duration.ofMillis(10))
+                .setMaxAttempts(3)
+                .build();
     }
 
     /**
@@ -119,8 +452,8 @@ public class GzipSenderTest {
 
         doReturn(client).when(sender).client();
 
-        sender.add(this.get());
-        sender.add(this.get());
+        sender.add(TestData.get());
+        sender.add(TestData.get());
         sender.send();
 
         assertEquals(0, sender.queue.size());
@@ -129,20 +462,219 @@ public class GzipSenderTest {
     }
 
     /**
-     * テスト用の送信データ
+     * バックグラウンドで送信し、送信の結果を受け取る
+     *
+     * @throws Exception
+     */
+    @Test
+    public void dispatcherTest() throws Exception {
+        StatusLine mockStatusLine = mock(StatusLine.class);
+        doReturn(200).when(mockStatusLine).getStatusCode();
+
+        HttpResponse mockResponse = mock(CloseableHttpResponse.class);
+        doReturn(mockStatusLine).when(mockResponse).getStatusLine();
+
+        GzipSender sender = spy(new GzipSender());
+        HttpClient client = spy(sender.client());
+        doReturn(mockResponse).when(client).execute(anyObject());
+
+        doReturn(client).when(sender).client();
+
+        sender.start();
+        sender.add(TestData.get());
+        sender.add(TestData.get());
+        SendResult result = sender.flush().get(10, TimeUnit.SECONDS);
+
+        assertTrue(result.isSuccess());
+        assertEquals(200, result.getStatusCode());
+        assertEquals(2, result.getRecords());
+        assertEquals(0, sender.queue.size());
+
+        // 送信するApiDataが無い場合
+        result = sender.flush().get(10, TimeUnit.SECONDS);
+        assertTrue(result.isSuccess());
+        assertEquals(0, result.getRecords());
+
+        // 閉じる時に残りのApiDataを送信する
+        sender.add(TestData.get());
+        sender.close();
+        assertEquals(0, sender.queue.size());
+        verify(sender, times(2)).success();
+    }
+
+    /**
+     * 複数のバッチを同時に送信し、送信を開始した順に結果を確定する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void windowTest() throws Exception {
+        StatusLine mockStatusLine = mock(StatusLine.class);
+        doReturn(200).when(mockStatusLine).getStatusCode();
+
+        HttpResponse mockResponse = mock(CloseableHttpResponse.class);
+        doReturn(mockStatusLine).when(mockResponse).getStatusLine();
+
+        GzipSender sender = spy(new GzipSender());
+        sender.window = 3;
+        sender.waitTime = Duration.ZERO;
+        HttpClient client = spy(sender.client());
+        // 最初のバッチだけ応答を遅らせる
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (calls.incrementAndGet() == 1) {
+                latch.await(10, TimeUnit.SECONDS);
+            }
+            return mockResponse;
+        }).when(client).execute(anyObject());
+
+        doReturn(client).when(sender).client();
+
+        sender.start();
+        sender.add(TestData.get());
+        CompletableFuture<SendResult> first = sender.flush();
+        this.awaitCalls(calls, 1);
+        sender.add(TestData.get());
+        CompletableFuture<SendResult> second = sender.flush();
+        this.awaitCalls(calls, 2);
+        sender.add(TestData.get());
+        CompletableFuture<SendResult> third = sender.flush();
+        this.awaitCalls(calls, 3);
+
+        // 後のバッチの送信が終わっても最初のバッチが完了するまで確定しない
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(second.isDone());
+        assertFalse(third.isDone());
+        verify(sender, never()).success();
+
+        latch.countDown();
+        assertTrue(first.get(10, TimeUnit.SECONDS).isSuccess());
+        assertTrue(second.get(10, TimeUnit.SECONDS).isSuccess());
+        assertTrue(third.get(10, TimeUnit.SECONDS).isSuccess());
+        verify(sender, times(3)).success();
+        sender.close();
+    }
+
+    private void awaitCalls(AtomicInteger calls, int expected) throws InterruptedException {
+        for (int i = 0; i < 200 && calls.get() < expected; i++) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        assertEquals(expected, calls.get());
+    }
+
+    /**
+     * 送信データはチャンク形式で送信され、再送信のために繰り返し書き込める
      *
-     * @return ApiData
-     */
-    private ApiData get() {
-        return ApiData.createBuilder()
-                .setStatusCode(200)
-                .setHttpDate("Sat, 07 May 2016 01:34:30 GMT")
-                .setLocalTime(
-                        ZonedDateTime.from(
-                                DateTimeFormatter.RFC_1123_DATE_TIME.parse("Sat, 07 May 2016 01:34:37 GMT")))
-                .setRequestBody("RequestBody")
-                .setRequestUri("RequestUri")
-                .setResponseBody("ResponseBody")
+     * @throws Exception
+     */
+    @Test
+    public void httpEntityTest() throws Exception {
+        GzipSender sender = new GzipSender();
+        sender.add(TestData.get());
+        sender.add(TestData.get());
+
+        HttpEntity entity = sender.httpEntity().get();
+
+        assertTrue(entity.isChunked());
+        assertTrue(entity.isRepeatable());
+        assertEquals(-1, entity.getContentLength());
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        entity.writeTo(first);
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        entity.writeTo(second);
+        assertArrayEquals(first.toByteArray(), second.toByteArray());
+
+        // body パートのgzipを展開する
+        byte[] bytes = first.toByteArray();
+        String text = new String(bytes, StandardCharsets.ISO_8859_1);
+        int start = text.indexOf("\r\n\r\n", text.indexOf("name=\"body\"")) + 4;
+        int end = text.lastIndexOf("\r\n--");
+        try (GZIPInputStream in = new GZIPInputStream(
+                new ByteArrayInputStream(Arrays.copyOfRange(bytes, start, end)))) {
+            try (JsonReader reader = Json.createReader(in)) {
+                JsonArray array = reader.readArray();
+                assertEquals(2, array.size());
+            }
+        }
+        sender.close();
+    }
+
+    /**
+     * 応答を待たずに結果を返すトランスポートでは、1つのスレッドで複数のバッチを同時に送信し、Retry-Afterに従い再送信する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void transportTest() throws Exception {
+        ScheduledExecutorService server = Executors.newSingleThreadScheduledExecutor();
+        AtomicInteger posts = new AtomicInteger();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        Transport transport = new Transport() {
+
+            @Override
+            public CompletableFuture<Response> post(String uri, HttpEntity entity) {
+                CompletableFuture<Response> future = new CompletableFuture<>();
+                boolean first = posts.incrementAndGet() == 1;
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                server.schedule(() -> {
+                    inFlight.decrementAndGet();
+                    future.complete(first ? new Response(503, "0") : new Response(200, null));
+                }, 100, TimeUnit.MILLISECONDS);
+                return future;
+            }
+
+            @Override
+            public CompletableFuture<Response> head(String uri) {
+                return CompletableFuture.completedFuture(new Response(200, null));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        SenderEngine engine = SenderEngine.createBuilder()
+                .setThreads(1)
                 .build();
+        GzipSender sender = new GzipSender(engine.getConnectionPool());
+        sender.setTransport(transport);
+        sender.waitTime = Duration.ZERO;
+        sender.window = 4;
+        sender.flushPolicy = FlushPolicy.createBuilder()
+                .setMaxRecords(1)
+                .build();
+        sender.start(engine);
+        for (int i = 0; i < 4; i++) {
+            sender.add(TestData.get());
+        }
+        sender.close();
+        engine.close();
+        server.shutdownNow();
+
+        // 1件目は再送信する
+        assertEquals(5, posts.get());
+        assertEquals(4, maxInFlight.get());
+        assertEquals(4, sender.getMetrics().getRecordsSent());
+    }
+
+    /**
+     * 送信するまで接続プールの接続マネージャーとスレッドを作成しない
+     *
+     * @throws Exception
+     */
+    @Test
+    public void lazyPoolTest() throws Exception {
+        try (StandInServer server = StandInServer.start()) {
+            GzipSender sender = server.sender();
+            assertFalse(sender.pool.isStarted());
+            sender.add(TestData.port("id=0"));
+            assertFalse(sender.pool.isStarted());
+            sender.send();
+            assertTrue(sender.pool.isStarted());
+            sender.close();
+            assertEquals(1, server.received().size());
+        }
     }
 }
@@ -0,0 +1,211 @@
+package logbook.kcvdb.client;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpEntity;
+import org.junit.Test;
+
+public class LaneTest {
+
+    /**
+     * 完全一致を前方一致より、長い前方一致を短い前方一致より優先し、レーンを優先度の高い順に並べる
+     */
+    @Test
+    public void selectTest() {
+        Lane battle = Lane.createBuilder()
+                .setName("battle")
+                .addPath("/kcsapi/api_req_sortie/*")
+                .addPath("/kcsapi/api_port/port")
+                .setPriority(10)
+                .build();
+        Lane member = Lane.createBuilder()
+                .setName("member")
+                .addPath("/kcsapi/api_get_member/*")
+                .setPriority(-1)
+                .build();
+        Lane master = Lane.createBuilder()
+                .setName("master")
+                .addPath("/kcsapi/api_get_member/ship*")
+                .addPath("/kcsapi/api_start2/getData")
+                .setPriority(-10)
+                .build();
+        Lanes lanes = new Lanes(new Lane[] { master, battle, member });
+
+        assertSame(battle, lanes.select("http://203.104.209.71/kcsapi/api_req_sortie/battle"));
+        assertSame(battle, lanes.select("http://203.104.209.71/kcsapi/api_port/port?api_verno=1"));
+        assertSame(member, lanes.select("http://203.104.209.71/kcsapi/api_get_member/deck"));
+        assertSame(master, lanes.select("http://203.104.209.71/kcsapi/api_get_member/ship2"));
+        assertSame(master, lanes.select("/kcsapi/api_start2/getData"));
+        assertNull(lanes.select("http://203.104.209.71/kcsapi/api_req_map/start"));
+        assertArrayEquals(new Lane[] { battle, member, master }, lanes.lanes());
+        assertEquals(1, lanes.high());
+    }
+
+    /**
+     * 優先度が0より大きいレーン、送信クラスの送信待ちキュー、優先度が0以下のレーンの順に取り出す
+     */
+    @Test
+    public void drainTest() {
+        GzipSender sender = new GzipSender();
+        sender.flushPolicy = FlushPolicy.createBuilder()
+                .setMaxRecords(2)
+                .build();
+        sender.setLanes(
+                Lane.createBuilder()
+                        .setName("bulk")
+                        .addPath("/bulk/*")
+                        .setPriority(-1)
+                        .build(),
+                Lane.createBuilder()
+                        .setName("high")
+                        .addPath("/high/*")
+                        .setPriority(1)
+                        .build());
+        sender.add(TestData.data("/bulk/1"));
+        sender.add(TestData.data("/default/1"));
+        sender.add(TestData.data("/high/1"));
+
+        List<ApiData> datas = sender.drain();
+        assertEquals(2, datas.size());
+        assertEquals("/high/1", datas.get(0).getRequestUri());
+        assertEquals("/default/1", datas.get(1).getRequestUri());
+        datas = sender.drain();
+        assertEquals(1, datas.size());
+        assertEquals("/bulk/1", datas.get(0).getRequestUri());
+        assertEquals(0, sender.getMetrics().getQueueDepth());
+    }
+
+    /**
+     * 直ちに送信するレーンは待機せずに送信し、待機するレーンは待機する時間が過ぎるまでまとめる
+     *
+     * @throws Exception
+     */
+    @Test
+    public void immediateTest() throws Exception {
+        AtomicInteger posts = new AtomicInteger();
+        GzipSender sender = new GzipSender();
+        sender.setTransport(transport(posts));
+        sender.waitTime = Duration.ZERO;
+        Lane bulk = Lane.createBuilder()
+                .setName("bulk")
+                .addPath("/bulk/*")
+                .setPriority(-1)
+                .setFlushPolicy(FlushPolicy.createBuilder()
+                        .setLinger(Duration.ofMillis(1500))
+                        .build())
+                .build();
+        Lane high = Lane.createBuilder()
+                .setName("high")
+                .addPath("/high/*")
+                .setPriority(1)
+                .setImmediate(true)
+                .build();
+        sender.setLanes(bulk, high);
+        sender.start();
+
+        sender.add(TestData.data("/bulk/1"));
+        sender.add(TestData.data("/bulk/2"));
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertEquals(0, posts.get());
+
+        // 待機中のレーンのApiDataは含めない
+        sender.add(TestData.data("/high/1"));
+        await(posts, 1);
+        assertEquals(0, high.getQueue().size());
+        assertEquals(2, bulk.getQueue().size());
+
+        // 待機する時間が過ぎるとまとめて送信される
+        await(posts, 2);
+        assertEquals(0, bulk.getQueue().size());
+        assertEquals(3, sender.getMetrics().getRecordsSent());
+        sender.close();
+    }
+
+    /**
+     * レーンの送信待ちキューの容量を超えた場合はそのレーンのApiDataだけを破棄する
+     */
+    @Test
+    public void overflowTest() {
+        GzipSender sender = new GzipSender();
+        Lane bulk = Lane.createBuilder()
+                .setName("bulk")
+                .addPath("/bulk/*")
+                .setQueue(SendQueue.createBuilder()
+                        .setMaxBytes(TestData.data("/bulk/0").size() * 2)
+                        .setOverflowPolicy(OverflowPolicy.DROP_NEWEST)
+                        .build())
+                .build();
+        sender.setLanes(bulk);
+
+        for (int i = 0; i < 5; i++) {
+            sender.add(TestData.data("/bulk/" + i));
+        }
+        assertTrue(sender.offer(TestData.data("/default/1")));
+
+        assertEquals(2, bulk.getQueue().size());
+        assertEquals(1, sender.queue.size());
+        assertEquals(3, sender.getMetrics().getRecordsDropped());
+        assertEquals(3, sender.getMetrics().getQueueDepth());
+    }
+
+    /**
+     * セッションを再生成した時に残す設定のレーンのApiDataは破棄しない
+     */
+    @Test
+    public void regenerateTest() {
+        GzipSender sender = new GzipSender();
+        Lane retained = Lane.createBuilder()
+                .setName("retained")
+                .addPath("/retained/*")
+                .setRetainOnRegenerate(true)
+                .build();
+        Lane discarded = Lane.createBuilder()
+                .setName("discarded")
+                .addPath("/discarded/*")
+                .build();
+        sender.setLanes(retained, discarded);
+        sender.add(TestData.data("/retained/1"));
+        sender.add(TestData.data("/discarded/1"));
+        sender.add(TestData.data("/default/1"));
+
+        sender.regenerateSession();
+
+        assertEquals(1, retained.getQueue().size());
+        assertEquals(0, discarded.getQueue().size());
+        assertEquals(0, sender.queue.size());
+    }
+
+    private static Transport transport(AtomicInteger posts) {
+        return new Transport() {
+
+            @Override
+            public CompletableFuture<Response> post(String uri, HttpEntity entity) {
+                posts.incrementAndGet();
+                return CompletableFuture.completedFuture(new Response(200, null));
+            }
+
+            @Override
+            public CompletableFuture<Response> head(String uri) {
+                return CompletableFuture.completedFuture(new Response(200, null));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static void await(AtomicInteger calls, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (calls.get() < expected && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(expected, calls.get());
+    }
+}
@@ -0,0 +1,264 @@
+package logbook.kcvdb.client;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link StandInServer}へ指定した速度でApiDataを送り続け、スループット、遅延、ヒープ使用量、欠損を計測します<br>
+ * 設定はシステムプロパティで変更できます。長時間の耐久試験は次のように実行します
+ *
+ * <pre>
+ * mvn test -Dtest=LoadHarnessTest -Dload.duration=PT30M -Dload.rate=2000 -Dload.errorRate=0.05
+ * </pre>
+ *
+ * 多数のセッションでのスレッド数とスループットは、{@link SenderEngine}のスレッドの種類を変えて比較します
+ *
+ * <pre>
+ * mvn test -Dtest=LoadHarnessTest -Dload.senders=500 -Dload.engine=8
+ * mvn test -Dtest=LoadHarnessTest -Dload.senders=500 -Dload.engine=8 -Dload.virtual=true
+ * </pre>
+ *
+ */
+class LoadHarness {
+
+    /** 送信クラスの数 */
+    int senders = Integer.getInteger("load.senders", 2);
+
+    /** 全ての送信クラスに追加するApiDataの数(1秒あたり) */
+    int rate = Integer.getInteger("load.rate", 1000);
+
+    /** 追加し続ける時間 */
+    Duration duration = Duration.parse(System.getProperty("load.duration", "PT5S"));
+
+    /** レスポンスボディのおおよそのサイズ(バイト) */
+    int bodySize = Integer.getInteger("load.bodySize", 4096);
+
+    /** サーバーの応答の遅延 */
+    Duration latency = Duration.parse(System.getProperty("load.latency", "PT0.02S"));
+
+    /** サーバーが500を返す割合 */
+    double errorRate = Double.parseDouble(System.getProperty("load.errorRate", "0.0"));
+
+    /** 同時に送信するバッチの最大数 */
+    int window = Integer.getInteger("load.window", 2);
+
+    /** 送信クラスで共有するSenderEngineのスレッドの数(0の場合は送信クラスごとに{@link AbstractSender#start()}する) */
+    int engine = Integer.getInteger("load.engine", 0);
+
+    /** SenderEngineで仮想スレッドを使用するか(Java 21以降で有効) */
+    boolean virtual = Boolean.getBoolean("load.virtual");
+
+    /**
+     * 計測します
+     *
+     * @return 計測結果
+     * @throws Exception 計測できなかった場合
+     */
+    Result run() throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int baseThreads = threads.getThreadCount();
+        AtomicLong peakHeap = new AtomicLong();
+        AtomicLong peakThreads = new AtomicLong();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> {
+            peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+            peakThreads.accumulateAndGet(threads.getThreadCount(), Math::max);
+        }, 0, 100, TimeUnit.MILLISECONDS);
+
+        Result result = new Result();
+        SenderEngine engine = null;
+        if (this.engine > 0) {
+            engine = SenderEngine.createBuilder()
+                    .setThreads(this.engine)
+                    .setVirtualThreads(this.virtual)
+                    .build();
+            result.virtual = engine.isVirtualThreads();
+        }
+        try (StandInServer server = StandInServer.start()) {
+            server.setLatency(this.latency);
+            server.setErrorRate(this.errorRate);
+            List<GzipSender> senders = new ArrayList<>();
+            for (int i = 0; i < this.senders; i++) {
+                GzipSender sender = engine != null ? server.sender(engine.getConnectionPool()) : server.sender();
+                sender.window = this.window;
+                sender.waitTime = Duration.ZERO;
+                sender.retryPolicy = RetryPolicy.createBuilder()
+                        .setBaseDelay(Duration.ofMillis(50))
+                        .setMaxDelay(Duration.ofSeconds(1))
+                        .setMaxAttempts(10)
+                        .build();
+                sender.flushPolicy = FlushPolicy.createBuilder()
+                        .setLinger(Duration.ofMillis(200))
+                        .build();
+                if (engine != null) {
+                    sender.start(engine);
+                } else {
+                    sender.start();
+                }
+                senders.add(sender);
+            }
+
+            String body = body(this.bodySize);
+            long perSender = Math.max(1, this.rate / this.senders);
+            long interval = TimeUnit.SECONDS.toNanos(1) / perSender;
+            long start = System.nanoTime();
+            long end = start + this.duration.toNanos();
+            CountDownLatch done = new CountDownLatch(senders.size());
+            AtomicLong produced = new AtomicLong();
+            for (int i = 0; i < senders.size(); i++) {
+                GzipSender sender = senders.get(i);
+                String prefix = "http://203.104.209.71/kcsapi/api_port/port?sender=" + i + "&id=";
+                Thread producer = new Thread(() -> {
+                    try {
+                        long next = System.nanoTime();
+                        for (long id = 0; next < end; id++) {
+                            sender.add(ApiData.createBuilder()
+                                    .setStatusCode(200)
+                                    .setHttpDate("Sat, 07 May 2016 01:34:30 GMT")
+                                    .setLocalTime(ZonedDateTime.now())
+                                    .setRequestBody("api_verno=1&api_token=0123abcd")
+                                    .setRequestUri(prefix + id + "&t=" + System.currentTimeMillis())
+                                    .setResponseBody(body)
+                                    .build());
+                            produced.incrementAndGet();
+                            next += interval;
+                            LockSupport.parkNanos(next - System.nanoTime());
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }, "kcvdb-load-producer-" + i);
+                producer.setDaemon(true);
+                producer.start();
+            }
+            done.await();
+            for (GzipSender sender : senders) {
+                sender.close();
+            }
+            if (engine != null) {
+                engine.close();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            Histogram latency = new Histogram();
+            Set<String> unique = new HashSet<>();
+            long duplicates = 0;
+            for (StandInServer.Received received : server.received()) {
+                String uri = received.data.getString("RequestUri");
+                if (!unique.add(uri)) {
+                    duplicates++;
+                }
+                // LocalTimeは秒単位のため、追加した時刻はURIに含めている
+                latency.record(received.receivedAt - Long.parseLong(uri.substring(uri.lastIndexOf("&t=") + 3)));
+            }
+            long dropped = 0;
+            for (GzipSender sender : senders) {
+                dropped += sender.getMetrics().getRecordsDropped();
+            }
+            result.produced = produced.get();
+            result.delivered = unique.size();
+            result.duplicates = duplicates;
+            result.dropped = dropped;
+            result.invalid = server.invalid();
+            result.bytes = server.bytes();
+            result.seconds = elapsed / 1e9;
+            result.latency = latency;
+        } finally {
+            sampler.shutdownNow();
+            if (engine != null) {
+                engine.close();
+            }
+        }
+        result.peakHeap = peakHeap.get();
+        // 追加に使用したスレッドを除く
+        result.peakThreads = Math.max(0, peakThreads.get() - baseThreads - this.senders);
+        return result;
+    }
+
+    private static String body(int size) {
+        StringBuilder sb = new StringBuilder(size + 64).append("svdata={\"api_result\":1,\"api_data\":[");
+        for (int i = 0; sb.length() < size; i++) {
+            sb.append(i == 0 ? "" : ",").append("{\"api_id\":").append(i).append(",\"api_name\":\"吹雪\"}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(new LoadHarness().run());
+    }
+
+    /**
+     * 計測結果
+     */
+    static final class Result {
+
+        /** 追加したApiDataの数 */
+        long produced;
+
+        /** サーバーに届いたApiDataの数(重複を除く) */
+        long delivered;
+
+        /** 重複して届いたApiDataの数 */
+        long duplicates;
+
+        /** 送信待ちキューの容量を超えたため破棄されたApiDataの数 */
+        long dropped;
+
+        /** 検証に失敗したリクエストの数 */
+        long invalid;
+
+        /** サーバーが受信した圧縮後の合計サイズ */
+        long bytes;
+
+        /** 経過時間(秒) */
+        double seconds;
+
+        /** ApiDataを追加してからサーバーに届くまでの時間(ミリ秒) */
+        Histogram latency;
+
+        /** ヒープ使用量の最大値(バイト) */
+        long peakHeap;
+
+        /** 計測中に増えたプラットフォームスレッドの数の最大値(追加に使用したスレッドを除く) */
+        long peakThreads;
+
+        /** 仮想スレッドで送信したか */
+        boolean virtual;
+
+        /**
+         * 追加したが届かなかったApiDataの数
+         *
+         * @return 欠損数
+         */
+        long lost() {
+            return this.produced - this.delivered;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("produced=%d delivered=%d lost=%d (dropped=%d) duplicates=%d invalid=%d%n"
+                    + "throughput=%.1f records/s %.1f KiB/s%n"
+                    + "latency(ms) mean=%.1f p50=%d p99=%d max=%d%n"
+                    + "peak heap=%.1f MiB peak threads=%d%s",
+                    this.produced, this.delivered, this.lost(), this.dropped, this.duplicates, this.invalid,
+                    this.delivered / this.seconds, this.bytes / 1024.0 / this.seconds,
+                    this.latency.getMean(), this.latency.getPercentile(0.5), this.latency.getPercentile(0.99),
+                    this.latency.getMax(),
+                    this.peakHeap / 1024.0 / 1024.0, this.peakThreads, this.virtual ? " (virtual)" : "");
+        }
+    }
+}
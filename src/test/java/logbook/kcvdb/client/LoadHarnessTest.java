@@ -0,0 +1,36 @@
+package logbook.kcvdb.client;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+public class LoadHarnessTest {
+
+    /**
+     * 短時間の負荷をかけ、5xxが返される場合も欠損や重複が無いことを確認する<br>
+     * 時間や速度はシステムプロパティ(load.duration等)で変更できます
+     *
+     * @throws Exception
+     */
+    @Test
+    public void loadTest() throws Exception {
+        LoadHarness harness = new LoadHarness();
+        if (System.getProperty("load.duration") == null) {
+            harness.duration = Duration.ofSeconds(2);
+        }
+        if (System.getProperty("load.errorRate") == null) {
+            harness.errorRate = 0.05;
+        }
+        LoadHarness.Result result = harness.run();
+
+        assertTrue(result.produced > 0);
+        assertTrue(result.bytes > 0);
+        assertEquals(result.delivered + result.duplicates, result.latency.getCount());
+        assertEquals(0, result.invalid);
+        assertEquals(0, result.dropped);
+        assertEquals(0, result.lost());
+        assertEquals(0, result.duplicates);
+    }
+}
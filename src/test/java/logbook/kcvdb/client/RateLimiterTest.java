@@ -0,0 +1,94 @@
+package logbook.kcvdb.client;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * 送信の頻度の制限
+ */
+public class RateLimiterTest {
+
+    /**
+     * バースト容量まで続けて許可し、その後は補充されるまで待機する時間を返す
+     */
+    @Test
+    public void requestTest() {
+        RateLimiter limiter = RateLimiter.createBuilder()
+                .setRequestsPerSecond(2)
+                .setRequestBurst(3)
+                .build();
+        assertEquals(0, limiter.tryAcquire());
+        assertEquals(0, limiter.tryAcquire());
+        assertEquals(0, limiter.tryAcquire());
+        long wait = limiter.tryAcquire();
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(300));
+        assertTrue(wait <= TimeUnit.MILLISECONDS.toNanos(500));
+        // 取得できなかった場合は消費しない
+        assertTrue(limiter.tryAcquire() <= wait);
+    }
+
+    /**
+     * 待機して許可を取得する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void acquireTest() throws Exception {
+        RateLimiter limiter = RateLimiter.interval(Duration.ofMillis(200));
+        long start = System.nanoTime();
+        limiter.acquire();
+        limiter.acquire();
+        limiter.acquire();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(350));
+    }
+
+    /**
+     * 送信したサイズが補充を超えると、補充されるまで許可しない
+     */
+    @Test
+    public void byteTest() {
+        RateLimiter limiter = RateLimiter.createBuilder()
+                .setBytesPerSecond(1000)
+                .build();
+        assertEquals(0, limiter.tryAcquire());
+        limiter.record(600);
+        assertEquals(0, limiter.tryAcquire());
+        limiter.record(900);
+        long wait = limiter.tryAcquire();
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(400));
+        assertTrue(wait <= TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    /**
+     * 送信先に制限された場合は指定された時間止め、補充を遅くして成功するたびに戻す
+     */
+    @Test
+    public void throttleTest() {
+        RateLimiter unlimited = RateLimiter.interval(Duration.ZERO);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, unlimited.tryAcquire());
+        }
+        unlimited.onThrottled(1000);
+        long wait = unlimited.tryAcquire();
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(900));
+        assertTrue(wait <= TimeUnit.SECONDS.toNanos(1));
+
+        RateLimiter limiter = RateLimiter.createBuilder()
+                .setRequestsPerSecond(10)
+                .build();
+        assertEquals(0, limiter.tryAcquire());
+        long normal = limiter.tryAcquire();
+        limiter.onThrottled(-1);
+        long slow = limiter.tryAcquire();
+        // 補充が半分の速さになる
+        assertTrue(slow > normal * 3 / 2);
+        for (int i = 0; i < 16; i++) {
+            limiter.onSuccess();
+        }
+        assertTrue(limiter.tryAcquire() <= normal);
+    }
+}
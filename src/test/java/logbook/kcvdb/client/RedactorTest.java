@@ -0,0 +1,91 @@
+package logbook.kcvdb.client;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RedactorTest {
+
+    /** 置き換え前の正規表現 */
+    private static final String REGEX = "&api(_|%5F)token=[0-9a-f]+|api(_|%5F)token=[0-9a-f]+&?";
+
+    /**
+     * 正規表現と同じ結果になる
+     */
+    @Test
+    public void testEquivalence() {
+        String[] bodies = {
+                "",
+                "api_token=0123abcd",
+                "api_token=0123abcd&api_verno=1",
+                "api_verno=1&api_token=0123abcd",
+                "api_verno=1&api_token=0123abcd&api_port=1",
+                "api%5Ftoken=0123abcd&api%5Fverno=1",
+                "api%5Fverno=1&api%5Ftoken=0123abcd",
+                "api%5fverno=1&api%5ftoken=0123abcd",
+                "api_token=&api_verno=1",
+                "api_token=XYZ&api_verno=1",
+                "api_token=0123ABCD&api_verno=1",
+                "api_token=0123abcdXYZ&api_verno=1",
+                "&&api_token=0123&&",
+                "api_token=01&api_token=23&api_token=45",
+                "xapi_token=0123",
+                "api_tokenn=0123",
+                "api_toke=0123",
+                "apiapi_token=0123",
+                "api_token=0123api_token=4567",
+                "%5F%api%5Ftoken=0&",
+                "api_verno=1&api_deck_id=1&api_ship_id=1",
+                "日本語&api_token=abc&日本語",
+        };
+        Redactor redactor = Redactor.defaults();
+        for (String body : bodies) {
+            assertEquals(body, body.replaceAll(REGEX, ""), redactor.redact(body));
+        }
+    }
+
+    /**
+     * ランダムな入力でも正規表現と同じ結果になる
+     */
+    @Test
+    public void testRandomEquivalence() {
+        String[] tokens = { "api", "_", "%5F", "%5f", "token", "=", "&", "0", "9", "a", "f", "g", "A", "x", "%" };
+        Random random = new Random(0);
+        Redactor redactor = Redactor.defaults();
+        for (int n = 0; n < 100000; n++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int i = 0; i < length; i++) {
+                sb.append(tokens[random.nextInt(tokens.length)]);
+            }
+            String body = sb.toString();
+            assertEquals(body, body.replaceAll(REGEX, ""), redactor.redact(body));
+        }
+    }
+
+    /**
+     * 取り除くパラメータが無い場合は同じインスタンスを返す
+     */
+    @Test
+    public void testNoAllocation() {
+        String body = "api_verno=1&api_port=1";
+        assertSame(body, Redactor.defaults().redact(body));
+    }
+
+    /**
+     * 追加したパラメータも取り除かれる
+     */
+    @Test
+    public void testAdditionalParameter() {
+        Redactor redactor = Redactor.createBuilder()
+                .addDefaults()
+                .addParameter("api_secret")
+                .build();
+
+        assertEquals("api_verno=1&api_port=1",
+                redactor.redact("api_verno=1&api_token=0123abcd&api_secret=Zz9-_&api_port=1"));
+        assertEquals("api_verno=1", redactor.redact("api%5Fsecret=Zz9&api_verno=1"));
+    }
+}
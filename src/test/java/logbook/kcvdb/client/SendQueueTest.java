@@ -0,0 +1,306 @@
+package logbook.kcvdb.client;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class SendQueueTest {
+
+    /**
+     * 容量を超える場合は古いApiDataから破棄する
+     */
+    @Test
+    public void dropOldestTest() {
+        SendQueue queue = SendQueue.createBuilder()
+                .setMaxBytes(TestData.get(0).size() * 2)
+                .setOverflowPolicy(OverflowPolicy.DROP_OLDEST)
+                .build();
+
+        assertTrue(queue.offer(TestData.get(1)));
+        assertTrue(queue.offer(TestData.get(2)));
+        assertTrue(queue.offer(TestData.get(3)));
+
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getDropped());
+        assertEquals("RequestUri2", queue.poll().getRequestUri());
+        assertEquals("RequestUri3", queue.poll().getRequestUri());
+        assertEquals(0, queue.getBytes());
+    }
+
+    /**
+     * 容量を超える場合は追加しようとしたApiDataを破棄する
+     */
+    @Test
+    public void dropNewestTest() {
+        SendQueue queue = SendQueue.createBuilder()
+                .setMaxBytes(TestData.get(0).size() * 2)
+                .setOverflowPolicy(OverflowPolicy.DROP_NEWEST)
+                .build();
+
+        assertTrue(queue.offer(TestData.get(1)));
+        assertTrue(queue.offer(TestData.get(2)));
+        assertFalse(queue.offer(TestData.get(3)));
+
+        assertEquals(2, queue.size());
+        assertEquals("RequestUri1", queue.poll().getRequestUri());
+    }
+
+    /**
+     * 容量を超える場合は例外をスローする
+     */
+    @Test(expected = IllegalStateException.class)
+    public void rejectTest() {
+        SendQueue queue = SendQueue.createBuilder()
+                .setMaxBytes(TestData.get(0).size())
+                .setOverflowPolicy(OverflowPolicy.REJECT)
+                .build();
+
+        assertTrue(queue.offer(TestData.get(1)));
+        queue.offer(TestData.get(2));
+    }
+
+    /**
+     * 容量が空くまで待機する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void blockTest() throws Exception {
+        SendQueue queue = SendQueue.createBuilder()
+                .setMaxBytes(TestData.get(0).size())
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .setTimeout(Duration.ofMillis(100))
+                .build();
+
+        assertTrue(queue.offer(TestData.get(1)));
+        // 待機時間を過ぎた場合は追加されない
+        assertFalse(queue.offer(TestData.get(2)));
+
+        SendQueue waiting = SendQueue.createBuilder()
+                .setMaxBytes(TestData.get(0).size())
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .setTimeout(Duration.ofSeconds(10))
+                .build();
+        waiting.offer(TestData.get(1));
+        CompletableFuture<Boolean> future = CompletableFuture.supplyAsync(() -> waiting.offer(TestData.get(2)));
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(future.isDone());
+        waiting.poll();
+        assertTrue(future.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 複数のキューでメモリ使用量の制限を共有する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void governorTest() throws Exception {
+        MemoryGovernor governor = new MemoryGovernor(TestData.get(0).size() * 2);
+        SendQueue queue1 = SendQueue.createBuilder()
+                .setOverflowPolicy(OverflowPolicy.DROP_NEWEST)
+                .setMemoryGovernor(governor)
+                .build();
+        SendQueue queue2 = SendQueue.createBuilder()
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .setTimeout(Duration.ofSeconds(10))
+                .setMemoryGovernor(governor)
+                .build();
+
+        assertTrue(queue1.offer(TestData.get(1)));
+        assertTrue(queue2.offer(TestData.get(2)));
+        assertFalse(queue1.offer(TestData.get(3)));
+        assertEquals(governor.getMaxBytes(), governor.getUsed());
+
+        // 他のキューがメモリを解放するまで待機する
+        CompletableFuture<Boolean> future = CompletableFuture.supplyAsync(() -> queue2.offer(TestData.get(4)));
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(future.isDone());
+        queue1.clear();
+        assertTrue(future.get(5, TimeUnit.SECONDS));
+        assertEquals(2, queue2.size());
+    }
+
+    /**
+     * 件数とサイズの上限までまとめて取り出す
+     */
+    @Test
+    public void drainTest() {
+        SendQueue queue = SendQueue.createBuilder().build();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.offer(TestData.get(i)));
+        }
+        long size = TestData.get(0).size();
+
+        List<ApiData> sink = new ArrayList<>();
+        assertEquals(size * 2, queue.drain(sink, 2, Long.MAX_VALUE));
+        assertEquals(2, sink.size());
+        assertEquals("RequestUri0", sink.get(0).getRequestUri());
+
+        sink.clear();
+        // 1件目は上限を超えていても取り出す
+        assertEquals(size, queue.drain(sink, 10, 1));
+        assertEquals("RequestUri2", sink.get(0).getRequestUri());
+
+        sink.clear();
+        assertEquals(size * 2, queue.drain(sink, 10, Long.MAX_VALUE));
+        assertEquals(2, sink.size());
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.getBytes());
+        assertEquals(0, queue.drain(sink, 10, Long.MAX_VALUE));
+    }
+
+    /**
+     * 追加した後に送信データのJSONを構成しても、取り出す時は追加した時のサイズを差し引く
+     */
+    @Test
+    public void sizeTest() {
+        MemoryGovernor governor = new MemoryGovernor(Long.MAX_VALUE);
+        SendQueue queue = SendQueue.createBuilder()
+                .setMemoryGovernor(governor)
+                .build();
+        ApiData data1 = TestData.get(1);
+        ApiData data2 = TestData.get(2);
+        long size = data1.size();
+        assertTrue(queue.offer(data1));
+        assertTrue(queue.offer(data2));
+
+        Composer.prepare(data1, Redactor.defaults());
+        Composer.prepare(data2, Redactor.defaults());
+        assertTrue(data1.size() > size);
+        assertEquals(size * 2, queue.getBytes());
+
+        assertSame(data1, queue.poll());
+        List<ApiData> sink = new ArrayList<>();
+        assertEquals(size, queue.drain(sink, 10, Long.MAX_VALUE));
+        assertEquals(0, queue.getBytes());
+        assertEquals(0, governor.getUsed());
+    }
+
+    /**
+     * 複数のスレッドから追加し1つのスレッドで取り出しても、欠落も重複もしない
+     *
+     * @throws Exception
+     */
+    @Test
+    public void concurrentTest() throws Exception {
+        int records = 50000;
+        for (int producers : new int[] { 1, 2, 4, 8 }) {
+            MemoryGovernor governor = new MemoryGovernor(TestData.get(0).size() * 1024);
+            SendQueue queue = SendQueue.createBuilder()
+                    .setOverflowPolicy(OverflowPolicy.BLOCK)
+                    .setTimeout(Duration.ofSeconds(10))
+                    .setMemoryGovernor(governor)
+                    .build();
+            ApiData[] datas = new ApiData[records];
+            for (int i = 0; i < records; i++) {
+                datas[i] = TestData.get(i);
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(producers);
+            try {
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int p = 0; p < producers; p++) {
+                    int from = p;
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        for (int i = from; i < records; i += producers) {
+                            assertTrue(queue.offer(datas[i]));
+                        }
+                        return null;
+                    }));
+                }
+                BitSet seen = new BitSet(records);
+                List<ApiData> sink = new ArrayList<>();
+                long begin = System.nanoTime();
+                start.countDown();
+                int received = 0;
+                while (received < records) {
+                    sink.clear();
+                    queue.drain(sink, 100, Long.MAX_VALUE);
+                    for (ApiData data : sink) {
+                        int i = Integer.parseInt(data.getRequestUri().substring("RequestUri".length()));
+                        assertFalse(seen.get(i));
+                        seen.set(i);
+                    }
+                    received += sink.size();
+                    assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(30));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                assertEquals(records, seen.cardinality());
+                assertEquals(0, queue.size());
+                assertEquals(0, queue.getBytes());
+                assertEquals(0, governor.getUsed());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * 追加中に空にしても、空にする前のApiDataが残らず容量が正しく戻る
+     *
+     * @throws Exception
+     */
+    @Test
+    public void clearTest() throws Exception {
+        MemoryGovernor governor = new MemoryGovernor(Long.MAX_VALUE);
+        SendQueue queue = SendQueue.createBuilder()
+                .setMemoryGovernor(governor)
+                .build();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            AtomicBoolean running = new AtomicBoolean(true);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < 4; p++) {
+                futures.add(executor.submit(() -> {
+                    int i = 0;
+                    while (running.get()) {
+                        queue.offer(TestData.get(i++ % 100));
+                    }
+                    return null;
+                }));
+            }
+            for (int i = 0; i < 200; i++) {
+                queue.clear();
+                List<ApiData> sink = new ArrayList<>();
+                queue.drain(sink, 10, Long.MAX_VALUE);
+            }
+            running.set(false);
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            // クリアと同時に追加されたApiDataは取り出さなくても破棄され、残りの合計サイズと一致する
+            long bytes = 0;
+            int records = 0;
+            for (ApiData data : queue) {
+                bytes += data.size();
+                records++;
+            }
+            assertEquals(records, queue.size());
+            assertEquals(bytes, queue.getBytes());
+            assertEquals(bytes, governor.getUsed());
+            queue.clear();
+            assertEquals(0, queue.size());
+            assertEquals(0, queue.getBytes());
+            assertEquals(0, governor.getUsed());
+            assertNull(queue.poll());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
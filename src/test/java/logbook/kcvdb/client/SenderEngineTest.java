@@ -0,0 +1,209 @@
+package logbook.kcvdb.client;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * 複数のセッションでスレッドと接続プールを共有して送信する
+ */
+public class SenderEngineTest {
+
+    /**
+     * 多数のセッションを少数のスレッドで送信し、セッションごとのセッションIDで届く
+     *
+     * @throws Exception
+     */
+    @Test
+    public void sessionTest() throws Exception {
+        try (StandInServer server = StandInServer.start()) {
+            int threads = countThreads("kcvdb-engine-io");
+            SenderEngine engine = SenderEngine.createBuilder()
+                    .setThreads(2)
+                    .build();
+            List<GzipSender> senders = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                GzipSender sender = server.sender(engine.getConnectionPool());
+                sender.waitTime = Duration.ZERO;
+                sender.start(engine);
+                senders.add(sender);
+            }
+            assertEquals(20, engine.getSessionCount());
+
+            // セッションの再生成は他のセッションに影響しない
+            UUID before = senders.get(1).sessionId;
+            senders.get(0).regenerateSession();
+            assertEquals(before, senders.get(1).sessionId);
+
+            List<CompletableFuture<SendResult>> results = new ArrayList<>();
+            for (int i = 0; i < senders.size(); i++) {
+                for (int j = 0; j < 5; j++) {
+                    senders.get(i).add(TestData.port("session=" + i + "&id=" + j));
+                }
+                results.add(senders.get(i).flush());
+            }
+            for (CompletableFuture<SendResult> result : results) {
+                assertTrue(result.get(10, TimeUnit.SECONDS).isSuccess());
+            }
+            assertTrue(countThreads("kcvdb-engine-io") <= threads + 2);
+
+            // 閉じていないセッションはSenderEngineを閉じる時に残りのApiDataを送信する
+            senders.get(0).add(TestData.port("session=0&id=5"));
+            engine.close();
+            assertEquals(0, engine.getSessionCount());
+
+            Set<UUID> sessionIds = new HashSet<>();
+            Set<String> uris = new HashSet<>();
+            for (StandInServer.Received received : server.received()) {
+                sessionIds.add(received.sessionId);
+                uris.add(received.data.getString("RequestUri"));
+            }
+            assertEquals(20, sessionIds.size());
+            assertEquals(101, uris.size());
+        }
+    }
+
+    /**
+     * 送信待ちが多いセッションがスレッドを占有せず、他のセッションの送信が待たされない
+     *
+     * @throws Exception
+     */
+    @Test
+    public void fairnessTest() throws Exception {
+        try (StandInServer server = StandInServer.start()) {
+            server.setLatency(Duration.ofMillis(50));
+            SenderEngine engine = SenderEngine.createBuilder()
+                    .setThreads(2)
+                    .build();
+            GzipSender noisy = server.sender(engine.getConnectionPool());
+            noisy.waitTime = Duration.ZERO;
+            noisy.window = 2;
+            noisy.flushPolicy = FlushPolicy.createBuilder()
+                    .setMaxRecords(1)
+                    .build();
+            noisy.start(engine);
+            GzipSender quiet = server.sender(engine.getConnectionPool());
+            quiet.waitTime = Duration.ZERO;
+            quiet.start(engine);
+
+            for (int i = 0; i < 100; i++) {
+                noisy.add(TestData.port("session=0&id=" + i));
+            }
+            // 1件ずつ送信するため全て送信するには2.5秒以上かかる
+            CompletableFuture<SendResult> backlog = noisy.flush();
+            TimeUnit.MILLISECONDS.sleep(100);
+
+            long start = System.nanoTime();
+            quiet.add(TestData.port("session=1&id=0"));
+            assertTrue(quiet.flush().get(10, TimeUnit.SECONDS).isSuccess());
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+            assertFalse(backlog.isDone());
+
+            assertTrue(backlog.get(30, TimeUnit.SECONDS).isSuccess());
+            engine.close();
+            assertEquals(101, server.received().size());
+        }
+    }
+
+    /**
+     * サーキットブレーカーを閉じるための送信先の確認を待つ間も、同じスレッドを共有する他のセッションは送信できる
+     *
+     * @throws Exception
+     */
+    @Test
+    public void probeTest() throws Exception {
+        try (StandInServer server = StandInServer.start()) {
+            SenderEngine engine = SenderEngine.createBuilder()
+                    .setThreads(1)
+                    .build();
+            String uri = server.uri();
+            // 応答しない送信先の確認
+            CompletableFuture<Boolean> probe = new CompletableFuture<>();
+            GzipSender blocked = new GzipSender(engine.getConnectionPool()) {
+                @Override
+                protected String uri() {
+                    return uri;
+                }
+
+                @Override
+                protected CompletableFuture<Boolean> probe() {
+                    return probe;
+                }
+            };
+            blocked.waitTime = Duration.ZERO;
+            blocked.circuitBreaker = CircuitBreaker.createBuilder()
+                    .setFailureThreshold(1)
+                    .setOpenDuration(Duration.ZERO)
+                    .build();
+            blocked.circuitBreaker.onFailure();
+            blocked.start(engine);
+            blocked.add(TestData.port("session=0&id=0"));
+            blocked.flush();
+
+            GzipSender other = server.sender(engine.getConnectionPool());
+            other.waitTime = Duration.ZERO;
+            other.start(engine);
+            other.add(TestData.port("session=1&id=0"));
+            assertTrue(other.flush().get(10, TimeUnit.SECONDS).isSuccess());
+            assertEquals(1, server.received().size());
+            assertEquals(CircuitBreaker.State.HALF_OPEN, blocked.circuitBreaker.getState());
+
+            // 送信先が応答すると構成を再開する
+            probe.complete(true);
+            assertTrue(blocked.circuitBreaker.isClosed());
+            assertTrue(blocked.flush().get(10, TimeUnit.SECONDS).isSuccess());
+            blocked.close();
+            other.close();
+            engine.close();
+            assertEquals(2, server.received().size());
+        }
+    }
+
+    /**
+     * 仮想スレッドを使用する設定でも送信でき、Java 21より前のバージョンではプラットフォームスレッドで送信する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void virtualThreadTest() throws Exception {
+        try (StandInServer server = StandInServer.start()) {
+            SenderEngine engine = SenderEngine.createBuilder()
+                    .setThreads(1)
+                    .setVirtualThreads(true)
+                    .build();
+            assertEquals(Threads.isVirtualAvailable(), engine.isVirtualThreads());
+            List<CompletableFuture<SendResult>> results = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                GzipSender sender = server.sender(engine.getConnectionPool());
+                sender.waitTime = Duration.ZERO;
+                sender.start(engine);
+                sender.add(TestData.port("session=" + i + "&id=0"));
+                results.add(sender.flush());
+            }
+            for (CompletableFuture<SendResult> result : results) {
+                assertTrue(result.get(10, TimeUnit.SECONDS).isSuccess());
+            }
+            engine.close();
+            assertEquals(10, server.received().size());
+        }
+    }
+
+    private static int countThreads(String prefix) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,142 @@
+package logbook.kcvdb.client;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.junit.Test;
+
+public class SenderMetricsTest {
+
+    /**
+     * パーセンタイルは値が含まれる2の累乗の区間の上限で近似する
+     */
+    @Test
+    public void histogramTest() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(0.5));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-1);
+
+        assertEquals(101, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+        // 50番目の値(50)は[32, 63]に含まれる
+        assertEquals(63, histogram.getPercentile(0.5));
+        // 最大値を超えない
+        assertEquals(100, histogram.getPercentile(0.99));
+        assertEquals(0, histogram.getPercentile(0));
+    }
+
+    /**
+     * 送信の成功と失敗、再送信、セッションの再生成を記録する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void senderTest() throws Exception {
+        StatusLine ok = mock(StatusLine.class);
+        doReturn(200).when(ok).getStatusCode();
+        StatusLine error = mock(StatusLine.class);
+        doReturn(500).when(error).getStatusCode();
+        HttpResponse okResponse = mock(CloseableHttpResponse.class);
+        doReturn(ok).when(okResponse).getStatusLine();
+        HttpResponse errorResponse = mock(CloseableHttpResponse.class);
+        doReturn(error).when(errorResponse).getStatusLine();
+
+        GzipSender sender = spy(new GzipSender());
+        sender.waitTime = Duration.ZERO;
+        sender.retryPolicy = RetryPolicy.createBuilder()
+                .setBaseDelay(Duration.ofMillis(1))
+                .setMaxAttempts(2)
+                .build();
+        sender.filter = ApiFilter.createBuilder()
+                .drop("/kcsapi/api_port/port")
+                .build();
+        HttpClient client = spy(sender.client());
+        List<HttpResponse> responses = new ArrayList<>();
+        responses.add(okResponse);
+        responses.add(errorResponse);
+        responses.add(errorResponse);
+        doAnswer(invocation -> {
+            // 送信データを構成させる
+            ((HttpPost) invocation.getArguments()[0]).getEntity().writeTo(new ByteArrayOutputStream());
+            return responses.remove(0);
+        }).when(client).execute(anyObject());
+        doReturn(client).when(sender).client();
+        SenderMetrics metrics = sender.getMetrics();
+
+        ZonedDateTime localTime = ZonedDateTime.now().minusSeconds(10);
+        sender.add(TestData.data("http://203.104.209.71/kcsapi/api_get_member/deck", localTime));
+        sender.add(TestData.data("http://203.104.209.71/kcsapi/api_get_member/ship2", localTime));
+        sender.add(TestData.data("http://203.104.209.71/kcsapi/api_port/port", localTime));
+        assertEquals(2, metrics.getRecordsEnqueued());
+        assertEquals(1, metrics.getRecordsFiltered());
+        assertTrue(metrics.getBytesEnqueued() > 0);
+
+        sender.send();
+        assertEquals(1, metrics.getBatchesSent());
+        assertEquals(2, metrics.getRecordsSent());
+        assertEquals(metrics.getBytesEnqueued(), metrics.getBytesSent());
+        assertEquals(2, metrics.getEndToEndLatency().getCount());
+        assertTrue(metrics.getEndToEndLatencyMean() >= 10000);
+        assertEquals(1, metrics.getComposeTime().getCount());
+        assertTrue(metrics.getCompressionRatio() > 0);
+
+        sender.add(TestData.data("http://203.104.209.71/kcsapi/api_get_member/deck", localTime));
+        sender.send();
+        assertEquals(1, metrics.getBatchesFailed());
+        assertEquals(1, metrics.getRecordsFailed());
+        assertEquals(1, metrics.getRetries());
+        assertEquals(1, metrics.getSessionRegenerations());
+        assertEquals(3, metrics.getHttpLatency().getCount());
+
+        Map<String, Number> snapshot = metrics.snapshot();
+        assertEquals(2L, snapshot.get("RecordsSent"));
+        assertEquals(1L, snapshot.get("Retries"));
+
+        List<Map<String, Number>> exported = new ArrayList<>();
+        sender.addExporter(m -> exported.add(m.snapshot()));
+        sender.close();
+        assertEquals(1, exported.size());
+    }
+
+    /**
+     * JMXに登録し、属性を読み取る
+     *
+     * @throws Exception
+     */
+    @Test
+    public void mbeanTest() throws Exception {
+        GzipSender sender = new GzipSender();
+        sender.add(TestData.data("http://203.104.209.71/kcsapi/api_port/port", ZonedDateTime.now()));
+        sender.getMetrics().registerMBean("test");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("logbook.kcvdb.client:type=SenderMetrics,name=\"test\"");
+        assertTrue(server.isRegistered(name));
+        assertEquals(1L, server.getAttribute(name, "QueueDepth"));
+        assertEquals(1L, server.getAttribute(name, "RecordsEnqueued"));
+
+        sender.close();
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,201 @@
+package logbook.kcvdb.client;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 送信に成功していないApiDataは開き直した後に再度読み込まれる
+     *
+     * @throws Exception
+     */
+    @Test
+    public void replayTest() throws Exception {
+        Path dir = this.folder.getRoot().toPath();
+        try (Spool spool = Spool.createBuilder(dir).build()) {
+            spool.append(TestData.get(1));
+            spool.append(TestData.get(2));
+            spool.append(TestData.get(3));
+            assertEquals(3, spool.size());
+
+            assertEquals(2, spool.poll(2).size());
+            spool.commit();
+            assertEquals(1, spool.size());
+
+            // 送信に失敗した場合は再度読み込まれる
+            assertEquals(1, spool.poll(10).size());
+            spool.rewind();
+            assertTrue(spool.hasUnread());
+        }
+        try (Spool spool = Spool.createBuilder(dir).build()) {
+            assertEquals(1, spool.size());
+            List<ApiData> datas = spool.poll(10);
+            assertEquals(1, datas.size());
+
+            ApiData expected = TestData.get(3);
+            ApiData actual = datas.get(0);
+            assertEquals(expected.getRequestUri(), actual.getRequestUri());
+            assertEquals(expected.getRequestBody(), actual.getRequestBody());
+            assertEquals(expected.getResponseBody(), actual.getResponseBody());
+            assertEquals(expected.getStatusCode(), actual.getStatusCode());
+            assertEquals(expected.getHttpDate(), actual.getHttpDate());
+            assertEquals(expected.getLocalTime(), actual.getLocalTime());
+        }
+    }
+
+    /**
+     * セグメントが切り替わり、送信済みのセグメントは削除され、ディスク使用量は上限を超えない
+     *
+     * @throws Exception
+     */
+    @Test
+    public void rotationTest() throws Exception {
+        Path dir = this.folder.getRoot().toPath();
+        try (Spool spool = Spool.createBuilder(dir).setSegmentSize(512).setMaxBytes(2048).build()) {
+            for (int i = 0; i < 100; i++) {
+                spool.append(TestData.get(i));
+                assertTrue(this.segments(dir).size() <= 4);
+            }
+            // 古いセグメントは破棄されている
+            int size = spool.size();
+            assertTrue(size < 100);
+            List<ApiData> datas = spool.poll(1000);
+            assertEquals(size, datas.size());
+            assertEquals("RequestUri99", datas.get(datas.size() - 1).getRequestUri());
+
+            spool.commit();
+            assertEquals(0, spool.size());
+            assertEquals(1, this.segments(dir).size());
+        }
+    }
+
+    /**
+     * チェックサムが一致しないレコード以降は読み込まれない
+     *
+     * @throws Exception
+     */
+    @Test
+    public void corruptionTest() throws Exception {
+        Path dir = this.folder.getRoot().toPath();
+        try (Spool spool = Spool.createBuilder(dir).build()) {
+            spool.append(TestData.get(1));
+            spool.append(TestData.get(2));
+        }
+        Path segment = this.segments(dir).get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, 0);
+            length.flip();
+            // 2件目のペイロードを壊す
+            int second = 8 + length.getInt();
+            channel.write(ByteBuffer.wrap(new byte[] { 0x7f, 0x7f, 0x7f }), second + 8);
+        }
+        try (Spool spool = Spool.createBuilder(dir).build()) {
+            assertEquals(1, spool.size());
+            assertEquals("RequestUri1", spool.poll(10).get(0).getRequestUri());
+        }
+    }
+
+    /**
+     * BodySourceを読み込めずスプールに書き込めない場合はメモリ上のキューに追加する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void unreadableSourceTest() throws Exception {
+        Path dir = this.folder.getRoot().toPath();
+        try (Spool spool = Spool.createBuilder(dir).build()) {
+            GzipSender sender = new GzipSender();
+            sender.setSpool(spool);
+            BodySource source = () -> {
+                throw new IOException("読み込めない");
+            };
+            ApiData data = ApiData.createBuilder()
+                    .setStatusCode(200)
+                    .setHttpDate("Sat, 07 May 2016 01:34:30 GMT")
+                    .setLocalTime(ZonedDateTime.now())
+                    .setRequestUri("RequestUri")
+                    .setRequestBody("RequestBody")
+                    .setResponseBody(source)
+                    .build();
+
+            assertTrue(sender.offer(data));
+            assertEquals(0, spool.size());
+            assertEquals(1, sender.queue.size());
+            sender.close();
+        }
+    }
+
+    /**
+     * 送信に失敗してもスプールのApiDataは失われない
+     *
+     * @throws Exception
+     */
+    @Test
+    public void senderTest() throws Exception {
+        Path dir = this.folder.getRoot().toPath();
+        try (Spool spool = Spool.createBuilder(dir).build()) {
+            GzipSender sender = spy(new GzipSender());
+            sender.setSpool(spool);
+            sender.retryPolicy = RetryPolicy.createBuilder().setMaxAttempts(1).build();
+            HttpClient client = spy(sender.client());
+            doThrow(new UnknownHostException()).when(client).execute(anyObject());
+            doReturn(client).when(sender).client();
+
+            sender.add(TestData.get(1));
+            sender.add(TestData.get(2));
+            sender.send();
+
+            verify(sender).failure();
+            assertEquals(2, spool.size());
+            assertTrue(spool.hasUnread());
+
+            StatusLine mockStatusLine = mock(StatusLine.class);
+            doReturn(200).when(mockStatusLine).getStatusCode();
+            HttpResponse mockResponse = mock(CloseableHttpResponse.class);
+            doReturn(mockStatusLine).when(mockResponse).getStatusLine();
+            doReturn(mockResponse).when(client).execute(anyObject());
+
+            sender.send();
+
+            verify(sender).success();
+            assertEquals(0, spool.size());
+            sender.close();
+        }
+    }
+
+    private List<Path> segments(Path dir) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.seg")) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+}
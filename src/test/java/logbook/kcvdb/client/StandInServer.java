@@ -0,0 +1,450 @@
+package logbook.kcvdb.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * テスト用にプロセス内で起動する /api/send/gzip の代わりのサーバーです<br>
+ * マルチパートの metadata と body を解析し、body を展開してJSONを検証します。
+ * 応答の遅延、ランダムな5xx、予約した障害(Retry-After付きの429/503、接続の切断)を注入できます
+ *
+ */
+class StandInServer implements AutoCloseable {
+
+    /** 送信データのJSONオブジェクトが持つ文字列のキー */
+    private static final String[] STRING_KEYS = { "RequestUri", "RequestBody", "ResponseBody", "HttpDate",
+            "LocalTime" };
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "kcvdb-stand-in");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** 次のリクエストから順に適用する障害 */
+    private final Queue<Fault> faults = new ConcurrentLinkedQueue<>();
+
+    /** 受信したApiData */
+    private final Queue<Received> received = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong invalid = new AtomicLong();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    /** 処理中のリクエストの数 */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /** 同時に処理したリクエストの最大数(応答を始めるまで) */
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private volatile Duration latency = Duration.ZERO;
+
+    private volatile double errorRate;
+
+    private StandInServer(HttpServer server) {
+        this.server = server;
+        server.createContext("/api/send/gzip", this::handle);
+        server.setExecutor(this.executor);
+        server.start();
+    }
+
+    /**
+     * ループバックアドレスの空いているポートで起動します
+     *
+     * @return StandInServer
+     * @throws IOException 起動できなかった場合
+     */
+    static StandInServer start() throws IOException {
+        return new StandInServer(HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0));
+    }
+
+    /**
+     * 送信先URIを取得します
+     *
+     * @return 送信先URI
+     */
+    String uri() {
+        InetSocketAddress address = this.server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort() + "/api/send/gzip";
+    }
+
+    /**
+     * このサーバーへ送信するGzipSenderを作成します
+     *
+     * @return GzipSender
+     */
+    GzipSender sender() {
+        String uri = this.uri();
+        return new GzipSender() {
+            @Override
+            protected String uri() {
+                return uri;
+            }
+        };
+    }
+
+    /**
+     * 共有する接続プールを使用してこのサーバーへ送信するGzipSenderを作成します
+     *
+     * @param pool 接続プール
+     * @return GzipSender
+     */
+    GzipSender sender(ConnectionPool pool) {
+        String uri = this.uri();
+        return new GzipSender(pool) {
+            @Override
+            protected String uri() {
+                return uri;
+            }
+        };
+    }
+
+    /**
+     * 全てのリクエストに応答する前に待機する時間を設定します
+     *
+     * @param latency 待機時間
+     */
+    void setLatency(Duration latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * 予約した障害が無いリクエストに500を返す割合を設定します
+     *
+     * @param errorRate 500を返す割合(0以上1以下)
+     */
+    void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * 次のリクエストから順に適用する障害を予約します
+     *
+     * @param faults 障害
+     */
+    void enqueue(Fault... faults) {
+        Collections.addAll(this.faults, faults);
+    }
+
+    /**
+     * 受信して検証に成功したApiDataを取得します
+     *
+     * @return 受信したApiData
+     */
+    List<Received> received() {
+        return new ArrayList<>(this.received);
+    }
+
+    /**
+     * 受信したリクエスト(HEADを含む)の数を取得します
+     *
+     * @return リクエストの数
+     */
+    long requests() {
+        return this.requests.get();
+    }
+
+    /**
+     * 検証に失敗したリクエストの数を取得します
+     *
+     * @return 検証に失敗したリクエストの数
+     */
+    long invalid() {
+        return this.invalid.get();
+    }
+
+    /**
+     * 受信した圧縮後の body の合計サイズを取得します
+     *
+     * @return 合計サイズ(バイト)
+     */
+    long bytes() {
+        return this.bytes.get();
+    }
+
+    /**
+     * 同時に処理したリクエストの最大数を取得します<br>
+     * リクエストは受信してから応答を始めるまでを処理中として数えます
+     *
+     * @return 同時に処理したリクエストの最大数
+     */
+    int maxInFlight() {
+        return this.maxInFlight.get();
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            this.requests.incrementAndGet();
+            byte[] content;
+            // 応答を始めるまでを処理中とする
+            this.maxInFlight.accumulateAndGet(this.inFlight.incrementAndGet(), Math::max);
+            try {
+                content = readAll(exchange.getRequestBody());
+                long latency = this.latency.toMillis();
+                if (latency > 0) {
+                    TimeUnit.MILLISECONDS.sleep(latency);
+                }
+            } finally {
+                this.inFlight.decrementAndGet();
+            }
+            Fault fault = this.faults.poll();
+            if (fault == null && this.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < this.errorRate) {
+                fault = Fault.status(500);
+            }
+            if (fault != null) {
+                if (fault.drop) {
+                    // 応答せずに接続を切断する
+                    throw new IOException("接続を切断します");
+                }
+                if (fault.retryAfter != null) {
+                    exchange.getResponseHeaders().add("Retry-After", String.valueOf(fault.retryAfter.getSeconds()));
+                }
+                respond(exchange, fault.status);
+                return;
+            }
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                respond(exchange, 200);
+                return;
+            }
+            List<Received> records;
+            try {
+                records = this.parse(exchange.getRequestHeaders().getFirst("Content-Type"), content);
+            } catch (RuntimeException | IOException e) {
+                this.invalid.incrementAndGet();
+                respond(exchange, 400);
+                return;
+            }
+            this.received.addAll(records);
+            respond(exchange, 200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private List<Received> parse(String contentType, byte[] content) throws IOException {
+        String marker = "boundary=";
+        int index = contentType == null ? -1 : contentType.indexOf(marker);
+        if (index < 0) {
+            throw new IllegalArgumentException("マルチパートではありません");
+        }
+        String boundary = contentType.substring(index + marker.length()).split(";")[0].trim();
+        byte[] metadata = null;
+        byte[] body = null;
+        for (Part part : parts(content, boundary)) {
+            if (part.headers.contains("name=\"metadata\"")) {
+                metadata = part.content;
+            } else if (part.headers.contains("name=\"body\"")) {
+                body = part.content;
+            }
+        }
+        if (metadata == null || body == null) {
+            throw new IllegalArgumentException("metadata 又は body がありません");
+        }
+        JsonObject meta;
+        try (JsonReader reader = Json.createReader(new ByteArrayInputStream(metadata))) {
+            meta = reader.readObject();
+        }
+        meta.getString("AgentId");
+        UUID sessionId = UUID.fromString(meta.getString("SessionId"));
+        this.bytes.addAndGet(body.length);
+
+        long now = System.currentTimeMillis();
+        List<Received> records = new ArrayList<>();
+        // 並列に圧縮した body は複数のgzipメンバーが連結されている
+        try (JsonReader reader = Json.createReader(new GZIPInputStream(new ByteArrayInputStream(body)))) {
+            JsonArray array = reader.readArray();
+            for (JsonValue value : array) {
+                JsonObject object = (JsonObject) value;
+                for (String key : STRING_KEYS) {
+                    if (!(object.get(key) instanceof JsonString)) {
+                        throw new IllegalArgumentException(key + "がありません");
+                    }
+                }
+                if (!(object.get("StatusCode") instanceof JsonNumber)) {
+                    throw new IllegalArgumentException("StatusCodeがありません");
+                }
+                records.add(new Received(sessionId, object, now));
+            }
+        }
+        return records;
+    }
+
+    private static List<Part> parts(byte[] content, String boundary) {
+        byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        List<Part> parts = new ArrayList<>();
+        int start = indexOf(content, delimiter, 0);
+        while (start >= 0) {
+            int headerStart = start + delimiter.length;
+            if (headerStart + 1 < content.length && content[headerStart] == '-' && content[headerStart + 1] == '-') {
+                break;
+            }
+            headerStart += 2;
+            int headerEnd = indexOf(content, "\r\n\r\n".getBytes(StandardCharsets.US_ASCII), headerStart);
+            int next = indexOf(content, delimiter, headerEnd);
+            if (headerEnd < 0 || next < 0) {
+                throw new IllegalArgumentException("マルチパートが壊れています");
+            }
+            String headers = new String(content, headerStart, headerEnd - headerStart, StandardCharsets.US_ASCII);
+            byte[] part = new byte[next - 2 - (headerEnd + 4)];
+            System.arraycopy(content, headerEnd + 4, part, 0, part.length);
+            parts.add(new Part(headers, part));
+            start = next;
+        }
+        return parts;
+    }
+
+    private static int indexOf(byte[] array, byte[] target, int from) {
+        outer: for (int i = Math.max(from, 0); i <= array.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (array[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status) throws IOException {
+        // JDKのHttpServerは接続を再利用するとチャンク形式のリクエストボディを読み誤ることがあるため、毎回切断する
+        exchange.getResponseHeaders().add("Connection", "close");
+        exchange.sendResponseHeaders(status, -1);
+        OutputStream out = exchange.getResponseBody();
+        out.close();
+    }
+
+    /**
+     * 注入する障害
+     */
+    static final class Fault {
+
+        final int status;
+
+        final Duration retryAfter;
+
+        final boolean drop;
+
+        private Fault(int status, Duration retryAfter, boolean drop) {
+            this.status = status;
+            this.retryAfter = retryAfter;
+            this.drop = drop;
+        }
+
+        /**
+         * 指定したステータスコードを返します
+         *
+         * @param status ステータスコード
+         * @return Fault
+         */
+        static Fault status(int status) {
+            return new Fault(status, null, false);
+        }
+
+        /**
+         * Retry-Afterヘッダーを付けて指定したステータスコードを返します
+         *
+         * @param status ステータスコード
+         * @param retryAfter 再送信までの待機時間(秒単位)
+         * @return Fault
+         */
+        static Fault retryAfter(int status, Duration retryAfter) {
+            return new Fault(status, retryAfter, false);
+        }
+
+        /**
+         * 応答せずに接続を切断します
+         *
+         * @return Fault
+         */
+        static Fault drop() {
+            return new Fault(0, null, true);
+        }
+    }
+
+    /**
+     * 受信したApiData
+     */
+    static final class Received {
+
+        /** セッションID */
+        final UUID sessionId;
+
+        /** 送信データのJSONオブジェクト */
+        final JsonObject data;
+
+        /** 受信した時刻(エポックミリ秒) */
+        final long receivedAt;
+
+        Received(UUID sessionId, JsonObject data, long receivedAt) {
+            this.sessionId = sessionId;
+            this.data = data;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    private static final class Part {
+
+        final String headers;
+
+        final byte[] content;
+
+        Part(String headers, byte[] content) {
+            this.headers = headers;
+            this.content = content;
+        }
+    }
+}
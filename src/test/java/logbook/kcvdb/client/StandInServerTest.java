@@ -0,0 +1,123 @@
+package logbook.kcvdb.client;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * プロセス内で起動したサーバーへ実際に送信する
+ */
+public class StandInServerTest {
+
+    /**
+     * 送信データが欠けずに届き、JSONとして検証できる
+     *
+     * @throws Exception
+     */
+    @Test
+    public void sendTest() throws Exception {
+        try (StandInServer server = StandInServer.start()) {
+            GzipSender sender = server.sender();
+            sender.waitTime = Duration.ZERO;
+            sender.parallelCompression = ParallelCompression.createBuilder()
+                    .setThreshold(0)
+                    .setChunkSize(1)
+                    .build();
+            for (int i = 0; i < 10; i++) {
+                sender.add(TestData.port("id=" + i));
+            }
+            sender.send();
+            sender.close();
+
+            assertEquals(0, server.invalid());
+            assertIds(server.received(), 10);
+            assertEquals(sender.sessionId, server.received().get(0).sessionId);
+            assertEquals("api_verno=1", server.received().get(0).data.getString("RequestBody"));
+        }
+    }
+
+    /**
+     * 429と503のRetry-After、接続の切断、ランダムな5xxの後に再送信して全て届く
+     *
+     * @throws Exception
+     */
+    @Test
+    public void faultTest() throws Exception {
+        try (StandInServer server = StandInServer.start()) {
+            server.enqueue(StandInServer.Fault.retryAfter(429, Duration.ofSeconds(1)),
+                    StandInServer.Fault.drop(),
+                    StandInServer.Fault.retryAfter(503, Duration.ofSeconds(0)));
+            GzipSender sender = server.sender();
+            sender.waitTime = Duration.ZERO;
+            sender.retryPolicy = RetryPolicy.createBuilder()
+                    .setBaseDelay(Duration.ofMillis(10))
+                    .setMaxDelay(Duration.ofMillis(50))
+                    .setMaxAttempts(30)
+                    .build();
+            sender.circuitBreaker = CircuitBreaker.createBuilder()
+                    .setFailureThreshold(100)
+                    .build();
+            sender.add(TestData.port("id=0"));
+            long start = System.nanoTime();
+            sender.send();
+            // Retry-Afterに従って待機した
+            assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+            assertEquals(4, server.requests());
+            assertIds(server.received(), 1);
+
+            server.setErrorRate(0.5);
+            for (int i = 1; i < 20; i++) {
+                sender.add(TestData.port("id=" + i));
+                sender.send();
+            }
+            sender.close();
+            assertIds(server.received(), 20);
+        }
+    }
+
+    /**
+     * 応答が遅い場合もバックグラウンドで複数のバッチを同時に送信する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void latencyTest() throws Exception {
+        try (StandInServer server = StandInServer.start()) {
+            server.setLatency(Duration.ofMillis(200));
+            GzipSender sender = server.sender();
+            sender.waitTime = Duration.ZERO;
+            sender.window = 4;
+            sender.flushPolicy = FlushPolicy.createBuilder()
+                    .setMaxRecords(1)
+                    .setLinger(Duration.ofMillis(10))
+                    .build();
+            sender.start();
+            long start = System.nanoTime();
+            for (int i = 0; i < 8; i++) {
+                sender.add(TestData.port("id=" + i));
+            }
+            sender.flush();
+            sender.close();
+            // 直列に送信すると1.6秒かかる
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1200));
+            assertIds(server.received(), 8);
+        }
+    }
+
+    private static void assertIds(List<StandInServer.Received> received, int count) {
+        Set<String> uris = new HashSet<>();
+        for (StandInServer.Received item : received) {
+            uris.add(item.data.getString("RequestUri"));
+        }
+        assertEquals(count, uris.size());
+        for (int i = 0; i < count; i++) {
+            assertTrue(uris.contains("http://203.104.209.71/kcsapi/api_port/port?id=" + i));
+        }
+    }
+}
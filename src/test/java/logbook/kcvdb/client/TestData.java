@@ -0,0 +1,83 @@
+package logbook.kcvdb.client;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * テスト用の送信データを生成します
+ *
+ */
+final class TestData {
+
+    /** テスト用の送信データのHTTPヘッダーの日時 */
+    private static final String HTTP_DATE = "Sat, 07 May 2016 01:34:30 GMT";
+
+    /** テスト用の送信データを受信した日時 */
+    private static final ZonedDateTime LOCAL_TIME = ZonedDateTime.from(
+            DateTimeFormatter.RFC_1123_DATE_TIME.parse("Sat, 07 May 2016 01:34:37 GMT"));
+
+    private TestData() {
+    }
+
+    /**
+     * 受信日時が固定された送信データ
+     *
+     * @return ApiData
+     */
+    static ApiData get() {
+        return build("RequestUri", "RequestBody", "ResponseBody", LOCAL_TIME);
+    }
+
+    /**
+     * 受信日時が固定され、内容に番号を含む送信データ
+     *
+     * @param i 番号
+     * @return ApiData
+     */
+    static ApiData get(int i) {
+        return build("RequestUri" + i, "RequestBody" + i, "ResponseBody" + i, LOCAL_TIME);
+    }
+
+    /**
+     * 指定したrequestUriの送信データ
+     *
+     * @param uri requestUri
+     * @return ApiData
+     */
+    static ApiData data(String uri) {
+        return data(uri, ZonedDateTime.now());
+    }
+
+    /**
+     * 指定したrequestUriと受信日時の送信データ
+     *
+     * @param uri requestUri
+     * @param localTime 受信日時
+     * @return ApiData
+     */
+    static ApiData data(String uri, ZonedDateTime localTime) {
+        return build(uri, "api_verno=1", "svdata={}", localTime);
+    }
+
+    /**
+     * api_tokenと日本語を含む母港の送信データ
+     *
+     * @param query requestUriのクエリ
+     * @return ApiData
+     */
+    static ApiData port(String query) {
+        return build("http://203.104.209.71/kcsapi/api_port/port?" + query, "api_verno=1&api_token=0123abcd",
+                "svdata={\"api_result\":1,\"api_data\":\"吹雪\"}", ZonedDateTime.now());
+    }
+
+    private static ApiData build(String uri, String requestBody, String responseBody, ZonedDateTime localTime) {
+        return ApiData.createBuilder()
+                .setStatusCode(200)
+                .setHttpDate(HTTP_DATE)
+                .setLocalTime(localTime)
+                .setRequestBody(requestBody)
+                .setRequestUri(uri)
+                .setResponseBody(responseBody)
+                .build();
+    }
+}
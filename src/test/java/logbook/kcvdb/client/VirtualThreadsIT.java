@@ -0,0 +1,52 @@
+package logbook.kcvdb.client;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * パッケージしたマルチリリースJARをJava 21以降で実行した場合に、META-INF/versions/21 の{@link VirtualThreads}が使用される<br>
+ * jdk21+プロファイルでのみ実行されます
+ */
+public class VirtualThreadsIT {
+
+    /**
+     * 仮想スレッドを使用でき、バッチの構成と送信を行うスレッドが仮想スレッドになる
+     *
+     * @throws Exception
+     */
+    @Test
+    public void virtualTest() throws Exception {
+        assertTrue(VirtualThreads.class.getProtectionDomain().getCodeSource().getLocation().getPath().endsWith(".jar"));
+        assertTrue(Threads.isVirtualAvailable());
+        ExecutorService io = Threads.io(1, true, "kcvdb-it-io");
+        try {
+            Thread thread = io.submit(Thread::currentThread).get(10, TimeUnit.SECONDS);
+            // ソースはJava 8のため、Thread#isVirtualはリフレクションで呼び出す
+            assertEquals(Boolean.TRUE, Thread.class.getMethod("isVirtual").invoke(thread));
+            assertTrue(thread.getName().startsWith("kcvdb-it-io-"));
+        } finally {
+            io.shutdown();
+        }
+    }
+
+    /**
+     * 仮想スレッドを使用しない設定ではプラットフォームスレッドで送信する
+     *
+     * @throws Exception
+     */
+    @Test
+    public void platformTest() throws Exception {
+        ExecutorService io = Threads.io(1, false, "kcvdb-it-io");
+        try {
+            Thread thread = io.submit(Thread::currentThread).get(10, TimeUnit.SECONDS);
+            assertEquals(Boolean.FALSE, Thread.class.getMethod("isVirtual").invoke(thread));
+            assertTrue(thread.isDaemon());
+        } finally {
+            io.shutdown();
+        }
+    }
+}